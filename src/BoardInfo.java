@@ -107,9 +107,178 @@ public class BoardInfo{
         return millLines;
     }
 
+    /** Bittimaski, jossa ovat mukana kaikki laudan 24 ruutua*/
+    public static final int ALL_SQUARES_MASK = (1 << SQUARES_ON_BOARD) - 1;
+
+    /** Jokaisen ruudun oma bitti (<tt>1 << square</tt>)*/
+    private static final int[] SQUARE_MASKS = new int[SQUARES_ON_BOARD];
+
+    /** Jokaisen ruudun naapuriruudut bittimaskina*/
+    private static final int[] NEIGHBOUR_MASKS = new int[SQUARES_ON_BOARD];
+
+    /** Jokaisen ruudun kahden myllylinjan muut ruudut bittimaskeina (koko: 24x2)*/
+    private static final int[][] MILL_LINE_MASKS = new int[SQUARES_ON_BOARD][2];
+
+    /** Laudan kaikki 16 mylly kolmen ruudun bittimaskeina*/
+    private static final int[] MILL_MASKS = new int[16];
+
+    /**
+     * Laudan symmetrioiden mr: nelj kiertoa, niiden peilikuvat ja
+     * kaikkien niden yhdistelmt sis- ja ulkokehn vaihdon kanssa.
+     * Symmetria 0 on identiteetti.
+     */
+    public static final int SYMMETRIES = 16;
+
+    /** Ruutujen koordinaatit 7x7-ruudukossa, jonka keskipiste on (3,3)*/
+    private static final byte[] SQUARE_X = {0,3,6, 1,3,5, 2,3,4, 0,1,2,4,5,6, 2,3,4, 1,3,5, 0,3,6};
+    private static final byte[] SQUARE_Y = {0,0,0, 1,1,1, 2,2,2, 3,3,3,3,3,3, 4,4,4, 5,5,5, 6,6,6};
+
+    /** Ruutujen kuvat symmetrioittain (koko: 16x24)*/
+    private static final byte[][] SYMMETRIC_SQUARES = new byte[SYMMETRIES][SQUARES_ON_BOARD];
+
+    /** Kunkin symmetrian knteissymmetria*/
+    private static final int[] INVERSE_SYMMETRIES = new int[SYMMETRIES];
+
+    /**
+     * Bittimaskien kuvat symmetrioittain ja tavuittain: maskin kuva on sen
+     * kolmen tavun kuvien OR (koko: 16x3x256).
+     */
+    private static final int[][][] SYMMETRIC_BYTE_MASKS = new int[SYMMETRIES][3][256];
+
     // Kun luokka ladataan, asetetaan Myllylinjat muuttujaan
+    // ja johdetaan niist sek naapuriruuduista bittimaskit.
     static {
         MILL_LINES = createMillLines();
+
+        for (int square=0; square < SQUARES_ON_BOARD; square++) {
+            SQUARE_MASKS[square] = 1 << square;
+            for (int index=0; index < NEIGHBOUR_SQUARES[square].length; index++) {
+                NEIGHBOUR_MASKS[square] |= 1 << NEIGHBOUR_SQUARES[square][index];
+            }
+        }
+        int millCounter = 0;
+        for (int square=0; square < SQUARES_ON_BOARD; square++) {
+            byte[][] millLines = (byte[][])MILL_LINES[square];
+            for (int line=0; line < 2; line++) {
+                MILL_LINE_MASKS[square][line] = (1 << millLines[line][0]) | (1 << millLines[line][1]);
+
+                // Jokainen mylly tallennetaan vain kerran, pienimmn ruutunsa kohdalla.
+                int mill = MILL_LINE_MASKS[square][line] | (1 << square);
+                if (Integer.numberOfTrailingZeros(mill) == square) {
+                    MILL_MASKS[millCounter] = mill;
+                    millCounter++;
+                }
+            }
+        }
+        createSymmetries();
+    }
+
+    /**
+     * Muodostaa symmetrioiden taulukot ruutujen koordinaateista. Symmetrian
+     * numeron bitit 0-1 kertovat kiertojen (90 astetta) mrn, bitti 2
+     * peilauksen ja bitti 3 sis- ja ulkokehn vaihdon.
+     */
+    private static void createSymmetries() {
+        byte[][] squareAt = new byte[7][7];
+        for (byte square=0; square < SQUARES_ON_BOARD; square++) {
+            squareAt[SQUARE_X[square]][SQUARE_Y[square]] = square;
+        }
+        for (int symmetry=0; symmetry < SYMMETRIES; symmetry++) {
+            for (int square=0; square < SQUARES_ON_BOARD; square++) {
+                int x = SQUARE_X[square] - 3;
+                int y = SQUARE_Y[square] - 3;
+                if ((symmetry & 8) != 0) {
+                    // Keh 3 (ulko) <--> 1 (sis), keskikeh 2 pysyy paikallaan.
+                    int ring = Math.max(Math.abs(x), Math.abs(y));
+                    x = x / ring * (4 - ring);
+                    y = y / ring * (4 - ring);
+                }
+                if ((symmetry & 4) != 0) {
+                    x = -x;
+                }
+                for (int turn=0; turn < (symmetry & 3); turn++) {
+                    int turned = -y;
+                    y = x;
+                    x = turned;
+                }
+                SYMMETRIC_SQUARES[symmetry][square] = squareAt[x + 3][y + 3];
+            }
+        }
+        for (int symmetry=0; symmetry < SYMMETRIES; symmetry++) {
+            for (int inverse=0; inverse < SYMMETRIES; inverse++) {
+                if (SYMMETRIC_SQUARES[inverse][SYMMETRIC_SQUARES[symmetry][0]] == 0 &&
+                    SYMMETRIC_SQUARES[inverse][SYMMETRIC_SQUARES[symmetry][1]] == 1 &&
+                    SYMMETRIC_SQUARES[inverse][SYMMETRIC_SQUARES[symmetry][4]] == 4) {
+                        INVERSE_SYMMETRIES[symmetry] = inverse;
+                }
+            }
+            for (int part=0; part < 3; part++) {
+                for (int bits=0; bits < 256; bits++) {
+                    int mask = 0;
+                    for (int bit=0; bit < 8; bit++) {
+                        if ((bits & (1 << bit)) != 0) {
+                            mask |= 1 << SYMMETRIC_SQUARES[symmetry][part*8 + bit];
+                        }
+                    }
+                    SYMMETRIC_BYTE_MASKS[symmetry][part][bits] = mask;
+                }
+            }
+        }
+    }
+
+   /**
+    * Palauttaa ruudun bitin, eli bittimaskin jossa on mukana vain annettu ruutu.
+    * @param square    Mink ruudun bitti halutaan
+    * @return    <tt>1 << square</tt>
+    * @exception ArrayIndexOutOfBoundsException
+    *                       Jos ei ole <tt>0 <= square <= 23</tt>
+    */
+    public static int getSquareMask(byte square) {
+        return SQUARE_MASKS[square];
+    }
+
+   /**
+    * Palauttaa parametrina annetun ruudun kaikki vierusnaapurit bittimaskina.
+    * Toisin kuin <tt>getNeighbours</tt>, tm ei luo uusia olioita.
+    * @param square    Mink ruudun naapureita haetaan?
+    * @return Bittimaski, jossa on mukana annetun ruudun vierusnaapurit
+    * @exception ArrayIndexOutOfBoundsException
+    *                       Jos ei ole <tt>0 <= square <= 23</tt>
+    */
+    public static int getNeighbourMask(byte square) {
+        return NEIGHBOUR_MASKS[square];
+    }
+
+   /**
+    * Palauttaa annetun ruudun toisen myllylinjan muut kaksi ruutua bittimaskina.
+    * Linjan numerointi on sama kuin <tt>getMillLines</tt>-metodissa.
+    * @param square    Mink ruudun myllylinja halutaan
+    * @param line      Kumpi linjoista: 0 tai 1
+    * @return    Bittimaski myllylinjan kahdesta muusta ruudusta
+    * @exception ArrayIndexOutOfBoundsException
+    *                       Jos ei ole <tt>0 <= square <= 23</tt> tai <tt>0 <= line <= 1</tt>
+    */
+    public static int getMillLineMask(byte square, int line) {
+        return MILL_LINE_MASKS[square][line];
+    }
+
+   /**
+    * Palauttaa laudan kaikkien myllyjen lukumrn (16).
+    * @return Myllyjen lukumr
+    */
+    public static int getMillCount() {
+        return MILL_MASKS.length;
+    }
+
+   /**
+    * Palauttaa yhden laudan myllyist kolmen ruudun bittimaskina.
+    * @param mill    Mylly, <tt>0 <= mill < getMillCount()</tt>
+    * @return    Myllyn ruudut bittimaskina
+    * @exception ArrayIndexOutOfBoundsException
+    *                       Jos <tt>mill</tt> oli sallitun vlin ulkopuolella
+    */
+    public static int getMillMask(int mill) {
+        return MILL_MASKS[mill];
     }
 
    /**
@@ -137,6 +306,118 @@ public class BoardInfo{
 
 
 
+   /**
+    * Palauttaa ruudun kuvan annetussa symmetriassa.
+    * @param symmetry  Symmetria, <tt>0 <= symmetry < SYMMETRIES</tt>
+    * @param square    Kuvattava ruutu
+    * @return Ruutu, johon symmetria kuvaa annetun ruudun
+    * @exception ArrayIndexOutOfBoundsException
+    *                       Jos parametrit olivat sallittujen arvojen ulkopuolella
+    */
+    public static byte getSymmetricSquare(int symmetry, byte square) {
+        return SYMMETRIC_SQUARES[symmetry][square];
+    }
+
+   /**
+    * Palauttaa ruutujen bittimaskin kuvan annetussa symmetriassa.
+    * @param symmetry  Symmetria, <tt>0 <= symmetry < SYMMETRIES</tt>
+    * @param mask      Kuvattavat ruudut bittimaskina
+    * @return Bittimaski, jossa ovat ruutujen kuvat
+    */
+    public static int getSymmetricMask(int symmetry, int mask) {
+        int[][] byteMasks = SYMMETRIC_BYTE_MASKS[symmetry];
+        return byteMasks[0][mask & 0xFF] |
+               byteMasks[1][(mask >>> 8) & 0xFF] |
+               byteMasks[2][(mask >>> 16) & 0xFF];
+    }
+
+   /**
+    * Palauttaa symmetrian, joka kumoaa annetun symmetrian.
+    * @param symmetry  Symmetria, <tt>0 <= symmetry < SYMMETRIES</tt>
+    * @return Knteissymmetria
+    */
+    public static int getInverseSymmetry(int symmetry) {
+        return INVERSE_SYMMETRIES[symmetry];
+    }
+
+   /**
+    * Laskee tilanteen kanonisen muodon: kaikista 16 symmetrisest laudasta
+    * pienimmn avaimen <tt>(valkeat << 24) | mustat</tt>. Symmetriset
+    * tilanteet saavat saman kanonisen avaimen.
+    * @param whiteMask  Valkeiden nappuloiden ruudut bittimaskina
+    * @param blackMask  Mustien nappuloiden ruudut bittimaskina
+    * @return Kanoninen avain biteiss 0-47 ja siihen kytetty symmetria
+    *         biteiss 48-51; ks. <tt>getCanonicalKey</tt> ja <tt>getCanonicalSymmetry</tt>
+    */
+    public static long getCanonicalForm(int whiteMask, int blackMask) {
+        long bestKey = ((long)whiteMask << 24) | blackMask;
+        int bestSymmetry = 0;
+        for (int symmetry=1; symmetry < SYMMETRIES; symmetry++) {
+            long key = ((long)getSymmetricMask(symmetry, whiteMask) << 24) |
+                       getSymmetricMask(symmetry, blackMask);
+            if (key < bestKey) {
+                bestKey = key;
+                bestSymmetry = symmetry;
+            }
+        }
+        return bestKey | ((long)bestSymmetry << 48);
+    }
+
+   /**
+    * Kuten <tt>getCanonicalForm(int, int)</tt>, mutta lauta annetaan
+    * ruuduittain vrien taulukkona.
+    * @param squares   Ruutujen vrit (<tt>EMPTY</tt>, <tt>BLACK</tt> tai <tt>WHITE</tt>), koko 24
+    * @return Kanoninen muoto kuten <tt>getCanonicalForm(int, int)</tt>
+    * @exception IllegalArgumentException Jos taulukon koko ei ole 24.
+    */
+    public static long getCanonicalForm(byte[] squares) throws IllegalArgumentException {
+        if (squares.length != SQUARES_ON_BOARD) {
+            throw new IllegalArgumentException("getCanonicalForm(byte[]): "+
+                                               "array length:"+squares.length+" must be "+SQUARES_ON_BOARD);
+        }
+        int whiteMask = 0;
+        int blackMask = 0;
+        for (int square=0; square < SQUARES_ON_BOARD; square++) {
+            if (squares[square] == WHITE) {
+                whiteMask |= 1 << square;
+            }
+            else if (squares[square] == BLACK) {
+                blackMask |= 1 << square;
+            }
+        }
+        return getCanonicalForm(whiteMask, blackMask);
+    }
+
+    /** Kanonisen muodon avain (<tt>(valkeat << 24) | mustat</tt>)*/
+    public static long getCanonicalKey(long canonicalForm) {
+        return canonicalForm & ((1L << 48) - 1);
+    }
+
+    /** Symmetria, joka kuvaa laudan kanoniseen muotoonsa*/
+    public static int getCanonicalSymmetry(long canonicalForm) {
+        return (int)(canonicalForm >>> 48);
+    }
+
+   /**
+    * Palauttaa symmetriat, jotka kuvaavat laudan itselleen.
+    * @param whiteMask  Valkeiden nappuloiden ruudut bittimaskina
+    * @param blackMask  Mustien nappuloiden ruudut bittimaskina
+    * @return Bittimaski, jonka bitti <tt>symmetry</tt> on pll, jos
+    *         symmetria ei muuta lautaa (bitti 0 on aina pll)
+    */
+    public static int getInvariantSymmetries(int whiteMask, int blackMask) {
+        int symmetries = 1;
+        for (int symmetry=1; symmetry < SYMMETRIES; symmetry++) {
+            if (getSymmetricMask(symmetry, whiteMask) == whiteMask &&
+                getSymmetricMask(symmetry, blackMask) == blackMask) {
+                    symmetries |= 1 << symmetry;
+            }
+        }
+        return symmetries;
+    }
+
+
+
     /** Testiohjelma*/
 	public static void main(String[] args) {
         byte[] neighbours = getNeighbours((byte)5);
@@ -154,5 +435,48 @@ public class BoardInfo{
         }
         System.out.println( " --> (3,4) && (13,20) OK");
 
+        // Symmetriat: naapurit ja myllyt silyvt, kaikki ovat eri permutaatioita
+        // ja knteissymmetria kumoaa symmetrian.
+        int errors = 0;
+        java.util.HashSet<String> permutations = new java.util.HashSet<String>();
+        for (int symmetry=0; symmetry < SYMMETRIES; symmetry++) {
+            permutations.add(java.util.Arrays.toString(SYMMETRIC_SQUARES[symmetry]));
+            for (byte square=0; square < SQUARES_ON_BOARD; square++) {
+                byte image = getSymmetricSquare(symmetry, square);
+                if (getSymmetricMask(symmetry, getNeighbourMask(square)) != getNeighbourMask(image) ||
+                    getSymmetricSquare(getInverseSymmetry(symmetry), image) != square) {
+                        errors++;
+                }
+            }
+            for (int mill=0; mill < getMillCount(); mill++) {
+                int image = getSymmetricMask(symmetry, getMillMask(mill));
+                boolean found = false;
+                for (int other=0; other < getMillCount(); other++) {
+                    found |= (getMillMask(other) == image);
+                }
+                if ( !found) {
+                    errors++;
+                }
+            }
+        }
+        java.util.Random random = new java.util.Random(3);
+        for (int counter=0; counter < 100000; counter++) {
+            int whiteMask = random.nextInt() & ALL_SQUARES_MASK;
+            int blackMask = random.nextInt() & ALL_SQUARES_MASK & ~whiteMask;
+            int symmetry = random.nextInt(SYMMETRIES);
+            long form = getCanonicalForm(whiteMask, blackMask);
+            long other = getCanonicalForm(getSymmetricMask(symmetry, whiteMask),
+                                          getSymmetricMask(symmetry, blackMask));
+            int canonical = getCanonicalSymmetry(form);
+            if (getCanonicalKey(form) != getCanonicalKey(other) ||
+                getCanonicalKey(form) != ( ((long)getSymmetricMask(canonical, whiteMask) << 24) |
+                                           getSymmetricMask(canonical, blackMask) )) {
+                    errors++;
+            }
+        }
+        System.out.println("symmetrioita: "+permutations.size()+", virheit: "+errors+" --> 16, 0 OK");
+        System.out.println("tyhjn laudan siirrot: "+
+                           Integer.bitCount(getInvariantSymmetries(0, 0))+" symmetriaa --> 16 OK");
+
     }
 }
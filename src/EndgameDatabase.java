@@ -0,0 +1,745 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Luokan <tt>EndgameDatabase</tt> ilmentymt ovat siirtelyvaiheen
+ * (<tt>PHASE_MIDGAME</tt> ja <tt>PHASE_ENDGAME</tt>) tietokantoja, joissa on
+ * jokaisen tilanteen tarkka tulos: voitto, hvi tai tasapeli, ja voitolle
+ * ja hville etisyys pelin loppuun puolisiirtoina. Tietokanta kattaa
+ * kaikki tilanteet, joissa kummallakin pelaajalla on 3..<tt>getMaxPieces()</tt>
+ * nappulaa laudalla ja joissa pelivaihe vastaa nappuloiden mri.
+ * <p>
+ * Tilanteet jaetaan osa-avaruuksiin vuorossa olevan pelaajan ja vastustajan
+ * nappuloiden mrien mukaan. Vrit eivt vaikuta tulokseen, joten tilanne
+ * tallennetaan vuorossa olevan pelaajan nkkulmasta. Osa-avaruuden sisll
+ * tilanteen indeksi lasketaan kombinatorisilla jrjestysnumeroilla: ensin
+ * vuorossa olevan pelaajan ruudut 24 ruudusta, sitten vastustajan ruudut
+ * jljelle jvist.
+ * <p>
+ * Tiedoston muoto: otsake (tunniste, versio ja nappuloiden enimmismr,
+ * kukin 4 tavua) ja sen perss osa-avaruudet jrjestyksess (3,3), (3,4),
+ * ..., (max,max), yksi tavu tilannetta kohden. Tavun arvo on
+ * <tt>DRAW</tt> (0), voitto <tt>d</tt> puolisiirrossa (1..127) tai hvi
+ * <tt>d</tt> puolisiirrossa (128 + d).
+ * <p>
+ * Tietokanta luodaan etukteen metodilla <tt>generate</tt> (takaperin
+ * etenev analyysi) ja avataan metodilla <tt>open</tt>. Molemmat kyttvt
+ * muistiin kuvattua tiedostoa, joten kysely ei lue tiedostoa eik luo olioita.
+ */
+public final class EndgameDatabase {
+
+    /** Nappuloiden vhimmismr; kahdella nappulalla peli on jo pttynyt*/
+    public static final int MIN_PIECES = 3;
+
+    /** Suurin tuettu nappuloiden mr (osa-avaruuden on mahduttava yhteen kuvaukseen)*/
+    public static final int MAX_PIECES = 5;
+
+    /** <tt>probe</tt>: tilanne ei kuulu tietokantaan*/
+    public static final int UNKNOWN = -1;
+
+    /** Tasapeli (kumpikaan ei voi pakottaa voittoa)*/
+    public static final int DRAW = 0;
+
+    /** Pisin tallennettava etisyys puolisiirtoina*/
+    public static final int MAX_DISTANCE = 127;
+
+    private static final int LOSS = 128;
+
+    private static final int MAGIC = 0x4D454442; // "MEDB"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+
+    /** Binomikertoimet C(n, k), 0 <= k <= n <= 24*/
+    private static final int[][] BINOMIALS = new int[BoardInfo.SQUARES_ON_BOARD + 1][BoardInfo.SQUARES_ON_BOARD + 1];
+
+    static {
+        for (int n = 0; n <= BoardInfo.SQUARES_ON_BOARD; n++) {
+            BINOMIALS[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                BINOMIALS[n][k] = BINOMIALS[n - 1][k - 1] + BINOMIALS[n - 1][k];
+            }
+        }
+    }
+
+    private final int maxPieces;
+
+    /** Osa-avaruudet: indeksein vuorossa olevan pelaajan ja vastustajan nappuloiden mrt*/
+    private final MappedByteBuffer[][] subspaces;
+
+
+    private EndgameDatabase(int maxPieces) {
+        this.maxPieces = maxPieces;
+        this.subspaces = new MappedByteBuffer[maxPieces + 1][maxPieces + 1];
+    }
+
+   /**
+    * Avaa aiemmin luodun tietokannan vain luettavaksi.
+    * @param file    Tietokantatiedosto
+    * @return Avattu tietokanta
+    * @exception IOException Jos tiedostoa ei voitu lukea tai se ei ole tietokanta.
+    */
+    public static EndgameDatabase open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.length() < HEADER_SIZE || input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("open(File): "+file+" is not an endgame database.");
+            }
+            int maxPieces = input.readInt();
+            if (maxPieces < MIN_PIECES || maxPieces > MAX_PIECES ||
+                input.length() != HEADER_SIZE + getTotalSize(maxPieces)) {
+                    throw new IOException("open(File): "+file+" is damaged (pieces:"+maxPieces+
+                                          ", length:"+input.length()+").");
+            }
+            EndgameDatabase database = new EndgameDatabase(maxPieces);
+            database.map(input.getChannel(), FileChannel.MapMode.READ_ONLY);
+            return database;
+        }
+        finally {
+            input.close(); // kuvaukset silyvt kanavan sulkemisen jlkeen
+        }
+    }
+
+    /** Nappuloiden enimmismr kummallakin pelaajalla*/
+    public int getMaxPieces() { return this.maxPieces; }
+
+   /**
+    * Palauttaa hakutilanteen tuloksen vuorossa olevan pelaajan kannalta.
+    * Metodi ei luo olioita.
+    * @param position    Hakutilanne
+    * @return <tt>UNKNOWN</tt>, jos tilanne ei kuulu tietokantaan; muuten
+    *         tulos, jota voi tutkia metodeilla <tt>isWin</tt>, <tt>isLoss</tt>
+    *         ja <tt>getDistance</tt>
+    */
+    public int probe(SearchPosition position) {
+        MillBoard board = position.getBoard();
+        return this.probe(board.getMask(position.getActivePlayer()), board.getMask(position.getOpponent()),
+                          position.getGameState());
+    }
+
+   /**
+    * Kuten <tt>probe(SearchPosition)</tt>, mutta pelille.
+    * @param game    Peli
+    * @return Tulos kuten <tt>probe(SearchPosition)</tt>
+    */
+    public int probe(MillGame game) {
+        MillBoard board = game.getMillBoard();
+        return this.probe(board.getMask(game.getActivePlayer()), board.getMask(game.getOpponent()),
+                          game.getGameState());
+    }
+
+    private int probe(int ownSquares, int opponentSquares, byte gameState) {
+        int own = Integer.bitCount(ownSquares);
+        int opponent = Integer.bitCount(opponentSquares);
+        if (own < MIN_PIECES || own > this.maxPieces || opponent < MIN_PIECES || opponent > this.maxPieces ||
+            gameState != getGameState(own, opponent)) {
+                return UNKNOWN;
+        }
+        return this.get(own, opponent, ownSquares, opponentSquares);
+    }
+
+    /** Onko tulos vuorossa olevan pelaajan voitto?*/
+    public static boolean isWin(int result) {
+        return result > DRAW && result < LOSS;
+    }
+
+    /** Onko tulos vuorossa olevan pelaajan hvi?*/
+    public static boolean isLoss(int result) {
+        return result >= LOSS;
+    }
+
+    /** Voiton tai hvin etisyys puolisiirtoina (tasapelille 0)*/
+    public static int getDistance(int result) {
+        return isLoss(result) ? result - LOSS : result;
+    }
+
+    public String toString() {
+        return "endgame database: 3.."+this.maxPieces+" pieces";
+    }
+
+
+    // Siirtelyvaihe nappuloiden mrist: kolmen nappulan pelaaja lent.
+    private static byte getGameState(int own, int opponent) {
+        return (own > 3 && opponent > 3) ? MillGame.PHASE_MIDGAME : MillGame.PHASE_ENDGAME;
+    }
+
+    private int get(int own, int opponent, int ownSquares, int opponentSquares) {
+        return this.subspaces[own][opponent].get(getIndex(own, opponent, ownSquares, opponentSquares)) & 0xFF;
+    }
+
+    private static long getSubspaceSize(int own, int opponent) {
+        return (long)BINOMIALS[BoardInfo.SQUARES_ON_BOARD][own] *
+               BINOMIALS[BoardInfo.SQUARES_ON_BOARD - own][opponent];
+    }
+
+    private static long getTotalSize(int maxPieces) {
+        long size = 0;
+        for (int own = MIN_PIECES; own <= maxPieces; own++) {
+            for (int opponent = MIN_PIECES; opponent <= maxPieces; opponent++) {
+                size += getSubspaceSize(own, opponent);
+            }
+        }
+        return size;
+    }
+
+    // Kuvaa osa-avaruudet tiedostosta otsakkeen perst.
+    private void map(FileChannel channel, FileChannel.MapMode mode) throws IOException {
+        long offset = HEADER_SIZE;
+        for (int own = MIN_PIECES; own <= this.maxPieces; own++) {
+            for (int opponent = MIN_PIECES; opponent <= this.maxPieces; opponent++) {
+                long size = getSubspaceSize(own, opponent);
+                this.subspaces[own][opponent] = channel.map(mode, offset, size);
+                offset += size;
+            }
+        }
+    }
+
+
+    // Tilanteen indeksi osa-avaruudessa: vuorossa olevan pelaajan ruutujen
+    // jrjestysnumero ja vastustajan ruutujen jrjestysnumero vapaista ruuduista.
+    private static int getIndex(int own, int opponent, int ownSquares, int opponentSquares) {
+        return getRank(ownSquares) * BINOMIALS[BoardInfo.SQUARES_ON_BOARD - own][opponent] +
+               getRank(compress(opponentSquares, ownSquares));
+    }
+
+    // Joukon jrjestysnumero kombinatorisessa lukujrjestelmss.
+    private static int getRank(int squares) {
+        int rank = 0;
+        for (int count = 1; squares != 0; squares &= squares - 1, count++) {
+            rank += BINOMIALS[Integer.numberOfTrailingZeros(squares)][count];
+        }
+        return rank;
+    }
+
+    // Joukko, jonka jrjestysnumero on rank ja koko count.
+    private static int getSquares(int rank, int count) {
+        int squares = 0;
+        for ( ; count > 0; count--) {
+            int square = count - 1;
+            while (BINOMIALS[square + 1][count] <= rank) {
+                square++;
+            }
+            squares |= 1 << square;
+            rank -= BINOMIALS[square][count];
+        }
+        return squares;
+    }
+
+    // Numeroi ruudut uudelleen jtten pois ruudut occupied.
+    private static int compress(int squares, int occupied) {
+        int result = 0;
+        for ( ; squares != 0; squares &= squares - 1) {
+            int square = Integer.numberOfTrailingZeros(squares);
+            result |= 1 << (square - Integer.bitCount(occupied & ((1 << square) - 1)));
+        }
+        return result;
+    }
+
+    // compress-metodin knteistoimitus.
+    private static int expand(int squares, int occupied) {
+        int result = 0;
+        for (int free = ~occupied & BoardInfo.ALL_SQUARES_MASK; squares != 0; free &= free - 1, squares >>>= 1) {
+            if ((squares & 1) != 0) {
+                result |= Integer.lowestOneBit(free);
+            }
+        }
+        return result;
+    }
+
+    // Myllyihin kuuluvat ruudut (kuten MillBoard.getMillSquares).
+    private static int getMillSquares(int squares) {
+        int millSquares = 0;
+        for (int mill = 0; mill < BoardInfo.getMillCount(); mill++) {
+            int millMask = BoardInfo.getMillMask(mill);
+            if ((squares & millMask) == millMask) {
+                millSquares |= millMask;
+            }
+        }
+        return millSquares;
+    }
+
+    // Ovatko kaikki nappulat jumissa (kuten MillBoard.allPiecesJammed)?
+    private static boolean allPiecesJammed(int squares, int occupied) {
+        int empty = ~occupied & BoardInfo.ALL_SQUARES_MASK;
+        for ( ; squares != 0; squares &= squares - 1) {
+            if ((BoardInfo.getNeighbourMask((byte)Integer.numberOfTrailingZeros(squares)) & empty) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+   /**
+    * Luo tietokannan takaperin etenevll analyysill ja tallentaa sen
+    * tiedostoon. Osa-avaruudet ratkaistaan nappuloiden kokonaismrn
+    * mukaan pienimmst alkaen, jolloin nappulan poistavien siirtojen
+    * tulokset ovat jo tiedossa. Osa-avaruuspari (a,b) ja (b,a) ratkaistaan
+    * kierroksittain: kierroksella <tt>n</tt> ratkeavat tilanteet, joiden
+    * etisyys on <tt>n</tt>. Kierroksella tutkitaan vain tilanteet, joiden
+    * seuraajan tulos ratkesi edellisell kierroksella (ne lydetn
+    * peruttujen siirtojen avulla). Kun mikn ei en ratkea, loput ovat
+    * tasapelej.
+    * @param file       Luotava tiedosto (vanha korvataan)
+    * @param maxPieces  Nappuloiden enimmismr, <tt>MIN_PIECES..MAX_PIECES</tt>
+    * @param threads    Laskentasikeiden mr
+    * @return Luotu tietokanta, valmiina kyselyihin
+    * @exception IOException Jos tiedostoa ei voitu kirjoittaa.
+    */
+    public static EndgameDatabase generate(File file, int maxPieces, int threads) throws IOException {
+        if (maxPieces < MIN_PIECES || maxPieces > MAX_PIECES) {
+            throw new IllegalArgumentException("generate(File,int,int): maxPieces:"+maxPieces+
+                                               " must be between "+MIN_PIECES+" and "+MAX_PIECES+".");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("generate(File,int,int): threads:"+threads+" must be positive.");
+        }
+        RandomAccessFile output = new RandomAccessFile(file, "rw");
+        EndgameDatabase database = new EndgameDatabase(maxPieces);
+        try {
+            output.setLength(0);
+            output.setLength(HEADER_SIZE + getTotalSize(maxPieces));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(maxPieces);
+            database.map(output.getChannel(), FileChannel.MapMode.READ_WRITE);
+        }
+        finally {
+            output.close();
+        }
+        for (int total = 2*MIN_PIECES; total <= 2*maxPieces; total++) {
+            for (int own = MIN_PIECES; own <= total - own; own++) {
+                int opponent = total - own;
+                if (opponent > maxPieces) {
+                    continue;
+                }
+                long started = System.currentTimeMillis();
+                int passes = new PairSolver(database, own, opponent).solve(threads);
+                database.subspaces[own][opponent].force();
+                database.subspaces[opponent][own].force();
+                System.out.println(own+"v"+opponent+": "+passes+" passes, "+
+                                   (System.currentTimeMillis() - started)+"ms");
+                database.printStatistics(own, opponent);
+                if (own != opponent) {
+                    database.printStatistics(opponent, own);
+                }
+            }
+        }
+        return database;
+    }
+
+    // Tulostaa osa-avaruuden tulosten mrt ja pisimmt etisyydet.
+    private void printStatistics(int own, int opponent) {
+        MappedByteBuffer values = this.subspaces[own][opponent];
+        long wins = 0, losses = 0, draws = 0;
+        int longestWin = 0, longestLoss = 0;
+        for (int index = 0; index < values.capacity(); index++) {
+            int result = values.get(index) & 0xFF;
+            if (isWin(result)) {
+                wins++;
+                longestWin = Math.max(longestWin, getDistance(result));
+            }
+            else if (isLoss(result)) {
+                losses++;
+                longestLoss = Math.max(longestLoss, getDistance(result));
+            }
+            else {
+                draws++;
+            }
+        }
+        System.out.println("  "+own+" vs "+opponent+" to move: wins "+wins+" (longest "+longestWin+
+                           "), losses "+losses+" (longest "+longestLoss+"), draws "+draws);
+    }
+
+
+    /**
+     * Ratkaisee osa-avaruusparin (own,opponent) ja (opponent,own). Parin
+     * tilanteet numeroidaan yhteen: ensin (own,opponent), sitten (opponent,own),
+     * jos nappuloiden mrt ovat eri.
+     */
+    private static final class PairSolver {
+        private static final int CHUNK_WORDS = 64;
+        private static final int PENDING = -1;
+
+        private final EndgameDatabase database;
+        private final int own;
+        private final int opponent;
+        private final int firstSize;
+        private final int size;
+        private final MappedByteBuffer first;
+        private final MappedByteBuffer second;
+
+        private AtomicLongArray current;
+        private AtomicLongArray next;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private int pass;
+
+        PairSolver(EndgameDatabase database, int own, int opponent) {
+            this.database = database;
+            this.own = own;
+            this.opponent = opponent;
+            this.first = database.subspaces[own][opponent];
+            this.second = database.subspaces[opponent][own];
+            this.firstSize = (int)getSubspaceSize(own, opponent);
+            this.size = (own == opponent) ? this.firstSize : this.firstSize + (int)getSubspaceSize(opponent, own);
+        }
+
+        // Palauttaa kierrosten mrn.
+        int solve(int threads) {
+            int words = (this.size + 63) >>> 6;
+            this.current = new AtomicLongArray(words);
+            this.next = new AtomicLongArray(words);
+            for (int word = 0; word < words; word++) {
+                this.current.set(word, -1L); // ensimmisell kierroksella kaikki
+            }
+            for (this.pass = 0; ; this.pass++) {
+                if (this.pass > MAX_DISTANCE) {
+                    throw new IllegalStateException("generate(File,int,int): "+this.own+"v"+this.opponent+
+                                                    " has results longer than "+MAX_DISTANCE+" plies.");
+                }
+                this.nextChunk.set(0);
+                Thread[] workers = new Thread[threads - 1];
+                for (int index = 0; index < workers.length; index++) {
+                    workers[index] = new Thread() {
+                        public void run() { PairSolver.this.work(); }
+                    };
+                    workers[index].start();
+                }
+                this.work();
+                for (int index = 0; index < workers.length; index++) {
+                    while (workers[index].isAlive()) {
+                        try {
+                            workers[index].join();
+                        }
+                        catch (InterruptedException e) {
+                            // odotetaan silti loppuun: kierros on kytv kokonaan
+                        }
+                    }
+                }
+                boolean changed = false;
+                for (int word = 0; word < words; word++) {
+                    changed |= (this.next.get(word) != 0L);
+                }
+                if ( !changed) {
+                    return this.pass + 1;
+                }
+                AtomicLongArray swap = this.current;
+                this.current = this.next;
+                this.next = swap;
+                for (int word = 0; word < words; word++) {
+                    this.next.set(word, 0L);
+                }
+            }
+        }
+
+        // Ky lpi kierroksen merkityt tilanteet palasina, joita sikeet jakavat.
+        private void work() {
+            int words = this.current.length();
+            int chunk;
+            while ((chunk = this.nextChunk.getAndIncrement()) * CHUNK_WORDS < words) {
+                int lastWord = Math.min(words, (chunk + 1) * CHUNK_WORDS);
+                for (int word = chunk * CHUNK_WORDS; word < lastWord; word++) {
+                    for (long bits = this.current.get(word); bits != 0; bits &= bits - 1) {
+                        int state = (word << 6) + Long.numberOfTrailingZeros(bits);
+                        if (state < this.size && this.getValue(state) == DRAW) {
+                            this.solveState(state);
+                        }
+                    }
+                }
+            }
+        }
+
+        private int getValue(int state) {
+            if (state < this.firstSize) {
+                return this.first.get(state) & 0xFF;
+            }
+            return this.second.get(state - this.firstSize) & 0xFF;
+        }
+
+        private void setValue(int state, int value) {
+            if (state < this.firstSize) {
+                this.first.put(state, (byte)value);
+            }
+            else {
+                this.second.put(state - this.firstSize, (byte)value);
+            }
+        }
+
+        // Parin tilanne osa-avaruudesta (own, opponent); toisen osa-avaruuden
+        // tilanteet ovat ensimmisen perss.
+        private int getState(int own, int opponent, int ownSquares, int opponentSquares) {
+            int index = getIndex(own, opponent, ownSquares, opponentSquares);
+            return (own == this.own) ? index : this.firstSize + index;
+        }
+
+        private void mark(int state) {
+            int word = state >>> 6;
+            long bit = 1L << (state & 63);
+            long bits;
+            do {
+                bits = this.next.get(word);
+            } while ((bits & bit) == 0 && !this.next.compareAndSet(word, bits, bits | bit));
+        }
+
+        private void solveState(int state) {
+            int own = this.own;
+            int opponent = this.opponent;
+            int index = state;
+            if (state >= this.firstSize) {
+                own = this.opponent;
+                opponent = this.own;
+                index = state - this.firstSize;
+            }
+            int stride = BINOMIALS[BoardInfo.SQUARES_ON_BOARD - own][opponent];
+            int ownSquares = getSquares(index / stride, own);
+            int opponentSquares = expand(getSquares(index % stride, opponent), ownSquares);
+            int result = this.evaluate(own, opponent, ownSquares, opponentSquares);
+            if (result == PENDING) {
+                this.mark(state);
+            }
+            else if (result != DRAW) {
+                this.setValue(state, result);
+                this.markPredecessors(own, opponent, ownSquares, opponentSquares);
+            }
+        }
+
+        // Tilanteen tulos tll kierroksella: ratkennut tulos, DRAW (ei viel
+        // tiedossa) tai PENDING (tulos on tiedossa, mutta sen etisyys on
+        // pidempi kuin kierros, joten tilanne tutkitaan uudestaan).
+        // Snnt ovat samat kuin SearchPosition-luokassa.
+        private int evaluate(int own, int opponent, int ownSquares, int opponentSquares) {
+            boolean midgame = (own > 3 && opponent > 3);
+            boolean flying = (own == 3);
+            int occupied = ownSquares | opponentSquares;
+            int empty = ~occupied & BoardInfo.ALL_SQUARES_MASK;
+            int removeSquares = opponentSquares & ~getMillSquares(opponentSquares);
+            if (removeSquares == 0) {
+                removeSquares = opponentSquares;
+            }
+            int bestWin = Integer.MAX_VALUE;
+            int worstLoss = -1;
+            boolean allLosses = true;
+            boolean anyMoves = false;
+
+            for (int fromSquares = ownSquares; fromSquares != 0; fromSquares &= fromSquares - 1) {
+                int from = Integer.numberOfTrailingZeros(fromSquares);
+                int toSquares = flying ? empty : empty & BoardInfo.getNeighbourMask((byte)from);
+                int pieces = ownSquares & ~(1 << from);
+                for ( ; toSquares != 0; toSquares &= toSquares - 1) {
+                    int to = Integer.numberOfTrailingZeros(toSquares);
+                    int newOwn = pieces | (1 << to);
+                    anyMoves = true;
+                    if (MillBoard.closesMill((byte)to, pieces)) {
+                        for (int removes = removeSquares; removes != 0; removes &= removes - 1) {
+                            int newOpponent = opponentSquares & ~Integer.lowestOneBit(removes);
+                            int outcome = this.captureOutcome(own, opponent - 1, newOwn, newOpponent);
+                            if (isWin(outcome)) {
+                                bestWin = Math.min(bestWin, getDistance(outcome));
+                            }
+                            else if (isLoss(outcome)) {
+                                worstLoss = Math.max(worstLoss, getDistance(outcome));
+                            }
+                            else {
+                                allLosses = false;
+                            }
+                        }
+                        continue;
+                    }
+                    int outcome;
+                    if (midgame && allPiecesJammed(opponentSquares, newOwn | opponentSquares)) {
+                        outcome = 1;                                 // vastustaja jumissa
+                    }
+                    else if (midgame && allPiecesJammed(newOwn, newOwn | opponentSquares)) {
+                        outcome = LOSS + 1;                          // omat nappulat jumiin
+                    }
+                    else {
+                        int successor = this.getValue(this.getState(opponent, own, opponentSquares, newOwn));
+                        outcome = DRAW;
+                        // Vain aiemmilla kierroksilla ratkenneet tulokset ovat lopullisia.
+                        if (successor != DRAW && getDistance(successor) < this.pass) {
+                            outcome = isLoss(successor) ? getDistance(successor) + 1
+                                                        : LOSS + getDistance(successor) + 1;
+                        }
+                    }
+                    if (isWin(outcome)) {
+                        bestWin = Math.min(bestWin, getDistance(outcome));
+                    }
+                    else if (isLoss(outcome)) {
+                        worstLoss = Math.max(worstLoss, getDistance(outcome));
+                    }
+                    else {
+                        allLosses = false;
+                    }
+                }
+            }
+            if ( !anyMoves) {
+                return LOSS; // ei siirtoja: hvitty
+            }
+            if (bestWin != Integer.MAX_VALUE) {
+                return (bestWin <= this.pass) ? bestWin : PENDING;
+            }
+            if (allLosses) {
+                return (worstLoss <= this.pass) ? LOSS + worstLoss : PENDING;
+            }
+            return DRAW;
+        }
+
+        // Nappulan poistavan siirron tulos; siirron jlkeen vastustajalla on
+        // opponent nappulaa, ja seuraaja on jo ratkaistussa osa-avaruudessa.
+        private int captureOutcome(int own, int opponent, int ownSquares, int opponentSquares) {
+            if (opponent < MIN_PIECES) {
+                return 1;
+            }
+            int occupied = ownSquares | opponentSquares;
+            if (own > 3 && opponent > 3) {
+                if (allPiecesJammed(opponentSquares, occupied)) {
+                    return 1;
+                }
+                if (allPiecesJammed(ownSquares, occupied)) {
+                    return LOSS + 1;
+                }
+            }
+            int successor = this.database.get(opponent, own, opponentSquares, ownSquares);
+            if (successor == DRAW) {
+                return DRAW;
+            }
+            return isLoss(successor) ? getDistance(successor) + 1 : LOSS + getDistance(successor) + 1;
+        }
+
+        // Merkitsee seuraavalle kierrokselle tilanteet, joista tilanteeseen
+        // pstn nappulaa poistamatta: vastustaja on siirtnyt nappulansa
+        // ruutuun to tyhjst ruudusta (lenten, jos sill on kolme nappulaa).
+        private void markPredecessors(int own, int opponent, int ownSquares, int opponentSquares) {
+            int empty = ~(ownSquares | opponentSquares) & BoardInfo.ALL_SQUARES_MASK;
+            for (int toSquares = opponentSquares; toSquares != 0; toSquares &= toSquares - 1) {
+                int to = Integer.numberOfTrailingZeros(toSquares);
+                int pieces = opponentSquares & ~(1 << to);
+                if (MillBoard.closesMill((byte)to, pieces)) {
+                    continue; // siirto olisi sulkenut myllyn
+                }
+                int fromSquares = (opponent == 3) ? empty : empty & BoardInfo.getNeighbourMask((byte)to);
+                for ( ; fromSquares != 0; fromSquares &= fromSquares - 1) {
+                    this.mark(this.getState(opponent, own, pieces | Integer.lowestOneBit(fromSquares), ownSquares));
+                }
+            }
+        }
+    }
+
+
+   /**
+    * Tarkistaa satunnaisia tietokannan tilanteita <tt>SearchPosition</tt>-luokan
+    * snnill: tilanteen tuloksen on oltava paras sen seuraajien
+    * tuloksista (voittaja valitsee lyhimmn ja hvij pisimmn tien).
+    * @return Virheiden mr
+    */
+    public int verify(int positions, long seed) {
+        Random random = new Random(seed);
+        MoveList moves = new MoveList();
+        int errors = 0;
+        for (int counter = 0; counter < positions; counter++) {
+            int own = MIN_PIECES + random.nextInt(this.maxPieces - MIN_PIECES + 1);
+            int opponent = MIN_PIECES + random.nextInt(this.maxPieces - MIN_PIECES + 1);
+            int ownSquares = getSquares(random.nextInt(BINOMIALS[BoardInfo.SQUARES_ON_BOARD][own]), own);
+            int opponentSquares = expand(getSquares(
+                random.nextInt(BINOMIALS[BoardInfo.SQUARES_ON_BOARD - own][opponent]), opponent), ownSquares);
+
+            MillBoard board = new MillBoard();
+            for (byte square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+                if ((ownSquares & (1 << square)) != 0) {
+                    board.setPiece(square, BoardInfo.WHITE);
+                }
+                else if ((opponentSquares & (1 << square)) != 0) {
+                    board.setPiece(square, BoardInfo.BLACK);
+                }
+            }
+            MillGame game = new MillGame();
+            game.generateMillGame(board, MillGame.WHITE_PLAYER, getGameState(own, opponent), (byte)0, (byte)0);
+            SearchPosition position = new SearchPosition(game);
+            int expected = this.probe(position);
+
+            int bestWin = Integer.MAX_VALUE;
+            int worstLoss = -1;
+            boolean allLosses = true;
+            LegalMoves.generateMoves(position, moves);
+            for (int index = 0; index < moves.size(); index++) {
+                int outcome;
+                if (position.doMove(moves.get(index))) {
+                    outcome = (position.getActivePlayer() == MillGame.WHITE_PLAYER) ? 1 : LOSS + 1;
+                }
+                else {
+                    int successor = this.probe(position);
+                    if (successor == UNKNOWN) {
+                        errors++;
+                        successor = DRAW;
+                    }
+                    outcome = DRAW;
+                    if (successor != DRAW) {
+                        outcome = isLoss(successor) ? getDistance(successor) + 1
+                                                    : LOSS + getDistance(successor) + 1;
+                    }
+                }
+                position.undoMove();
+                if (isWin(outcome)) {
+                    bestWin = Math.min(bestWin, getDistance(outcome));
+                }
+                else if (isLoss(outcome)) {
+                    worstLoss = Math.max(worstLoss, getDistance(outcome));
+                }
+                else {
+                    allLosses = false;
+                }
+            }
+            int result = DRAW;
+            if (moves.size() == 0) {
+                result = LOSS;
+            }
+            else if (bestWin != Integer.MAX_VALUE) {
+                result = bestWin;
+            }
+            else if (allLosses) {
+                result = LOSS + worstLoss;
+            }
+            if (result != expected) {
+                errors++;
+            }
+        }
+        return errors;
+    }
+
+
+   /**
+    * Testiohjelma ja tietokannan luonti:
+    * <pre>
+    * java EndgameDatabase generate tiedosto [nappuloita] [sikeit]
+    * java EndgameDatabase verify tiedosto [tilanteita] [siemen]
+    * </pre>
+    */
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("generate")) {
+            int maxPieces = (args.length > 2) ? Integer.parseInt(args[2]) : MIN_PIECES;
+            int threads = (args.length > 3) ? Integer.parseInt(args[3])
+                                            : Runtime.getRuntime().availableProcessors();
+            long started = System.currentTimeMillis();
+            generate(new File(args[1]), maxPieces, threads);
+            System.out.println("yhteens: "+(System.currentTimeMillis() - started)+"ms");
+        }
+        else if (args.length >= 2 && args[0].equals("verify")) {
+            int positions = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+            long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1L;
+            EndgameDatabase database = open(new File(args[1]));
+            long started = System.currentTimeMillis();
+            int errors = database.verify(positions, seed);
+            System.out.println(database+", tilanteita: "+positions+", virheit: "+errors+" --> 0 OK ("+
+                               (System.currentTimeMillis() - started)+" ms)");
+        }
+        else {
+            System.out.println("java EndgameDatabase generate tiedosto [nappuloita] [sikeit]");
+            System.out.println("java EndgameDatabase verify tiedosto [tilanteita] [siemen]");
+        }
+    }
+}
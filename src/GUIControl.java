@@ -10,6 +10,7 @@ public class GUIControl implements Observer {
 
     private MoveParser moveParser;
     private MillAI ai;
+    private Ponderer ponderer; // aikarajoitetut tasot pohtivat ihmisen vuorolla
 
     private boolean highlightLegalSquares;
     private boolean gameRunning;
@@ -34,6 +35,7 @@ public class GUIControl implements Observer {
         this.moveParser = new MoveParser(this.guiBoard);
         this.moveParser.addObserver(this);
         this.ai = new MillAI();
+        this.ponderer = new Ponderer(this.ai);
 
         this.highlightLegalSquares = true;
         this.gameRunning = false;
@@ -92,6 +94,7 @@ public class GUIControl implements Observer {
             blackPlayer.getPlayerChoice() == GUIPlayer.CPU) {
                 this.moveParser.setClickable(false);
                 this.cpuMatchThread = new GUIControl.CPUMatchThread();
+                this.ai.clearStopRequest(); // ennen sikeen kynnistyst, ei haun alussa
                 this.cpuMatchThread.start();
         }
         else {
@@ -129,6 +132,7 @@ public class GUIControl implements Observer {
         this.setPlayerChoicesActive(true);
         
         this.ai.stopSearch();
+        this.ponderer.cancel();
         if (this.infoThread != null)
             this.infoThread.interrupt();
         if (this.cpuThread != null)
@@ -170,10 +174,15 @@ public class GUIControl implements Observer {
         boolean victory = this.game.makeMove( (Move)move );
         GUIControl.this.gui.refreshButtons(); // redo ei ainakaan ole en voimassa
         if (victory) { // voitto?
+            this.ponderer.cancel();
             this.victory();
         }
         else {
             if ( this.CPUIsActive()) { // siirtk kone seuraavaksi?
+                int seconds = levelSeconds(this.getActiveCPULevel());
+                if (seconds > 0) {
+                    this.ponderer.opponentMoved((Move)move, seconds);
+                }
                 this.computerMoves();
             }
             else { // ihmisten vlinen peli
@@ -192,6 +201,7 @@ public class GUIControl implements Observer {
         this.moveParser.setClickable(false);
         this.cpuThread = new GUIControl.CPUThread();
         this.thinking = true;
+        this.ai.clearStopRequest(); // ennen sikeen kynnistyst, ei haun alussa
         this.cpuThread.start();
     }
 
@@ -226,8 +236,11 @@ public class GUIControl implements Observer {
 
             GUIControl.this.infoThread.start();
 
-            Move move;
-            if (level == GUIPlayer.DEPTH_1)
+            // Osumalla siirto syntyi jo ihmisen vuorolla (ks. Ponderer).
+            Move move = GUIControl.this.ponderer.getResult(GUIControl.this.game);
+            if (move != null)
+                System.out.println("ponder hit");
+            else if (level == GUIPlayer.DEPTH_1)
                 move = ai.depthSearch(GUIControl.this.game, (byte)1);
             else if (level == GUIPlayer.DEPTH_2)
                 move = ai.depthSearch(GUIControl.this.game, (byte)2);
@@ -260,6 +273,10 @@ public class GUIControl implements Observer {
                     GUIControl.this.victory();
                 }
                 else {
+                    // Pohdinta alkaa ennen kuin ihminen voi siirt.
+                    if ( !CPUIsActive() && levelSeconds(level) > 0) {
+                        GUIControl.this.ponderer.start(GUIControl.this.game);
+                    }
                     GUIControl.this.moveParser.setClickable( !CPUIsActive() );
                     GUIControl.this.setActivePlayer();
                 }
@@ -308,6 +325,29 @@ System.out.println("CPUMatchThread kuoli...");
         }
     }
 
+    // Vuorossa olevan tietokonepelaajan taso.
+    private int getActiveCPULevel() {
+        if (this.game.getActivePlayer() == MillGame.WHITE_PLAYER) {
+            return this.whitePlayer.getCPULevelChoice();
+        }
+        return this.blackPlayer.getCPULevelChoice();
+    }
+
+    // Aikarajoitetun tason aikaraja sekunteina (0 = taso ei ole aikarajoitettu).
+    private static int levelSeconds(int level) {
+        if (level == GUIPlayer.ONE_SECOND)
+            return 1;
+        else if (level == GUIPlayer.THREE_SECONDS)
+            return 3;
+        else if (level == GUIPlayer.FIVE_SECONDS)
+            return 5;
+        else if (level == GUIPlayer.TEN_SECONDS)
+            return 10;
+        else if (level == GUIPlayer.THIRTY_SECONDS)
+            return 30;
+        return 0;
+    }
+
     private boolean CPUIsActive() {
         byte activePlayer = this.game.getActivePlayer();
         if (activePlayer == MillGame.WHITE_PLAYER &&
@@ -66,6 +66,10 @@ public final class LegalMoves{
             if (board.get(move.FROM) != activePlayer) {     // Siirrettv nappula ei ole oma
                 return false;
             }
+            if (board.countSquares(activePlayer) > 3 &&       // Vain kolmen nappulan pelaaja
+                !board.areNeighbours(move.FROM, move.TO) ) {  // saa lent
+                return false;
+            }
         }
 
 
@@ -115,157 +119,219 @@ public final class LegalMoves{
 
 
     public static Move[] getAllLegalMoves(MillGame game) {
-        byte gameState = game.getGameState();
+        return getAllLegalMoves(game.getMillBoard(), game.getGameState(),
+                                game.getActivePlayer(), game.getOpponent());
+    }
 
-        if (gameState == MillGame.PHASE_BEGINNING) {
-            return getAllLegalMoves_beginning(game);
-        }
-        else if (gameState == MillGame.PHASE_MIDGAME) {
-            return getAllLegalMoves_middlegame(game);
-        }
-        else if (gameState == MillGame.PHASE_ENDGAME) {
-            return getAllLegalMoves_endgame(game);
-        }
-        else {
-            return new Move[0];
-        }
+   /**
+    * Tekolyn hakutilanteen kaikki sallitut siirrot. Toisin kuin
+    * <tt>MillGame</tt>-versio, tm ei kopioi pelilautaa.
+    * @param position    Hakutilanne
+    * @return Kaikki tilanteessa sallitut siirrot
+    */
+    public static Move[] getAllLegalMoves(SearchPosition position) {
+        return getAllLegalMoves(position.getBoard(), position.getGameState(),
+                                position.getActivePlayer(), position.getOpponent());
     }
 
+    private static Move[] getAllLegalMoves(MillBoard board, byte gameState,
+                                           byte activePlayer, byte opponent) {
+        MoveList moves = new MoveList();
+        generateMoves(board, gameState, activePlayer, opponent, moves, false);
+        return moves.toMoveArray();
+    }
 
-    private static Move[] getAllLegalMoves_beginning(MillGame game) {
-        byte activePlayer = game.getActivePlayer();
-        byte opponent = game.getOpponent();
-        MillBoard board = game.getMillBoard();
+   /**
+    * Tuottaa hakutilanteen kaikki sallitut siirrot koodeina annettuun
+    * listaan, jonka vanha sislt hvitetn. Siirrot ovat samat ja samassa
+    * jrjestyksess kuin <tt>getAllLegalMoves</tt>-metodissa, mutta
+    * olioita ei luoda.
+    * @param position    Hakutilanne
+    * @param moves       Lista, johon siirrot tuotetaan
+    */
+    public static void generateMoves(SearchPosition position, MoveList moves) {
+        generateMoves(position.getBoard(), position.getGameState(),
+                      position.getActivePlayer(), position.getOpponent(), moves, false);
+    }
 
-        Move[] allMoves = new Move[1000];  // pst heitetty maksimiarvo
-        int counter = 0;
-        byte from = Move.NOWHERE;
-        for (byte to = 0; to < BoardInfo.SQUARES_ON_BOARD; to++) {
-            if (board.get(to) != BoardInfo.EMPTY) {
-                continue;
+   /**
+    * Kuten <tt>generateMoves</tt>, mutta vain siirrot, jotka eivt sulje
+    * mylly. Yhdess <tt>generateMillClosingMoves</tt>-metodin kanssa
+    * tuotetaan kaikki tilanteen siirrot.
+    * @param position    Hakutilanne
+    * @param moves       Lista, johon siirrot tuotetaan
+    */
+    public static void generateQuietMoves(SearchPosition position, MoveList moves) {
+        generateMoves(position.getBoard(), position.getGameState(),
+                      position.getActivePlayer(), position.getOpponent(), moves, true);
+    }
+
+    private static void generateMoves(MillBoard board, byte gameState, byte activePlayer,
+                                      byte opponent, MoveList moves, boolean quietOnly) {
+        moves.clear();
+        if (gameState != MillGame.PHASE_BEGINNING && gameState != MillGame.PHASE_MIDGAME &&
+            gameState != MillGame.PHASE_ENDGAME) {
+            return;
+        }
+        int ownSquares = board.getMask(activePlayer);
+        int emptySquares = board.getMask(BoardInfo.EMPTY);
+        int removeSquares = getRemovableSquares(board, opponent);
+
+        if (gameState == MillGame.PHASE_BEGINNING) {
+            for (int toSquares = emptySquares; toSquares != 0; toSquares &= toSquares - 1) {
+                byte to = (byte)Integer.numberOfTrailingZeros(toSquares);
+                addMoves(Move.NOWHERE, to, ownSquares, removeSquares, moves, quietOnly);
             }
-            if (board.createsNewMill( new Move(from, to, (byte)0), activePlayer) ) {
-                for (byte remove = 0; remove < BoardInfo.SQUARES_ON_BOARD; remove++) {
-                    if (board.get(remove) != opponent) {
-                        continue;
-                    }
-                    // Kuuluuko nappula myllyyn? Jos kuuluu, niin tarkistetaan
-                    // kuuluvatko kaikki vastustajan nappulat myllyyn.
-                    if (board.isPartOfMill(remove)) {
-                        if ( board.allPiecesInMills(opponent) ) {
-                            allMoves[counter] = new Move(from, to, remove);
-                            counter++;
-                        }
-                    }
-                    else {
-                        allMoves[counter] = new Move(from, to, remove);
-                        counter++;
-                    }
-                }
+            return;
+        }
+        boolean flying = (gameState == MillGame.PHASE_ENDGAME && board.countSquares(activePlayer) <= 3);
+        for (int fromSquares = ownSquares; fromSquares != 0; fromSquares &= fromSquares - 1) {
+            byte from = (byte)Integer.numberOfTrailingZeros(fromSquares);
+            int toSquares = emptySquares;
+            if ( !flying) {
+                toSquares &= BoardInfo.getNeighbourMask(from);
             }
-            else {
-                allMoves[counter] = new Move(from, to, Move.NOWHERE);
-                counter++;
+            int pieces = ownSquares & ~BoardInfo.getSquareMask(from);
+            for ( ; toSquares != 0; toSquares &= toSquares - 1) {
+                byte to = (byte)Integer.numberOfTrailingZeros(toSquares);
+                addMoves(from, to, pieces, removeSquares, moves, quietOnly);
             }
         }
-        return compressArray(allMoves, counter);
     }
 
+    // Myllyyn kuuluvia nappuloita saa poistaa vain, jos kaikki kuuluvat myllyihin.
+    private static int getRemovableSquares(MillBoard board, byte opponent) {
+        int opponentSquares = board.getMask(opponent);
+        int removeSquares = opponentSquares & ~board.getMillSquares(opponent);
+        if (removeSquares == 0) {
+            removeSquares = opponentSquares;
+        }
+        return removeSquares;
+    }
 
+    // Lis siirron (from,to). Jos se sulkee myllyn, listn jokainen sallittu
+    // poisto omana siirtonaan (paitsi jos halutaan vain hiljaiset siirrot).
+    // pieces ovat omat nappulat ilman siirrettv.
+    private static void addMoves(byte from, byte to, int pieces, int removeSquares,
+                                 MoveList moves, boolean quietOnly) {
+        if ( !MillBoard.closesMill(to, pieces)) {
+            moves.add(Move.encode(from, to, Move.NOWHERE));
+        }
+        else if ( !quietOnly) {
+            addRemoves(from, to, removeSquares, moves);
+        }
+    }
 
-    private static Move[] getAllLegalMoves_middlegame(MillGame game) {
-        byte activePlayer = game.getActivePlayer();
-        byte opponent = game.getOpponent();
-        MillBoard board = game.getMillBoard();
+    private static void addRemoves(byte from, byte to, int removeSquares, MoveList moves) {
+        for ( ; removeSquares != 0; removeSquares &= removeSquares - 1) {
+            moves.add(Move.encode(from, to, Integer.numberOfTrailingZeros(removeSquares)));
+        }
+    }
 
-        Move[] allMoves = new Move[1000];  // pst heitetty maksimiarvo
-        int counter = 0;
-        for (byte from = 0; from < BoardInfo.SQUARES_ON_BOARD; from++) {
-            if (board.get(from) != activePlayer) {
-                continue;
+
+   /**
+    * Onko koodina annettu siirto sallittu hakutilanteessa? Tll tarkistetaan
+    * muualta saadut siirrot (esim. vaihtotaulukosta) ennen kuin ne tehdn
+    * tuottamatta tilanteen kaikkia siirtoja.
+    * @param position    Hakutilanne
+    * @param move        Siirron koodi tai <tt>Move.NO_MOVE</tt>
+    * @return Onko siirto sallittu (<tt>Move.NO_MOVE</tt> ei ole koskaan)
+    */
+    public static boolean isLegalMove(SearchPosition position, int move) {
+        byte gameState = position.getGameState();
+        if (move == Move.NO_MOVE ||
+            (gameState != MillGame.PHASE_BEGINNING && gameState != MillGame.PHASE_MIDGAME &&
+             gameState != MillGame.PHASE_ENDGAME)) {
+            return false;
+        }
+        MillBoard board = position.getBoard();
+        byte activePlayer = position.getActivePlayer();
+        byte from = Move.getFrom(move);
+        byte to = Move.getTo(move);
+        byte remove = Move.getRemove(move);
+        if ((board.getMask(BoardInfo.EMPTY) & BoardInfo.getSquareMask(to)) == 0) {
+            return false;
+        }
+        int pieces = board.getMask(activePlayer);
+        if (gameState == MillGame.PHASE_BEGINNING) {
+            if (from != Move.NOWHERE) {
+                return false;
             }
-            byte[] neighbours = BoardInfo.getNeighbours(from);
-            for (byte neighbourIndex = 0; neighbourIndex < neighbours.length; neighbourIndex++) {
-                byte to = neighbours[neighbourIndex];
-                if (board.get(to) != BoardInfo.EMPTY) {
-                    continue;
-                }
-                if (board.createsNewMill( new Move (from, to, (byte)0), activePlayer)) {
-                    for (byte remove = 0; remove < BoardInfo.SQUARES_ON_BOARD; remove++) {
-                        if (board.get(remove) != opponent) {
-                            continue;
-                        }
-                        //Kuuluuko nappula myllyyn? Jos kuuluu, niin tarkistetaan
-                        // kuuluvatko kaikki vastustajan nappulat myllyyn.
-                        if (board.isPartOfMill(remove)) {
-                            if ( board.allPiecesInMills(opponent) ) {
-                                allMoves[counter] = new Move(from, to, remove);
-                                counter++;
-                            }
-
-                        }
-                        else {
-                            allMoves[counter] = new Move(from, to, remove);
-                            counter++;
-                        }
-                    }
-                }
-                else {
-                    allMoves[counter] = new Move(from, to, Move.NOWHERE);
-                    counter++;
-                }
+        }
+        else {
+            if (from == Move.NOWHERE || (pieces & BoardInfo.getSquareMask(from)) == 0) {
+                return false;
             }
+            boolean flying = (gameState == MillGame.PHASE_ENDGAME && board.countSquares(activePlayer) <= 3);
+            if ( !flying && (BoardInfo.getNeighbourMask(from) & BoardInfo.getSquareMask(to)) == 0) {
+                return false;
+            }
+            pieces &= ~BoardInfo.getSquareMask(from);
+        }
+        if ( !MillBoard.closesMill(to, pieces)) {
+            return remove == Move.NOWHERE;
         }
-        return compressArray(allMoves, counter);
+        return remove != Move.NOWHERE &&
+               (getRemovableSquares(board, position.getOpponent()) & BoardInfo.getSquareMask(remove)) != 0;
     }
 
 
+   /**
+    * Hakutilanteen sallituista siirroista vain ne, jotka sulkevat myllyn
+    * ja poistavat vastustajan nappulan. Siirrot muodostetaan suoraan
+    * bittimaskeista, joten muita siirtoja ei luoda lainkaan.
+    * @param position    Hakutilanne
+    * @return Kaikki tilanteessa sallitut myllyn sulkevat siirrot
+    */
+    public static Move[] getMillClosingMoves(SearchPosition position) {
+        MoveList moves = new MoveList();
+        generateMillClosingMoves(position, moves);
+        return moves.toMoveArray();
+    }
 
-    private static Move[] getAllLegalMoves_endgame(MillGame game) {
-        byte activePlayer = game.getActivePlayer();
-        byte opponent = game.getOpponent();
-        MillBoard board = game.getMillBoard();
-
-        if ( (board.getColouredSquares(activePlayer)).length > 3) {
-            return getAllLegalMoves_middlegame(game);
+   /**
+    * Kuten <tt>getMillClosingMoves</tt>, mutta siirrot tuotetaan koodeina
+    * annettuun listaan, jonka vanha sislt hvitetn. Siirrot jrjestetn
+    * kohderuudun mukaan.
+    * @param position    Hakutilanne
+    * @param moves       Lista, johon siirrot tuotetaan
+    */
+    public static void generateMillClosingMoves(SearchPosition position, MoveList moves) {
+        moves.clear();
+        byte gameState = position.getGameState();
+        if (gameState != MillGame.PHASE_BEGINNING && gameState != MillGame.PHASE_MIDGAME &&
+            gameState != MillGame.PHASE_ENDGAME) {
+            return;
         }
+        MillBoard board = position.getBoard();
+        byte activePlayer = position.getActivePlayer();
+        int ownSquares = board.getMask(activePlayer);
+        int emptySquares = board.getMask(BoardInfo.EMPTY);
+        int removeSquares = getRemovableSquares(board, position.getOpponent());
+        if (removeSquares == 0) {
+            return;
+        }
+        boolean flying = (gameState == MillGame.PHASE_ENDGAME && board.countSquares(activePlayer) <= 3);
 
-        Move[] allMoves = new Move[1000];  // pst heitetty maksimiarvo
-        int counter = 0;
-        for (byte from = 0; from < BoardInfo.SQUARES_ON_BOARD; from++) {
-            if (board.get(from) != activePlayer) {
+        for (int toSquares = emptySquares; toSquares != 0; toSquares &= toSquares - 1) {
+            byte to = (byte)Integer.numberOfTrailingZeros(toSquares);
+            if (gameState == MillGame.PHASE_BEGINNING) {
+                if (MillBoard.closesMill(to, ownSquares)) {
+                    addRemoves(Move.NOWHERE, to, removeSquares, moves);
+                }
                 continue;
             }
-            for (byte to = 0; to < BoardInfo.SQUARES_ON_BOARD; to++) {
-                if (board.get(to) != BoardInfo.EMPTY) {
-                    continue;
-                }
-                if ( board.createsNewMill( new Move(from, to, (byte)0), activePlayer) ) {
-                    for (byte remove = 0; remove < BoardInfo.SQUARES_ON_BOARD; remove++) {
-                        if (board.get(remove) != opponent) {
-                            continue;
-                        }
-                        // Kuuluuko nappula myllyyn? Jos kuuluu, niin tarkistetaan
-                        // kuuluvatko kaikki vastustajan nappulat myllyyn.
-                        if (board.isPartOfMill(remove)) {
-                            if ( board.allPiecesInMills(opponent) ) {
-                                allMoves[counter] = new Move(from, to, remove);
-                                counter++;
-                            }
-                        }
-                        else {
-                            allMoves[counter] = new Move(from, to, remove);
-                            counter++;
-                        }
-                    }
-                }
-                else {
-                    allMoves[counter] = new Move(from, to, Move.NOWHERE);
-                    counter++;
+            int fromSquares = ownSquares;               // siirrettvt nappulat
+            if ( !flying) {
+                fromSquares &= BoardInfo.getNeighbourMask(to);
+            }
+            for ( ; fromSquares != 0; fromSquares &= fromSquares - 1) {
+                byte from = (byte)Integer.numberOfTrailingZeros(fromSquares);
+                if (MillBoard.closesMill(to, ownSquares & ~BoardInfo.getSquareMask(from))) {
+                    addRemoves(from, to, removeSquares, moves);
                 }
             }
         }
-        return compressArray(allMoves, counter);
     }
 
 
@@ -348,13 +414,6 @@ public final class LegalMoves{
         return false;
     }
 
-    private static Move[] compressArray(Move[] array, int count) {
-         Move[] compressed = new Move[count];
-         for (int moveIndex = 0; moveIndex < count; moveIndex++)
-              compressed[moveIndex] = array[moveIndex];
-         return compressed;
-    }
-
     private static byte[] compressArray(byte[] array, int count) {
          byte[] compressed = new byte[count];
          for (int moveIndex = 0; moveIndex < count; moveIndex++)
@@ -1,31 +1,284 @@
-public class MillAI {
+import java.util.function.Consumer;
 
-    private static final short MAX_VALUE = 9999;
-    private static final short MIN_VALUE = -9999;
+public class MillAI {
 
-    private double random = 0;
+    static final short MAX_VALUE = 9999;
+    static final short MIN_VALUE = -9999;
+    // Solmun arvo ennen ensimmist siirtoa (ei laillisia siirtoja); vaihtaa merkki ylivuotamatta.
+    private static final short NO_VALUE = -Short.MAX_VALUE;
 
     private int nodesOpened = 0;
     private int nodesTotal = 0;
-    private Node bestPathSoFar = null;
+    private int quiescenceNodes = 0;
+    private short bestValueSoFar = 0;
     private int rootNodes = 0;
     private int currentRootNode = -1;
 
-    private boolean timeLimited = false;
     private byte depthLimit = -1;
-    private long timeLimit = -1;
     private long searchStarted = 0;
+    private final TimeManager timeManager = new TimeManager();
+    private int rootBestNodes = 0; // juuren parhaan siirron alipuun solmut kierroksella
+    private volatile boolean stopRequested = false;
+
+    // Asynkronisen haun (SearchEngine) edistymisen kuuntelija, jolle ilmoitetaan
+    // jokainen valmistunut iteratiivisen syvenemisen kierros (null = ei kuuntelijaa).
+    private Consumer<SearchResult> progressListener = null;
+
+    // Rinnakkaisen YBWC-haun tyntekij: keskeytyy, kun jakokohta karsitaan,
+    // ja hyvksyy vaihtotaulukosta vain tsmlleen saman syvyyden arvot.
+    private ParallelSearch.SplitPoint splitPoint = null;
+    private boolean exactHashDepth = false;
 
     private byte player = -1;
     private byte opponent = -1;
 
-    public MillAI() { }
+    // Haun pelitilanne, jossa siirrot tehdn ja perutaan paikallaan
+    private SearchPosition position = null;
+
+    // Vaihtotaulukko silyy iteraatioiden ja saman pelin siirtojen vlill
+    public static final int DEFAULT_HASH_MEGABYTES = 16;
+    private final TranspositionTable transpositionTable;
+
+    // Laudan symmetriat: symmetriset tilanteet jakavat vaihtotaulukon tiedot, ja
+    // alkupelin juuressa tutkitaan vain yksi siirto kustakin symmetristen
+    // siirtojen joukosta. Solmun avaimen symmetria syvyyksittin; juuren
+    // tilanteen itselleen kuvaavat symmetriat bittimaskina.
+    private boolean symmetries = true;
+    private final int[] hashSymmetries = new int[MAX_DEPTH + 1];
+    private int rootSymmetries = 1;
+
+    // Siirtelyvaiheen loppupelitietokanta (null = ei kytss). Tietokannan
+    // tilanteille ei hakua tarvita: tulos on tarkka, ja voitot ja hvit
+    // arvioidaan etisyyden mukaan, jotta voittaja etenee lyhint tiet.
+    private EndgameDatabase endgameDatabase = null;
+    private int databaseHits = 0;
+
+    // Asetteluvaiheen avauskirjasto (null = ei kytss). Aikarajoitettu haku
+    // palauttaa kirjaston siirron hakematta, jolloin aika sstyy myhemmille siirroille.
+    private OpeningBook openingBook = null;
+
+    // Pjuonihaku (PVS) ja iteratiivisen syvenemisen aspiraatioikkunat.
+    // Ikkuna on edellisen kierroksen arvo +-ASPIRATION_WINDOW; jos arvo j
+    // ikkunan ulkopuolelle, ikkunaa levennetn sill puolella nelinkertaiseksi.
+    // Tilastot: nollaikkunan jlkeiset uudelleenhaut ja ikkunan ylitykset.
+    static final int ASPIRATION_WINDOW = 100;
+    private static final int ASPIRATION_DEPTH = 3;
+    private boolean principalVariationSearch = true;
+    private boolean aspirationWindows = true;
+    private int researches = 0;
+    private int aspirationFailures = 0;
+    // Eponnistuiko kierroksen viimeisin yritys alas? Juuren arvot ovat silloin
+    // vain ylrajoja, joten keskeytynytt kierrosta ei voi hyvksy.
+    private boolean rootFailedLow = false;
+
+    // Valikoiva haku, vain myhisille hiljaisille siirroille (ks. MovePicker.isQuietStage).
+    // Myhisten siirtojen lyhennys (LMR): solmun LMR_MOVES ensimmisen siirron
+    // jlkeen siirto haetaan nollaikkunalla puolisiirron vajaaseen syvyyteen,
+    // jos syvyytt on jljell vhintn LMR_DEPTH; jos siirto on parempi kuin
+    // alpha, se haetaan uudelleen tyteen syvyyteen.
+    // Turhuuskarsinta: kun syvyytt on jljell enintn kaksi puolisiirtoa ja
+    // tilanteen arvio marginaalin kanssakin j alphaan, siirtoa ei haeta.
+    // Tilastot: lyhennetyt siirrot, niiden uudelleenhaut ja karsitut siirrot.
+    private static final int LMR_DEPTH = 3;
+    private static final int LMR_MOVES = 3;
+    private static final short[] FUTILITY_MARGIN = {0, 100, 250};
+    private boolean lateMoveReductions = true;
+    private boolean futilityPruning = true;
+    private int reductions = 0;
+    private int reductionResearches = 0;
+    private int futilityPrunes = 0;
+
+    // Siirtojen jrjestminen: tappajasiirrot syvyyksittin ja historiataulukko
+    // siirtojen koodeittain, jota kasvatetaan karsinnan aiheuttaneille siirroille.
+    private static final int MAX_PLY = SearchPosition.MAX_PLY;
+    static final int HISTORY_LIMIT = 1 << 14;
+    private final int[][] killerMoves = new int[MAX_PLY][2];
+    private final int[] history = new int[Move.CODES];
+
+    // Siirtojen valitsijat ja hiljaisuushaun siirtolistat syvyyksittin;
+    // varataan ensimmisell kytll.
+    private final MovePicker[] movePickers = new MovePicker[MAX_PLY];
+    private final MoveList[] moveLists = new MoveList[MAX_PLY];
+
+    // Iteratiivinen syveneminen: edellisen kierroksen pjuonen siirrot syvyyksittin.
+    // followingPV kertoo, onko tutkittava solmu edelleen pjuonella.
+    private final Move[] pvMoves = new Move[MAX_PLY];
+    private boolean followingPV = false;
+
+    // Haun aikaiset pjuonet kolmiotaulukossa: pvTable[ply][ply..pvLength[ply]-1]
+    // on paras lydetty siirtojono syvyydelt ply alkaen. Lapsen juoni kopioidaan
+    // vanhemman riville vain, kun lapsen siirto parantaa vanhemman arvoa.
+    private static final int MAX_DEPTH = Byte.MAX_VALUE + 1;
+    private final Move[][] pvTable = new Move[MAX_DEPTH + 1][MAX_DEPTH + 1];
+    private final int[] pvLength = new int[MAX_DEPTH + 1];
+
+    // Hiljaisuushaun enimmissyvyys myllyn sulkevina siirtoina (0 = ei hiljaisuushakua)
+    public static final byte DEFAULT_QUIESCENCE_DEPTH = 2;
+    private byte quiescenceDepth = DEFAULT_QUIESCENCE_DEPTH;
+
+    // Rinnakkainen haku (Lazy SMP): apuhakijat tutkivat samaa tilannetta omissa
+    // sikeissn ja jakavat vain vaihtotaulukon. Psikeen tulos palautetaan.
+    public static final int MAX_THREADS = 256;
+    private MillAI[] helpers = new MillAI[0];
+    private HelperThread[] helperThreads = new HelperThread[0];
+
+    // Kiinten syvyyden haussa voidaan Lazy SMP:n sijaan kytt jakokohtiin
+    // perustuvaa YBWC-hakua. Se ei lyhenn eik karsi siirtoja, joten se antaa
+    // saman arvon kuin perkkinen haku, jossa LMR ja turhuuskarsinta ovat pois
+    // ja vaihtotaulukosta hyvksytn vain saman syvyyden arvot (ks. ParallelSearch).
+    public static final int PARALLEL_LAZY_SMP = 0,
+                            PARALLEL_YBWC = 1;
+    private int parallelMode = PARALLEL_LAZY_SMP;
+    private volatile ParallelSearch parallelSearch = null;
+
+    public MillAI() {
+        this(new TranspositionTable(DEFAULT_HASH_MEGABYTES));
+    }
+
+    // Apuhakija, joka kytt psikeen vaihtotaulukkoa.
+    private MillAI(TranspositionTable transpositionTable) {
+        this.transpositionTable = transpositionTable;
+        this.newOrderingSearch();
+    }
+
+    // Hakusikeiden mr psie mukaan lukien (1 = ei rinnakkaista hakua).
+    public void setThreads(int threads) {
+        if (threads < 1 || threads > MAX_THREADS) {
+            throw new IllegalArgumentException("setThreads(int): "+
+                                               "threads:"+threads+" must be between 1 and "+MAX_THREADS+".");
+        }
+        this.helpers = new MillAI[threads - 1];
+        for (int index = 0; index < this.helpers.length; index++) {
+            this.helpers[index] = new MillAI(this.transpositionTable);
+        }
+        this.helperThreads = new HelperThread[threads - 1];
+        if (this.parallelSearch != null) {
+            this.parallelSearch.shutdown();
+            this.parallelSearch = null;
+        }
+    }
+
+    // Rinnakkaisen haun tapa, kun sikeit on useampi kuin yksi. YBWC koskee vain
+    // depthSearch-hakua; timeSearch kytt aina Lazy SMP:t.
+    public void setParallelMode(int mode) {
+        if (mode != PARALLEL_LAZY_SMP && mode != PARALLEL_YBWC) {
+            throw new IllegalArgumentException("setParallelMode(int): unknown mode:"+mode);
+        }
+        this.parallelMode = mode;
+    }
+
+    public int getThreads() {
+        return this.helpers.length + 1;
+    }
+
+    // Hiljaisuushaun enimmissyvyys; 0 arvioi hakusyvyyden lehdet sellaisinaan.
+    public void setQuiescenceDepth(int depth) {
+        if (depth < 0 || depth > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("setQuiescenceDepth(int): "+
+                                               "depth:"+depth+" must be between 0 and 127.");
+        }
+        this.quiescenceDepth = (byte)depth;
+    }
+
+    // Laudan symmetrioiden kytt vaihtotaulukossa ja alkupelin juuressa.
+    public void setSymmetries(boolean enabled) {
+        this.symmetries = enabled;
+    }
+
+    boolean usesSymmetries() {
+        return this.symmetries;
+    }
+
+    // Pjuonihaku: muut kuin solmun ensimminen siirto haetaan ensin nollaikkunalla.
+    public void setPrincipalVariationSearch(boolean enabled) {
+        this.principalVariationSearch = enabled;
+    }
+
+    // Aspiraatioikkunat aikarajoitetun (iteratiivisen) haun kierroksilla.
+    public void setAspirationWindows(boolean enabled) {
+        this.aspirationWindows = enabled;
+    }
+
+    // Myhisten hiljaisten siirtojen lyhennys (LMR). YBWC-haku ei kyt sit.
+    public void setLateMoveReductions(boolean enabled) {
+        this.lateMoveReductions = enabled;
+    }
+
+    // Hiljaisten siirtojen turhuuskarsinta lehtien lhell. YBWC-haku ei kyt sit.
+    public void setFutilityPruning(boolean enabled) {
+        this.futilityPruning = enabled;
+    }
+
+    // Hyvksytnk vaihtotaulukosta vain tsmlleen saman syvyyden arvot.
+    // Tavallinen haku kytt mys syvempi arvoja; YBWC:n tyntekijt eivt.
+    void setExactHashDepth(boolean exact) {
+        this.exactHashDepth = exact;
+    }
+
+    // Loppupelitietokanta, jonka tilanteita ei haeta (null = ei tietokantaa).
+    public void setEndgameDatabase(EndgameDatabase database) {
+        this.endgameDatabase = database;
+    }
+
+    // Avauskirjasto, jonka siirrot aikarajoitettu haku palauttaa hakematta (null = ei kirjastoa).
+    public void setOpeningBook(OpeningBook book) {
+        this.openingBook = book;
+    }
+
+    // Vaihtotaulukon koko megatavuina (0 = ei taulukkoa). Vanhat tiedot hvitetn.
+    public void setHashSize(int megabytes) {
+        this.transpositionTable.resize(megabytes);
+    }
+
+    // Hvitt vaihtotaulukon tiedot, esim. uuden pelin alkaessa.
+    public void clearHash() {
+        this.transpositionTable.clear();
+    }
 
+    /**
+     * Keskeytt kynniss olevan haun; apuhakijat pyshtyvt psikeen mukana.
+     * Pyynt j voimaan, kunnes <tt>clearStopRequest</tt> nollaa sen, joten se
+     * keskeytt mys haun, joka ei ole viel alkanut.
+     */
     public void stopSearch() {
-        this.timeLimited = true;
-        this.timeLimit = 0;
+        this.stopRequested = true;
+        ParallelSearch current = this.parallelSearch;
+        if (current != null) {
+            current.stop();
+        }
+    }
+
+    /**
+     * Nollaa keskeytyspyynnn. Hakumetodit eivt nollaa sit itse, vaan kutsuja
+     * nollaa sen ennen kuin antaa haun toiselle sikeelle (ks. SearchEngine ja
+     * GUIControl). Nin juuri ennen haun alkua tullut keskeytys ei katoa.
+     */
+    public void clearStopRequest() {
+        this.stopRequested = false;
+        ParallelSearch current = this.parallelSearch;
+        if (current != null) {
+            current.clearStop();
+        }
+    }
+
+    // Ptt pohdinnan (ks. Ponderer) jttmtt keskeytyspyynt seuraavalle
+    // haulle: vain pohtiva haku pyshtyy.
+    void stopPondering() {
+        this.timeManager.stop();
+    }
+
+    void setProgressListener(Consumer<SearchResult> listener) {
+        this.progressListener = listener;
     }
 
+    /**
+     * Hakee parhaan siirron kiinten syvyyteen.
+     * <p>
+     * Haku ei nollaa keskeytyspyynt: jos <tt>stopSearch</tt>-kutsun jlkeen
+     * ei ole kutsuttu <tt>clearStopRequest</tt>-metodia, haku palaa heti.
+     * @param depth Hakusyvyys puolisiirtoina (0 = satunnainen siirto)
+     * @return Paras siirto tai <tt>null</tt>, jos haku keskeytettiin
+     */
     public Move depthSearch(MillGame game, byte depth) {
         if (depth < 0) {
             throw new IllegalArgumentException("depthSearch(MillGame,byte): "+
@@ -33,320 +286,901 @@ public class MillAI {
         }
         this.nodesOpened = 0;
         this.nodesTotal = 0;
-        this.bestPathSoFar = null;
+        this.quiescenceNodes = 0;
+        this.databaseHits = 0;
+        this.researches = 0;
+        this.aspirationFailures = 0;
+        this.reductions = 0;
+        this.reductionResearches = 0;
+        this.futilityPrunes = 0;
+        this.bestValueSoFar = 0;
+        if (this.parallelSearch != null) {
+            this.parallelSearch.resetStatistics();
+        }
 
-        this.timeLimited = false;
+        this.timeManager.startUnlimited();
         this.depthLimit = depth;
         this.player = game.getActivePlayer();
         this.opponent = game.getOpponent();
 
         this.searchStarted = System.currentTimeMillis();
+        this.transpositionTable.newSearch();
+        this.transpositionTable.resetStatistics();
+        this.newOrderingSearch();
+        this.clearPV();
 
         if (depth == 0) {
             return this.randomMove(game);
         }
 
-        Node best = maxValue(new Node(game, (byte)0, null), MIN_VALUE, MAX_VALUE);
-        if (best != null && best.PATH != null) {
-            System.out.println("depth:"+depth+
-                               " move:"+best.PATH.PREVIOUS_MOVE+
-                               " value:"+best.VALUE+
-                               " nodes:"+this.nodesOpened+
-                               " time:"+(System.currentTimeMillis() - this.searchStarted)+"ms");
-        
+        this.position = new SearchPosition(game);
+        short value;
+        if (this.parallelMode == PARALLEL_YBWC && this.helpers.length > 0) {
+            if (this.parallelSearch == null) {
+                this.parallelSearch = new ParallelSearch(this, this.transpositionTable, this.getThreads());
+                if (this.stopRequested) {
+                    this.parallelSearch.stop(); // stopSearch ehti ennen luontia
+                }
+            }
+            Move[] line = new Move[depth + 1];
+            value = this.parallelSearch.search(this.position, depth, this.quiescenceDepth, line);
+            this.pvLength[0] = 0;
+            while (line[this.pvLength[0]] != null) {
+                this.pvTable[0][this.pvLength[0]] = line[this.pvLength[0]];
+                this.pvLength[0]++;
+            }
         }
-        this.printPath(best.PATH);
-        if (best == null || best.PATH == null) {
+        else {
+            this.startHelpers(game, depth);
+            value = this.search((byte)0, MIN_VALUE, MAX_VALUE);
+            this.stopHelpers();
+        }
+        if (this.pvLength[0] == 0) {
             return null; // keskeytysarvo!
         }
-        return best.PATH.PREVIOUS_MOVE;
+        this.bestValueSoFar = value;
+        this.storePV();
+        System.out.println("depth:"+depth+
+                           " move:"+this.pvMoves[0]+
+                           " value:"+value+
+                           " nodes:"+this.nodesOpened+
+                           " qnodes:"+this.quiescenceNodes+
+                           this.threadSummary()+
+                           " time:"+(System.currentTimeMillis() - this.searchStarted)+"ms"+
+                           " "+this.transpositionTable);
+        this.printPath(this.pvMoves);
+        return this.pvMoves[0];
     }
 
 
+    /**
+     * Aikarajoitettu haku sekunteina; pehme raja on osa kovasta rajasta (ks.
+     * <tt>timeSearchMillis</tt>, mys keskeytyspyynnn osalta).
+     */
     public Move timeSearch(MillGame game, int timeLimitSeconds) {
         if (timeLimitSeconds < 1 || 100000 <= timeLimitSeconds) {
             throw new IllegalArgumentException("timeLimitSeconds must be between"+
                                                " 1 and 100000 seconds (27 hours).");
         }
+        long hardMillis = timeLimitSeconds*1000L; // s --> ms
+        return this.timeSearchMillis(game, (long)(hardMillis*TimeManager.DEFAULT_SOFT_FRACTION), hardMillis);
+    }
+
+    /**
+     * Aikarajoitettu haku millisekunteina: pehmen rajan jlkeen ei aloiteta
+     * uutta kierrosta, ja kovalla rajalla haku keskeytetn (ks. TimeManager).
+     * <p>
+     * Haku ei nollaa keskeytyspyynt: jos <tt>stopSearch</tt>-kutsun jlkeen
+     * ei ole kutsuttu <tt>clearStopRequest</tt>-metodia, haku palaa heti
+     * hakematta yhtn kierrosta.
+     * @param softMillis Pehme raja (uusi kierros), enintn <tt>hardMillis</tt>
+     * @param hardMillis Kova raja (keskeytys)
+     */
+    public Move timeSearchMillis(MillGame game, long softMillis, long hardMillis) {
+        if (hardMillis < 1 || softMillis < 0 || softMillis > hardMillis) {
+            throw new IllegalArgumentException("timeSearchMillis(MillGame,long,long): softMillis:"+softMillis+
+                                               " must be between 0 and hardMillis:"+hardMillis+
+                                               ", which must be positive.");
+        }
+        return this.iterativeSearch(game, SearchLimits.MAX_DEPTH, softMillis, hardMillis).getMove();
+    }
+
+    // Iteratiivisesti syvenev haku enintn syvyyteen maxDepth ja aikarajoihin
+    // asti (hardMillis 0 = ei aikarajaa). Aikarajoitettu haku kytt
+    // avauskirjastoa. Keskeytyspyynt ei nollata, vaan sen tekee kutsuja.
+    SearchResult iterativeSearch(MillGame game, int maxDepth, long softMillis, long hardMillis) {
+        if (hardMillis > 0) {
+            this.timeManager.start(softMillis, hardMillis);
+        }
+        else {
+            this.timeManager.startUnlimited();
+        }
+        return this.deepeningSearch(game, maxDepth);
+    }
+
+    // Pohdinta vastustajan ajalla (ks. Ponderer). preparePondering kutsutaan
+    // ennen pohtivan sikeen kynnistmist, jotta heti tuleva osuma tai
+    // keskeytys ei katoa. Haku jatkuu ilman aikarajaa, kunnes ponderHit antaa
+    // sille aikarajat tai stopPondering keskeytt sen.
+    void preparePondering() {
+        this.timeManager.startPondering();
+    }
+
+    SearchResult ponderSearch(MillGame game) {
+        return this.deepeningSearch(game, SearchLimits.MAX_DEPTH);
+    }
+
+    void ponderHit(long softMillis, long hardMillis) {
+        this.timeManager.ponderHit(softMillis, hardMillis);
+    }
+
+    // Viimeisimmn haun pjuonen mukainen vastustajan vastaus (null = ei tiedossa).
+    public Move getExpectedReply() {
+        return this.pvMoves[1];
+    }
+
+    // Iteratiivinen syveneminen kellolla, jonka kutsuja on jo kynnistnyt.
+    private SearchResult deepeningSearch(MillGame game, int maxDepth) {
+        this.searchStarted = System.currentTimeMillis();
+        if (this.openingBook != null && this.timeManager.isLimited()) {
+            long bookEntry = this.openingBook.lookup(game);
+            if (bookEntry != OpeningBook.NOT_FOUND) {
+                Move bookMove = Move.valueOf(OpeningBook.getEntryMove(bookEntry));
+                short bookValue = OpeningBook.getEntryValue(bookEntry);
+                this.clearPV();
+                System.out.println("book move:"+bookMove+" value:"+bookValue+" "+this.openingBook);
+                return new SearchResult(new Move[] {bookMove}, bookValue,
+                                        0, 0, System.currentTimeMillis() - this.searchStarted);
+            }
+        }
         this.nodesTotal = 0;
-        this.timeLimited = true;
-        this.timeLimit = timeLimitSeconds*1000; // s --> ms
+        this.quiescenceNodes = 0;
+        this.databaseHits = 0;
+        this.researches = 0;
+        this.aspirationFailures = 0;
+        this.reductions = 0;
+        this.reductionResearches = 0;
+        this.futilityPrunes = 0;
+        if (this.parallelSearch != null) {
+            this.parallelSearch.resetStatistics();
+        }
         this.player = game.getActivePlayer();
         this.opponent = game.getOpponent();
-        this.searchStarted = System.currentTimeMillis();
-        this.bestPathSoFar = null;
-
-        Node best = null;
-        Node candidate;
-        for (this.depthLimit = 1; !this.timeOut() && this.depthLimit < Byte.MAX_VALUE; this.depthLimit++) {
+        this.bestValueSoFar = 0;
+        this.transpositionTable.newSearch();
+        this.transpositionTable.resetStatistics();
+        this.newOrderingSearch();
+        this.clearPV();
+
+        this.position = new SearchPosition(game);
+        this.startHelpers(game, (byte)maxDepth);
+        boolean found = false;
+        int completedDepth = 0;
+        for (this.depthLimit = 1; !this.timeOut() && this.depthLimit <= maxDepth; this.depthLimit++) {
             this.nodesOpened = 0;
-            candidate = maxValue(new Node(game, (byte)0, null), MIN_VALUE, MAX_VALUE);
+            this.rootBestNodes = 0;
+            this.timeManager.startIteration();
+            short value = this.aspirationSearch();
+            // Kesken jnyt kierros kelpaa vain, jos edellisen kierroksen paras
+            // siirto (aina ensimmisen tutkittu) ehdittiin kyd lpi ikkunan
+            // sisll. Alas eponnistuneen yrityksen arvot ovat ylrajoja.
+            boolean accepted = (this.pvLength[0] > 0 && !(this.timeOut() && this.rootFailedLow));
             if (this.timeOut()) {
-                if (candidate != null && best.VALUE < candidate.VALUE) {
-                    best = candidate;
+                if (accepted) {
                     System.out.print("*"); // merkitn kesken jnyt, mutta hyvksytty
                 }
                 else {
                     System.out.print("/"); // merkitn kesken ja huomiotta jnyt
                 }
             }
-            else {
-                best = candidate;
+            if (accepted) {
+                found = true;
+                completedDepth = this.depthLimit;
+                this.bestValueSoFar = value;
+                this.storePV();
+                if (this.progressListener != null) {
+                    this.progressListener.accept(this.createResult(this.depthLimit));
+                }
             }
-            this.bestPathSoFar = best;
-            if (best.VALUE == MAX_VALUE) {
+            if ( !found) {
+                break;
+            }
+            if (this.bestValueSoFar == MAX_VALUE || this.timeOut()) {
+                break;
+            }
+            if (this.endgameDatabase != null && this.endgameDatabase.probe(game) != EndgameDatabase.UNKNOWN) {
+                break; // juuren lapset ovat tietokannassa: arvot ovat jo tarkat
+            }
+            if ( !this.timeManager.startNextIteration(this.nodesOpened, this.pvMoves[0].CODE,
+                                                      this.rootBestNodes, this.rootNodes)) {
                 break;
             }
         }
-        System.out.println("depth:"+this.depthLimit+
-                           " move:"+best.PATH.PREVIOUS_MOVE+
-                           " value:"+best.VALUE+
+        this.stopHelpers();
+        if ( !found) {
+            // Ensimminenkn kierros ei valmistunut (haku keskeytettiin heti).
+            System.out.println("depth:"+this.depthLimit+" search stopped before any move was searched");
+            Move[] legalMoves = LegalMoves.getAllLegalMoves(game);
+            Move[] line = (legalMoves.length > 0) ? new Move[] {legalMoves[0]} : new Move[0];
+            return new SearchResult(line, (short)0, 0,
+                                    this.getNodesAllThreads(), System.currentTimeMillis() - this.searchStarted);
+        }
+        int depth = completedDepth;
+        System.out.println("depth:"+depth+
+                           " move:"+this.pvMoves[0]+
+                           " value:"+this.bestValueSoFar+
                            " nodes:"+this.nodesTotal+
-                           " time:"+(System.currentTimeMillis() - this.searchStarted)+"ms");
-        this.printPath(best.PATH);
+                           " qnodes:"+this.quiescenceNodes+
+                           this.threadSummary()+
+                           " time:"+(System.currentTimeMillis() - this.searchStarted)+"ms"+
+                           " "+this.transpositionTable);
+        this.printPath(this.pvMoves);
+
+        return this.createResult(depth);
+    }
+
+    // Iteratiivisen syvenemisen kierros. Ensimmisten kierrosten ja ratkaistujen
+    // (voitto tai hvi) arvojen jlkeen haetaan koko ikkunalla; muuten
+    // edellisen kierroksen arvon ymprilt, ja ikkunaa levennetn, kunnes
+    // arvo osuu sen sisn. Pjuonta seurataan jokaisella yrityksell.
+    private short aspirationSearch() {
+        int previous = this.bestValueSoFar;
+        this.rootFailedLow = false;
+        if ( !this.aspirationWindows || this.depthLimit < ASPIRATION_DEPTH ||
+             Math.abs(previous) >= MAX_VALUE - MAX_PLY) {
+                this.followingPV = true;
+                return this.search((byte)0, MIN_VALUE, MAX_VALUE);
+        }
+        int lowerWindow = ASPIRATION_WINDOW;
+        int upperWindow = ASPIRATION_WINDOW;
+        while (true) {
+            short alpha = (short)Math.max(MIN_VALUE, previous - lowerWindow);
+            short beta = (short)Math.min(MAX_VALUE, previous + upperWindow);
+            this.followingPV = true;
+            short value = this.search((byte)0, alpha, beta);
+            this.rootFailedLow = (value <= alpha && alpha > MIN_VALUE);
+            if (this.timeOut()) {
+                return value;
+            }
+            if (this.rootFailedLow) {
+                lowerWindow *= 4;
+            }
+            else if (value >= beta && beta < MAX_VALUE) {
+                upperWindow *= 4;
+            }
+            else {
+                return value;
+            }
+            this.aspirationFailures++;
+        }
+    }
 
-        return best.PATH.PREVIOUS_MOVE;
+    // Nykyisen pjuonen ja tilastojen tulos syvyydelt depth.
+    private SearchResult createResult(int depth) {
+        int length = 0;
+        while (length < MAX_PLY && this.pvMoves[length] != null) {
+            length++;
+        }
+        Move[] line = new Move[length];
+        System.arraycopy(this.pvMoves, 0, line, 0, length);
+        return new SearchResult(line, this.bestValueSoFar, depth, this.getNodesAllThreads(),
+                                System.currentTimeMillis() - this.searchStarted);
+    }
+
+    // Viimeisimmn valmistuneen haun paras arvo
+    short getBestValue() {
+        return this.bestValueSoFar;
     }
 
     private boolean timeOut() {
-        if ( !this.timeLimited) {
-            return false;
+        if (this.stopRequested) {
+            return true;
         }
-        return System.currentTimeMillis() - this.searchStarted >= this.timeLimit;
+        if (this.splitPoint != null && this.splitPoint.isAborted()) {
+            return true;
+        }
+        return this.timeManager.isExpired();
     }
 
 
-    private Node maxValue(Node currentNode, short alpha, short beta) {
+    // Kynnist apuhakijat tutkimaan samaa tilannetta. Joka toinen apuhakija
+    // tutkii joka kierroksella yhden siirron syvemmlle, jolloin ne tyttvt
+    // vaihtotaulukkoa psikeen seuraavaa kierrosta varten, ja kaikkien
+    // siirtojrjestys eroaa omien tappajasiirtojen ja historian vuoksi.
+    private void startHelpers(MillGame game, byte maxDepth) {
+        for (int index = 0; index < this.helpers.length; index++) {
+            MillAI helper = this.helpers[index];
+            helper.prepareHelper(game, this.quiescenceDepth);
+            helper.symmetries = this.symmetries;
+            helper.principalVariationSearch = this.principalVariationSearch;
+            helper.lateMoveReductions = this.lateMoveReductions;
+            helper.futilityPruning = this.futilityPruning;
+            helper.endgameDatabase = this.endgameDatabase;
+            int depthOffset = index % 2;
+            this.helperThreads[index] = new HelperThread(helper, 1 + depthOffset, maxDepth + depthOffset);
+            this.helperThreads[index].start();
+        }
+    }
+
+    // Pysytt apuhakijat ja odottaa, ett niiden sikeet ovat pttyneet.
+    private void stopHelpers() {
+        for (int index = 0; index < this.helpers.length; index++) {
+            this.helpers[index].stopSearch();
+        }
+        boolean interrupted = false;
+        for (int index = 0; index < this.helperThreads.length; index++) {
+            while (this.helperThreads[index] != null && this.helperThreads[index].isAlive()) {
+                try {
+                    this.helperThreads[index].join();
+                }
+                catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            this.helperThreads[index] = null;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void prepareHelper(MillGame game, byte quiescenceDepth) {
+        this.nodesOpened = 0;
+        this.nodesTotal = 0;
+        this.quiescenceNodes = 0;
+        this.databaseHits = 0;
+        this.researches = 0;
+        this.aspirationFailures = 0;
+        this.reductions = 0;
+        this.reductionResearches = 0;
+        this.futilityPrunes = 0;
+        this.timeManager.startUnlimited();
+        this.stopRequested = false;
+        this.player = game.getActivePlayer();
+        this.opponent = game.getOpponent();
+        this.quiescenceDepth = quiescenceDepth;
+        this.searchStarted = System.currentTimeMillis();
+        this.position = new SearchPosition(game);
+        this.newOrderingSearch();
+        this.clearPV();
+    }
+
+    // Apuhakijan iteratiivinen syveneminen. Tulokset vlittyvt psikeelle
+    // vain vaihtotaulukon kautta, joten arvoja ei tarvitse silytt.
+    private void helperSearch(int firstDepth, int lastDepth) {
+        for (int depth = firstDepth; depth <= lastDepth && !this.timeOut(); depth++) {
+            this.depthLimit = (byte)Math.min(depth, Byte.MAX_VALUE);
+            this.search((byte)0, MIN_VALUE, MAX_VALUE);
+        }
+    }
+
+    // Kaikkien hakusikeiden yhteens avaamat solmut.
+    private long getNodesAllThreads() {
+        long nodes = this.nodesTotal;
+        for (int index = 0; index < this.helpers.length; index++) {
+            nodes += this.helpers[index].nodesTotal;
+        }
+        if (this.parallelSearch != null) {
+            nodes += this.parallelSearch.getNodes();
+        }
+        return nodes;
+    }
+
+    // Kaikkien hakusikeiden yhteens avaamat lepohaun solmut.
+    private long getQuiescenceNodesAllThreads() {
+        long nodes = this.quiescenceNodes;
+        for (int index = 0; index < this.helpers.length; index++) {
+            nodes += this.helpers[index].quiescenceNodes;
+        }
+        if (this.parallelSearch != null) {
+            nodes += this.parallelSearch.getQuiescenceNodes();
+        }
+        return nodes;
+    }
+
+    // Tmn hakijan avaamat solmut (rinnakkaisen haun tyntekijiden yhteenlaskuun).
+    long getNodes() {
+        return this.nodesTotal;
+    }
+
+    long getQuiescenceNodes() {
+        return this.quiescenceNodes;
+    }
+
+    // Rinnakkaisen YBWC-haun tyntekij, joka kytt tmn hakijan vaihtotaulukkoa.
+    MillAI createWorker() {
+        MillAI worker = new MillAI(this.transpositionTable);
+        worker.exactHashDepth = true;
+        worker.symmetries = this.symmetries;
+        worker.principalVariationSearch = this.principalVariationSearch;
+        worker.lateMoveReductions = false; // valikoiva haku muuttaisi arvoa
+        worker.futilityPruning = false;
+        worker.endgameDatabase = this.endgameDatabase;
+        return worker;
+    }
+
+    // Tutkii YBWC-haun alipuun perkkin. position on tyntekijn oma kopio,
+    // jossa on jo tehty solmuun johtaneet siirrot, ja haku keskeytyy, jos
+    // splitPoint tai jokin sen esivanhemmista keskeytetn. Alipuun pjuoni
+    // kopioidaan taulukkoon line, ja sen loppu merkitn null-arvolla.
+    short searchSubtree(SearchPosition position, byte ply, byte player, byte depthLimit,
+                        byte quiescenceDepth, short alpha, short beta,
+                        ParallelSearch.SplitPoint splitPoint, Move[] line) {
+        this.player = player;
+        if (player == MillGame.WHITE_PLAYER) {
+            this.opponent = MillGame.BLACK_PLAYER;
+        }
+        else {
+            this.opponent = MillGame.WHITE_PLAYER;
+        }
+        this.depthLimit = depthLimit;
+        this.quiescenceDepth = quiescenceDepth;
+        this.position = position;
+        this.splitPoint = splitPoint;
+
+        // Jakokohtien rajat ovat tekolyn pelaajan kannalta, haun vuorossa olevan.
+        short value;
+        if (position.getActivePlayer() == player) {
+            value = this.search(ply, alpha, beta);
+        }
+        else {
+            value = (short)-this.search(ply, (short)-beta, (short)-alpha);
+        }
+        int length = this.pvLength[ply] - ply;
+        System.arraycopy(this.pvTable[ply], ply, line, 0, length);
+        line[length] = null;
+        this.position = null;
+        this.splitPoint = null;
+        return value;
+    }
+
+    private String threadSummary() {
+        if (this.helpers.length == 0) {
+            return "";
+        }
+        return " threads:"+this.getThreads()+" all nodes:"+this.getNodesAllThreads()+
+               " all qnodes:"+this.getQuiescenceNodesAllThreads();
+    }
+
+    private class HelperThread extends Thread {
+        private final MillAI helper;
+        private final int firstDepth;
+        private final int lastDepth;
+
+        public HelperThread(MillAI helper, int firstDepth, int lastDepth) {
+            this.helper = helper;
+            this.firstDepth = firstDepth;
+            this.lastDepth = lastDepth;
+            this.setDaemon(true);
+        }
+
+        public void run() {
+            this.helper.helperSearch(this.firstDepth, this.lastDepth);
+        }
+    }
+
+
+    // Negamax-muotoinen alfa-beta-haku: arvot ja rajat ovat vuorossa olevan
+    // pelaajan kannalta, ja lapsen arvo vaihtaa merkki. Pjuonihaussa (PVS)
+    // vain solmun ensimminen lapsi tutkitaan koko ikkunalla; muille riitt
+    // nollaikkuna, joka kertoo vain, onko siirto parempi kuin alpha. Jos on,
+    // siirto tutkitaan uudelleen koko ikkunalla. Myhisi hiljaisia siirtoja
+    // voidaan lisksi lyhent tai karsia (ks. lateMoveReductions ja futilityPruning).
+    private short search(byte ply, short alpha, short beta) {
         this.nodesOpened++;
         this.nodesTotal++;
+        this.timeManager.countNode();
+        this.pvLength[ply] = ply;
 
-        if (currentNode.DEPTH >= this.depthLimit) {
-            currentNode.setValue(this.evaluate(currentNode.GAME));
-            currentNode.setPath(null);
-            return currentNode;
+        if (ply > 0 && this.position.isRepetition()) {
+            return 0; // toisto: kumpikaan ei ole edistynyt, tasapeli
+        }
+        if (ply > 0 && this.endgameDatabase != null) {
+            int result = this.endgameDatabase.probe(this.position);
+            if (result != EndgameDatabase.UNKNOWN) {
+                return this.databaseValue(result);
+            }
+        }
+        if (ply >= this.depthLimit) {
+            return this.quiescence(ply, alpha, beta, this.quiescenceDepth);
+        }
+        short alphaOriginal = alpha;
+        long hashEntry = this.probeHash(ply);
+        if (ply > 0 && this.hashCutoff(hashEntry, ply, alpha, beta)) {
+            return TranspositionTable.getValue(hashEntry);
+        }
+        short bestValue = NO_VALUE;
+        int bestMove = Move.NO_MOVE;
+        byte mover = this.position.getActivePlayer();
+        int depthLeft = this.depthLimit - ply;
+        short futilityValue = NO_VALUE;
+        if (this.futilityPruning && ply > 0 && depthLeft < FUTILITY_MARGIN.length &&
+            Math.abs(alpha) < MAX_VALUE - MAX_PLY) {
+                short staticValue = this.evaluate(this.position);
+                if (mover != this.player) {
+                    staticValue = (short)-staticValue;
+                }
+                futilityValue = (short)(staticValue + FUTILITY_MARGIN[depthLeft]);
         }
-        short bestValue = Short.MIN_VALUE; // -32768
-        Node bestPath = null;
-
-        Move[] allMoves = LegalMoves.getAllLegalMoves(currentNode.GAME);
-        this.sortMoves(allMoves);
 
-        MillGame copy;
-        Move currentMove;
-        for (int moveIndex = 0; moveIndex < allMoves.length; moveIndex++) {
-            copy = (MillGame) currentNode.GAME.clone();
-            currentMove = allMoves[moveIndex];
+        int pvMove = this.nextPVMove(ply);
+        MovePicker moves = this.getMovePicker(ply, pvMove, this.getHashMove(hashEntry, ply));
+        if (ply == 0) {
+            this.prepareRoot();
+        }
 
-            if (copy.makeMove(currentMove, false)) { // VOITTO ?!
-                if (copy.getActivePlayer() == this.player) {
-                    currentNode.setValue(MAX_VALUE);
+        int currentMove;
+        int searched = 0;
+        for (int moveIndex = 0; (currentMove = this.nextMove(moves, ply)) != Move.NO_MOVE; moveIndex++) {
+
+            if (this.position.doMove(currentMove)) { // VOITTO ?!
+                boolean victory = (this.position.getActivePlayer() == mover);
+                this.position.undoMove();
+                if (victory) {
+                    this.setPV(ply, currentMove);
+                    this.storeHash(ply, MAX_VALUE, currentMove, alphaOriginal, beta);
+                    return MAX_VALUE;
                 }
-                else {
-                    currentNode.setValue(MIN_VALUE);
+                // Siirto jumittaa omat nappulat ja hvi pelin. Muut siirrot
+                // tutkitaan silti, jotta arvo ei riipu siirtojen jrjestyksest.
+                if (MIN_VALUE > bestValue) {
+                    bestValue = MIN_VALUE;
+                    bestMove = currentMove;
+                    this.setPV(ply, currentMove);
                 }
-                // alempi rekursiotaso voi lukea suoritetun siirron
-                currentNode.setPath( new Node(copy, (byte)(currentNode.DEPTH +1), currentMove) );
-                return currentNode;
+                continue;
             }
 
-            if (currentNode.DEPTH == 0 && !this.timeOut()) {
-                this.rootNodes = allMoves.length;
+            if (ply == 0 && !this.timeOut()) {
                 this.currentRootNode = moveIndex;
             }
 
-            Node nextNode = this.minValue(new Node(copy, (byte)(currentNode.DEPTH +1), currentMove), alpha, beta);
-            if (this.timeLimited && this.timeOut()) {     // nopea peruutus
-                if (currentNode.DEPTH == 0) {
-                    if (moveIndex > 0) {                  // Palautetaan thn asti
-                        currentNode.setValue(bestValue);  // kokonaan lpikydyist
-                        currentNode.setPath(bestPath);    // juuritason haaroista paras.
+            boolean lateQuiet = (searched > 0 && moves.isQuietStage());
+            if (lateQuiet && futilityValue != NO_VALUE && futilityValue <= alpha) {
+                this.position.undoMove();
+                this.futilityPrunes++;
+                if (futilityValue > bestValue) {
+                    bestValue = futilityValue; // ylraja: siirto ei nosta arvoa yli alphan
+                }
+                continue;
+            }
+
+            this.followingPV = (pvMove != Move.NO_MOVE && currentMove == pvMove);
+            int nodesBefore = this.nodesOpened;
+            byte child = (byte)(ply +1);
+            short value = 0;
+            boolean fullDepth = true;
+            if (this.lateMoveReductions && lateQuiet && ply > 0 &&
+                searched >= LMR_MOVES && depthLeft >= LMR_DEPTH) {
+                    this.reductions++;
+                    this.depthLimit--;
+                    value = (short)-this.search(child, (short)(-alpha - 1), (short)-alpha);
+                    this.depthLimit++;
+                    fullDepth = (value > alpha && !this.timeOut());
+                    if (fullDepth) {
+                        this.reductionResearches++;
                     }
-                    else {
-                        currentNode.setValue(MIN_VALUE);  // Ainoan avatun haaran todellisesta
-                        currentNode.setPath(null);        // arvosta ei saatu viel varmuutta.
+            }
+            if (fullDepth) {
+                if (searched == 0 || !this.principalVariationSearch) {
+                    value = (short)-this.search(child, (short)-beta, (short)-alpha);
+                }
+                else {
+                    value = (short)-this.search(child, (short)(-alpha - 1), (short)-alpha);
+                    if (value > alpha && value < beta && !this.timeOut()) {
+                        this.researches++;
+                        value = (short)-this.search(child, (short)-beta, (short)-alpha);
                     }
                 }
-                return currentNode;
             }
-            if (nextNode.VALUE == MAX_VALUE) { // VOITTO !!
-                currentNode.setValue(MAX_VALUE);
-                currentNode.setPath(nextNode);
-                return currentNode;
+            searched++;
+            this.position.undoMove();
+            if (this.timeOut()) {                         // nopea peruutus
+                if (ply == 0 && searched == 1) {
+                    this.pvLength[0] = 0;                 // Ainoan haetun (ei ohitetun) haaran
+                    return MIN_VALUE;                     // arvosta ei saatu viel varmuutta.
+                }
+                return bestValue;                         // Juurella: thn asti kokonaan
+            }                                             // lpikydyist haaroista paras.
+            if (value == MAX_VALUE) { // VOITTO !!
+                this.updatePV(ply, currentMove);
+                this.storeHash(ply, MAX_VALUE, currentMove, alphaOriginal, beta);
+                return MAX_VALUE;
             }
-            if (nextNode.VALUE > bestValue) {
-                bestValue = nextNode.VALUE;
-                bestPath = nextNode;
+            if (value > bestValue) {
+                bestValue = value;
+                bestMove = currentMove;
+                this.updatePV(ply, currentMove);
+                if (ply == 0) {
+                    this.rootBestNodes = this.nodesOpened - nodesBefore;
+                }
             }
             if (bestValue >= beta) { // karsinta
-                currentNode.setValue(bestValue);
-                currentNode.setPath(bestPath);
-                return currentNode;
+                this.updateOrdering(currentMove, ply);
+                this.storeHash(ply, bestValue, bestMove, alphaOriginal, beta);
+                return bestValue;
             }
             if (bestValue > alpha) {
                 alpha = bestValue;
             }
         }
-        currentNode.setValue(bestValue);
-        currentNode.setPath(bestPath);
-        return currentNode;
+        this.storeHash(ply, bestValue, bestMove, alphaOriginal, beta);
+        return bestValue;
     }
 
-    private Node minValue(Node currentNode, short alpha, short beta) {
-        this.nodesOpened++;
-        this.nodesTotal++;
-
-        if (currentNode.DEPTH >= this.depthLimit) {
-            currentNode.setValue(this.evaluate(currentNode.GAME));
-            currentNode.setPath(null);
-            return currentNode;
+    // Tietokannan tulos vuorossa olevan pelaajan kannalta. Voitto d puolisiirrossa
+    // on MAX_VALUE - d, joten lyhyempi voitto (ja pidempi hvi) on parempi.
+    private short databaseValue(int result) {
+        this.databaseHits++;
+        short value = 0;
+        if (EndgameDatabase.isWin(result)) {
+            value = (short)(MAX_VALUE - EndgameDatabase.getDistance(result));
+        }
+        else if (EndgameDatabase.isLoss(result)) {
+            value = (short)(MIN_VALUE + EndgameDatabase.getDistance(result));
         }
-        short worstValue = Short.MAX_VALUE; // 32767
-        Node worstPath = null;
+        return value;
+    }
 
-        Move[] allMoves = LegalMoves.getAllLegalMoves(currentNode.GAME);
-        this.sortMoves(allMoves);
+    // Solmun pjuoneksi tulee siirto ja sen pern lapsen pjuoni.
+    private void updatePV(byte ply, int move) {
+        this.pvTable[ply][ply] = Move.valueOf(move);
+        int length = this.pvLength[ply +1];
+        System.arraycopy(this.pvTable[ply +1], ply +1, this.pvTable[ply], ply +1, length - (ply +1));
+        this.pvLength[ply] = length;
+    }
 
-        MillGame copy;
-        Move currentMove;
-        for (int moveIndex = 0; moveIndex < allMoves.length; moveIndex++) {
-            copy = (MillGame) currentNode.GAME.clone();
-            currentMove = allMoves[moveIndex];
+    // Solmun pjuoneksi tulee pelkk siirto (peli pttyi tai vaihtotaulukon siirto).
+    private void setPV(byte ply, int move) {
+        this.pvTable[ply][ply] = Move.valueOf(move);
+        this.pvLength[ply] = ply +1;
+    }
 
-            if (copy.makeMove(currentMove, false)) { // TAPPIO ?!
-                if (copy.getActivePlayer() == this.player) {
-                    currentNode.setValue(MAX_VALUE);
-                }
-                else {
-                    currentNode.setValue(MIN_VALUE);
+    // Onko tilanne jo tutkittu vaihtotaulukon mukaan riittvn syvlle?
+    // Jos tallennettu arvo kelpaa, taulukon siirrosta tulee solmun pjuoni
+    // ja palautetaan true. Taulukon arvot ovat vuorossa olevan pelaajan
+    // nkkulmasta kuten haussakin.
+    private boolean hashCutoff(long entry, byte ply, short alpha, short beta) {
+        int depthLeft = this.depthLimit - ply;
+        if (entry == 0L || TranspositionTable.getDepth(entry) < depthLeft ||
+            (this.exactHashDepth && TranspositionTable.getDepth(entry) != depthLeft)) {
+            return false;
+        }
+        short value = TranspositionTable.getValue(entry);
+        int bound = TranspositionTable.getBound(entry);
+        if (bound == TranspositionTable.BOUND_EXACT ||
+            (bound == TranspositionTable.BOUND_LOWER && value >= beta) ||
+            (bound == TranspositionTable.BOUND_UPPER && value <= alpha)) {
+                int bestMove = this.getHashMove(entry, ply);
+                if (bestMove != Move.NO_MOVE) {
+                    this.setPV(ply, bestMove);
                 }
-                // alempi rekursiotaso voi lukea suoritetun siirron
-                currentNode.setPath( new Node(copy, (byte)(currentNode.DEPTH +1), currentMove) );
-                return currentNode;
-            }
+                return true;
+        }
+        return false;
+    }
 
-            Node nextNode = this.maxValue(new Node(copy, (byte)(currentNode.DEPTH +1), currentMove), alpha, beta);
-            if (this.timeLimited && this.timeOut()) { // nopea peruutus
-                return currentNode;
-            }
-            if (nextNode.VALUE == MIN_VALUE) { // TAPPIO !!
-                currentNode.setValue(MIN_VALUE);
-                currentNode.setPath(nextNode);
-                return currentNode;
-            }
-            if (nextNode.VALUE < worstValue) {
-                worstValue = nextNode.VALUE;
-                worstPath = nextNode;
-            }
-            if (worstValue <= alpha) { // karsinta
-                currentNode.setValue(worstValue);
-                currentNode.setPath(worstPath);
-                return currentNode;
-            }
-            if (worstValue < beta) {
-                beta = worstValue;
-            }
+    // Tallentaa solmun arvon ja parhaan siirron vaihtotaulukkoon. alpha ja beta
+    // ovat solmun alkuperiset rajat, joiden perusteella arvon tyyppi ptelln.
+    private void storeHash(byte ply, short value, int bestMove, short alpha, short beta) {
+        if (value < MIN_VALUE || value > MAX_VALUE) {
+            return; // Ei laillisia siirtoja: arvo ei ole symmetrinen pelaajien kesken.
+        }
+        int bound = TranspositionTable.BOUND_EXACT;
+        if (value >= beta) {
+            bound = TranspositionTable.BOUND_LOWER;
         }
-        currentNode.setValue(worstValue);
-        currentNode.setPath(worstPath);
-        return currentNode;
+        else if (value <= alpha) {
+            bound = TranspositionTable.BOUND_UPPER;
+        }
+        int symmetry = this.hashSymmetries[ply];
+        this.transpositionTable.store(this.position.getHashKey(symmetry), value, this.depthLimit - ply,
+                                      bound, Move.getSymmetricMove(symmetry, bestMove));
     }
 
+    // Hakee solmun vaihtotaulukosta. Avain lasketaan symmetriasta, joka on sama
+    // kaikille tilanteen symmetrisille kuville; se muistetaan tallennusta varten.
+    private long probeHash(byte ply) {
+        int symmetry = this.symmetries ? this.position.getHashSymmetry() : 0;
+        this.hashSymmetries[ply] = symmetry;
+        return this.transpositionTable.probe(this.position.getHashKey(symmetry));
+    }
 
-/*
-    private int quiescence(short alpha, short beta, byte searchLimit) {
+    // Taulukon siirto on tallennettu symmetrisen kuvan siirtona.
+    private int getHashMove(long entry, byte ply) {
+        return TranspositionTable.getMoveCode(entry, this.hashSymmetries[ply]);
     }
-*/
 
-    private void sortMoves(Move[] moves) { // quicksort, persversio
-        this.random = Math.random();
-        quicksort(moves, 0, moves.length - 1);      // ~ AW:n kirjasta
+    // Alkupeliss juuren tilanne on usein symmetrinen (tyhj lauta jopa 16 tavalla),
+    // jolloin symmetriset siirrot johtavat symmetrisiin tilanteisiin. Niist
+    // tutkitaan vain pienikoodisin. Muissa vaiheissa (ja toistojen takia)
+    // kaikki siirrot tutkitaan.
+    private void prepareRoot() {
+        this.rootSymmetries = 1;
+        if (this.symmetries && this.position.getGameState() == MillGame.PHASE_BEGINNING) {
+            this.rootSymmetries = this.position.getInvariantSymmetries();
+        }
+        Move[] moves = LegalMoves.getAllLegalMoves(this.position);
+        this.rootNodes = 0;
+        for (int index = 0; index < moves.length; index++) {
+            if ( !Move.isSymmetricDuplicate(moves[index].CODE, this.rootSymmetries)) {
+                this.rootNodes++;
+            }
+        }
     }
 
-    private void quicksort(Move[] moves, int start, int end) {
-        int left = start;
-        int right = end;
-        Move divider = moves[(start+end)/2];
-        do {
-            while (this.compareMoves(moves[left], divider) > 0) { // ## suurimmat alkuun
-                left++;
+    // Solmun seuraava siirto; juuressa symmetriset vastineet ohitetaan.
+    private int nextMove(MovePicker moves, byte ply) {
+        int move = moves.next();
+        if (ply == 0) {
+            while (move != Move.NO_MOVE && Move.isSymmetricDuplicate(move, this.rootSymmetries)) {
+                move = moves.next();
             }
-            while (this.compareMoves(divider, moves[right]) > 0) { // ## suurimmat alkuun
-                right--;
+        }
+        return move;
+    }
+
+
+    // Hiljaisuushaku hakusyvyyden lehdiss: jatketaan vain myllyn sulkevilla
+    // siirroilla, ettei arvio j juuri ennen nappulan menetyst. Vuorossa oleva
+    // pelaaja voi mys olla sulkematta mylly, joten arvio on aina yksi vaihtoehto
+    // (stand pat). searchLimit rajaa perkkisten myllyjen mrn. Arvot ovat
+    // vuorossa olevan pelaajan kannalta kuten haussa.
+    private short quiescence(byte ply, short alpha, short beta, byte searchLimit) {
+        byte mover = this.position.getActivePlayer();
+        short standPat = this.evaluate(this.position);
+        if (mover != this.player) {
+            standPat = (short)-standPat;
+        }
+        if (searchLimit <= 0 || standPat >= beta) {
+            return standPat;
+        }
+        if (standPat > alpha) {
+            alpha = standPat;
+        }
+
+        short bestValue = standPat;
+        MoveList captures = this.getMoveList(ply);
+        LegalMoves.generateMillClosingMoves(this.position, captures);
+        for (int moveIndex = 0; moveIndex < captures.size(); moveIndex++) {
+            short value;
+            this.quiescenceNodes++;
+            this.timeManager.countNode(); // kello mys pitkiss lyntisarjoissa
+            if (this.position.doMove(captures.get(moveIndex))) { // VOITTO tai TAPPIO
+                value = (this.position.getActivePlayer() == mover) ? MAX_VALUE : MIN_VALUE;
             }
-            if (left <= right) {
-                Move tmp = moves[left];
-                moves[left] = moves[right];
-                moves[right] = tmp;
-                left++;
-                right--;
+            else {
+                value = (short)-this.quiescence((byte)(ply +1), (short)-beta, (short)-alpha,
+                                                (byte)(searchLimit - 1));
             }
-        } while (left < right);
+            this.position.undoMove();
 
-        if (start < right) {
-            quicksort(moves, start, right);
-        }
-        if (left < end) {
-            quicksort(moves, left, end);
+            if (value > bestValue) {
+                bestValue = value;
+            }
+            if (bestValue >= beta) {
+                return bestValue;
+            }
+            if (bestValue > alpha) {
+                alpha = bestValue;
+            }
         }
+        return bestValue;
     }
 
+    // Pjuonella olevan solmun edellisen kierroksen paras siirto, muuten NO_MOVE.
+    // Solmun lapset eivt ole pjuonella, ellei niit erikseen merkit.
+    private int nextPVMove(byte ply) {
+        int pvMove = Move.NO_MOVE;
+        if (this.followingPV && this.pvMoves[ply] != null) {
+            pvMove = this.pvMoves[ply].CODE;
+        }
+        this.followingPV = false;
+        return pvMove;
+    }
 
-    private int compareMoves(Move move_1, Move move_2) { // palauttaa +1, jos move_1 on parempi!
-        if (move_1.REMOVE != Move.NOWHERE && move_2.REMOVE == Move.NOWHERE) {
-            return +1;
+    // Solmun siirtojen valitsija. Alkupeliss tappajasiirtoja ei kytet: asetus,
+    // joka karsi sisarhaarassa, on toisessa haarassa harvoin hyv, ja
+    // mittauksissa solmuja avattiin enemmn.
+    private MovePicker getMovePicker(byte ply, int pvMove, int hashMove) {
+        if (this.movePickers[ply] == null) {
+            this.movePickers[ply] = new MovePicker(this.history);
         }
-        if (move_1.REMOVE == Move.NOWHERE && move_2.REMOVE != Move.NOWHERE) {
-            return -1;
+        int killer_1 = Move.NO_MOVE;
+        int killer_2 = Move.NO_MOVE;
+        if (this.position.getGameState() != MillGame.PHASE_BEGINNING) {
+            killer_1 = this.killerMoves[ply][0];
+            killer_2 = this.killerMoves[ply][1];
         }
+        this.movePickers[ply].reset(this.position, pvMove, hashMove, killer_1, killer_2);
+        return this.movePickers[ply];
+    }
+
+    private MoveList getMoveList(int ply) {
+        if (this.moveLists[ply] == null) {
+            this.moveLists[ply] = new MoveList();
+        }
+        return this.moveLists[ply];
+    }
 
-        boolean tmp_1 = this.isJunctionSquare(move_1.TO);
-        boolean tmp_2 = this.isJunctionSquare(move_2.TO);
-        if ( tmp_1 && !tmp_2) {
-            return +1;
+    // Tallentaa valmiin kierroksen pjuonen seuraavan kierroksen jrjestmist
+    // ja tulosten raportointia varten.
+    private void storePV() {
+        this.clearPV();
+        for (int ply = 0; ply < this.pvLength[0]; ply++) {
+            this.pvMoves[ply] = this.pvTable[0][ply];
         }
-        if ( !tmp_1 && tmp_2) {
-            return -1;
+    }
+
+    private void clearPV() {
+        for (int ply = 0; ply < MAX_PLY; ply++) {
+            this.pvMoves[ply] = null;
         }
+        this.followingPV = false;
+    }
 
-        tmp_1 = this.isTJunctionSquare(move_1.TO);
-        tmp_2 = this.isTJunctionSquare(move_2.TO);
-        if ( tmp_1 && !tmp_2) {
-            return +1;
+    // Ruudun tyypin mukainen jrjestys: risteys, T-risteys, keskimminen kulma.
+    static int squareScore(byte square) {
+        if (isJunctionSquare(square)) {
+            return 3;
+        }
+        if (isTJunctionSquare(square)) {
+            return 2;
         }
-        if ( !tmp_1 && tmp_2) {
-            return -1;
+        if (isMiddleCornerSquare(square)) {
+            return 1;
         }
+        return 0;
+    }
 
-        tmp_1 = this.isMiddleCornerSquare(move_1.TO);
-        tmp_2 = this.isMiddleCornerSquare(move_2.TO);
-        if ( tmp_1 && !tmp_2) {
-            return +1;
+    // Karsinnan aiheuttanut siirto: hiljaisesta siirrosta tulee tappajasiirto,
+    // ja historiataulukko kasvaa jljell olevan syvyyden nelill.
+    private void updateOrdering(int move, byte ply) {
+        if (Move.getRemove(move) == Move.NOWHERE && move != this.killerMoves[ply][0]) {
+            this.killerMoves[ply][1] = this.killerMoves[ply][0];
+            this.killerMoves[ply][0] = move;
         }
-        if ( !tmp_1 && tmp_2) {
-            return -1;
+        int depthLeft = this.depthLimit - ply;
+        this.history[move] += depthLeft * depthLeft;
+        if (this.history[move] >= HISTORY_LIMIT) {
+            this.ageHistory();
         }
+    }
 
-        return 0;
+    // Puolittaa historiataulukon, jotta vanhat tiedot painavat vhemmn.
+    private void ageHistory() {
+        for (int move = 0; move < this.history.length; move++) {
+            this.history[move] /= 2;
+        }
+    }
+
+    // Uusi haku: tappajasiirrot unohdetaan ja historia vanhenee.
+    private void newOrderingSearch() {
+        for (int ply = 0; ply < MAX_PLY; ply++) {
+            this.killerMoves[ply][0] = Move.NO_MOVE;
+            this.killerMoves[ply][1] = Move.NO_MOVE;
+        }
+        this.ageHistory();
     }
 
-    private boolean isJunctionSquare(byte square) {
+    private static boolean isJunctionSquare(byte square) {
         return (square == 4 || square == 10 || square == 13 || square == 19);
     }
-    private boolean isTJunctionSquare(byte square) {
+    private static boolean isTJunctionSquare(byte square) {
         return (square == 1 || square == 7 || square == 9 || square == 11 ||
                 square == 12 || square == 14 || square == 16 || square == 22);
     }
-    private boolean isCornerSquare(byte square) {
+    private static boolean isCornerSquare(byte square) {
         return (square == 0 || square == 2 || square == 3 || square == 5 ||
                 square == 6 || square == 8 || square == 15 || square == 17 ||
                 square == 18 || square == 20 || square == 21 || square == 23);
     }
-    private boolean isMiddleCornerSquare(byte square) {
+    private static boolean isMiddleCornerSquare(byte square) {
         return (square == 3 || square == 5 || square == 18 || square == 20);
     }
 
 
-    private short evaluate(MillGame game) {
+    private short evaluate(SearchPosition game) {
         if (game.getGameState() == MillGame.PHASE_GAME_OVER) {
             System.out.println("Evaluating winning position!");
             if (game.getActivePlayer() == this.player) {
@@ -357,15 +1191,15 @@ public class MillAI {
             }
         }
 
-        MillBoard board = game.getMillBoard();
-        int value = 0;
-
-        int playerPieces = board.getColouredSquares(this.player).length;
-        int opponentPieces = board.getColouredSquares(this.opponent).length;
-        byte playerHandPieces;
-        byte opponentHandPieces;
+        // Materiaali (nappulat laudalla ja kdess) ja liikkuvuudet pivitetn
+        // siirtojen mukana, joten tss ei kyd lautaa lpi. Alkupelin
+        // jlkeen kummallakaan ei ole nappuloita kdess.
+        MillBoard board = game.getBoard();
+        int value = 100 * game.getMaterialBalance(this.player);
 
         if (game.getGameState() == MillGame.PHASE_BEGINNING) {
+            byte playerHandPieces;
+            byte opponentHandPieces;
             if (this.player == MillGame.WHITE_PLAYER) {
                 playerHandPieces = game.getWhitePiecesInHand();
                 opponentHandPieces = game.getBlackPiecesInHand();
@@ -374,7 +1208,6 @@ public class MillAI {
                 playerHandPieces = game.getBlackPiecesInHand();
                 opponentHandPieces = game.getWhitePiecesInHand();
             }
-            value += 100*( (playerPieces+playerHandPieces) - (opponentPieces+opponentHandPieces) );
 
             if (playerHandPieces < opponentHandPieces) { // hyvityst
                 value -= 20 * 2; // Oletetaan, ett vastustaja saa "ylimrisell"
@@ -384,40 +1217,17 @@ public class MillAI {
                 value += 20 * 2; // Oletetaan, ett pelaaja saa "ylimrisell"
                                  // nappulallaan kaksi vapaata ruutua.
             }
-
-        }
-        else {
-            value += 100*(playerPieces - opponentPieces);
         }
 
-        byte[] squares = board.getColouredSquares(player);
-        for (int squareIndex = 0; squareIndex < squares.length; squareIndex++) {
-            value += 20 * this.getEmptyNeighbourCount(squares[squareIndex], board);
-        }
-        squares = board.getColouredSquares(opponent);
-        for (int squareIndex = 0; squareIndex < squares.length; squareIndex++) {
-            value -= 20 * this.getEmptyNeighbourCount(squares[squareIndex], board);
-        }
+        value += 20 * board.getMobility(this.player);
+        value -= 20 * board.getMobility(this.opponent);
 //        double random = 0.9 + (Math.random()*0.2); // ] 0.9 ; 1.1 [
         return (short) value;
     }
 
-    private int getEmptyNeighbourCount(byte square, MillBoard board) {
-        byte[] neighbours = BoardInfo.getNeighbours(square);
-        int counter = 0;
-        for (int neighbourIndex = 0; neighbourIndex < neighbours.length; neighbourIndex++) {
-            if (board.get(neighbours[neighbourIndex]) == BoardInfo.EMPTY) {
-                counter++;
-            }
-        }
-        return counter;
-    }
-
-    private void printPath(Node node) {
-        Node tmp = node;
-        while (tmp != null) {
-            System.out.print(tmp.PREVIOUS_MOVE);
-            tmp = tmp.PATH;
+    private void printPath(Move[] line) {
+        for (int ply = 0; ply < line.length && line[ply] != null; ply++) {
+            System.out.print(line[ply]);
         }
         System.out.println();
     }
@@ -432,13 +1242,24 @@ public class MillAI {
     public String toString() {
         String tmp = "";
         tmp = tmp + "time used: "+((System.currentTimeMillis() - this.searchStarted)/1000)+"s\n";
+        tmp = tmp + this.timeManager+"\n";
         tmp = tmp + "searching root nodes: "+(this.currentRootNode + 1)+"/"+this.rootNodes+"\n";
-        tmp = tmp + "nodes: "+this.nodesTotal+"\n";
+        tmp = tmp + "nodes: "+this.getNodesAllThreads()+", quiescence nodes: "+this.getQuiescenceNodesAllThreads()+"\n";
+        tmp = tmp + "pvs re-searches: "+this.researches+", aspiration failures: "+this.aspirationFailures+"\n";
+        tmp = tmp + "reductions: "+this.reductions+" (re-searched "+this.reductionResearches+")"+
+                    ", futility prunes: "+this.futilityPrunes+"\n";
+        if (this.endgameDatabase != null) {
+            tmp = tmp + this.endgameDatabase+", hits: "+this.databaseHits+"\n";
+        }
+        if (this.helpers.length > 0) {
+            tmp = tmp + "threads: "+this.getThreads()+"\n";
+        }
+        tmp = tmp + this.transpositionTable+"\n";
 //        if (this.timeLimited) {
             tmp = tmp + "searching depth "+this.depthLimit+"\n";
-            if (this.bestPathSoFar != null) {
-                tmp = tmp + "best move: " +bestPathSoFar.PATH.PREVIOUS_MOVE +
-                            ", value: "+bestPathSoFar.VALUE;
+            if (this.pvMoves[0] != null) {
+                tmp = tmp + "best move: " +this.pvMoves[0] +
+                            ", value: "+this.bestValueSoFar;
             }
 //        }
 //        else {
@@ -447,7 +1268,78 @@ public class MillAI {
 
     }
 
+    // Testi: kova raja keskeytt kierroksen aspiraatioyrityksen, joka on
+    // eponnistunut alas. Kierros on hylttv, joten tulos on edellisen
+    // kierroksen siirto, arvo ja syvyys. Haut rajataan solmumrll, jolloin
+    // keskeytetty haku kulkee samaa reitti kuin rajaton vertailuhaku.
+    private static int testAspirationTimeout(int depth) {
+        java.io.PrintStream out = System.out;
+        System.setOut(new java.io.PrintStream(new java.io.ByteArrayOutputStream())); // hakujen tulosteet
+        java.util.Random random = new java.util.Random(3);
+        int[] counts = new int[2]; // keskeytyksi, virheit
+        try {
+            for (int index = 0; index < 100; index++) {
+                MillGame game = new MillGame();
+                for (int ply = 0; ply < 10 + 2*index && game.getGameState() != MillGame.PHASE_GAME_OVER; ply++) {
+                    Move[] moves = LegalMoves.getAllLegalMoves(game);
+                    game.makeMove(moves[random.nextInt(moves.length)]);
+                }
+                if (game.getGameState() != MillGame.PHASE_GAME_OVER) {
+                    checkInterruptedFailLows(game, depth, counts, out);
+                }
+            }
+        }
+        finally {
+            System.setOut(out);
+        }
+        System.out.println("Keskeytettyj alas eponnistuneita kierroksia: "+counts[0]);
+        if (counts[0] == 0) {
+            counts[1]++; // testi ei osunut tilanteeseen
+        }
+        return counts[1];
+    }
+
+    // Vertailuhaun kierroksista kydn lpi ne, joissa ikkuna ylittyi, ja
+    // haku keskeytetn niiden jokaisessa kohdassa (13 solmun vlein).
+    private static void checkInterruptedFailLows(MillGame game, int depth, int[] counts, java.io.PrintStream out) {
+        final SearchResult[] completed = new SearchResult[depth + 1];
+        final long[] counted = new long[depth + 1];
+        final int[] failures = new int[depth + 1];
+        final MillAI reference = new MillAI();
+        reference.setProgressListener(result -> {
+            completed[result.getDepth()] = result;
+            counted[result.getDepth()] = reference.timeManager.getCountedNodes();
+            failures[result.getDepth()] = reference.aspirationFailures;
+        });
+        reference.iterativeSearch(game.copy(), depth, 0, 0);
+        for (int iteration = 2; iteration <= depth; iteration++) {
+            if (completed[iteration] == null || failures[iteration] == failures[iteration -1]) {
+                continue;
+            }
+            for (long limit = counted[iteration -1] + 1; limit < counted[iteration]; limit += 13) {
+                MillAI ai = new MillAI();
+                ai.timeManager.setNodeLimit(limit);
+                SearchResult result = ai.iterativeSearch(game.copy(), depth, 0, 0);
+                if ( !ai.timeOut() || !ai.rootFailedLow || ai.pvLength[0] == 0) {
+                    continue; // ei keskeytetty alas eponnistunutta yrityst
+                }
+                counts[0]++;
+                SearchResult previous = completed[iteration -1];
+                if (result.getDepth() != previous.getDepth() || result.getValue() != previous.getValue() ||
+                    result.getMove().CODE != previous.getMove().CODE) {
+                        out.println("limit:"+limit+" result: "+result+"\nprevious: "+previous);
+                        counts[1]++;
+                }
+            }
+        }
+    }
+
 	public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("aspiration")) {
+            int errors = testAspirationTimeout(8);
+            System.out.println("Virheit: "+errors+(errors == 0 ? " --> OK" : " --> VIRHE"));
+            return;
+        }
         MillBoard board = new MillBoard();
 /*        board.setPiece((byte)0, BoardInfo.BLACK);
         board.setPiece((byte)3, BoardInfo.BLACK);
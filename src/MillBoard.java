@@ -35,15 +35,35 @@
  */
 public class MillBoard implements Cloneable {
 
-    /** Ruutujen arvoja silytetn tss*/
-    private byte[] squares;
+    /**
+     * Ruutujen arvoja silytetn kahtena bittimaskina (bittiluku = ruudun koodi).
+     * Kumpikin maski kytt vain 24 alinta bitti.
+     */
+    private int whiteSquares;
+    private int blackSquares;
+
+    /**
+     * Nappuloiden mrt ja liikkuvuudet (tyhjien naapuriruutujen yhteismr)
+     * vreittin. Ne pivitetn jokaisen muutoksen yhteydess, joten
+     * <tt>countSquares</tt>, <tt>getMobility</tt> ja <tt>allPiecesJammed</tt>
+     * eivt ky nappuloita lpi.
+     */
+    private int whiteCount;
+    private int blackCount;
+    private int whiteMobility;
+    private int blackMobility;
 
 
    /**
     * Luo uuden <tt>MillBoard</tt>-olion, jossa kaikki ruudut ovat tyhji.
     */
     public MillBoard() {
-        this.squares = new byte[BoardInfo.SQUARES_ON_BOARD];
+        this.whiteSquares = 0;
+        this.blackSquares = 0;
+        this.whiteCount = 0;
+        this.blackCount = 0;
+        this.whiteMobility = 0;
+        this.blackMobility = 0;
     }
 
    /**
@@ -53,9 +73,12 @@ public class MillBoard implements Cloneable {
     */
     public Object clone() {
         MillBoard copy = new MillBoard();
-        for (int index=0; index < this.squares.length; index++) {
-            copy.squares[index] = this.squares[index];
-        }
+        copy.whiteSquares = this.whiteSquares;
+        copy.blackSquares = this.blackSquares;
+        copy.whiteCount = this.whiteCount;
+        copy.blackCount = this.blackCount;
+        copy.whiteMobility = this.whiteMobility;
+        copy.blackMobility = this.blackMobility;
         return copy;
     }
 
@@ -77,10 +100,25 @@ public class MillBoard implements Cloneable {
         if ( (color != BoardInfo.BLACK) && (color != BoardInfo.WHITE) ) {
             throw new IllegalArgumentException("setPiece(byte,byte): unknown color value:"+color);
         }
-        if (this.squares[square] != BoardInfo.EMPTY) {
+        int squareMask = BoardInfo.getSquareMask(square);
+        if ( ((this.whiteSquares | this.blackSquares) & squareMask) != 0 ) {
             throw new IllegalStateException("setPiece(byte,byte): square "+square+" is occupied.");
         }
-        this.squares[square] = color;
+        // Ruutu ei ole en tyhj naapureilleen; uusi nappula saa tyhjt naapurinsa.
+        int neighbours = BoardInfo.getNeighbourMask(square);
+        int emptyNeighbours = Integer.bitCount(neighbours & ~(this.whiteSquares | this.blackSquares));
+        this.whiteMobility -= Integer.bitCount(neighbours & this.whiteSquares);
+        this.blackMobility -= Integer.bitCount(neighbours & this.blackSquares);
+        if (color == BoardInfo.WHITE) {
+            this.whiteSquares |= squareMask;
+            this.whiteCount++;
+            this.whiteMobility += emptyNeighbours;
+        }
+        else {
+            this.blackSquares |= squareMask;
+            this.blackCount++;
+            this.blackMobility += emptyNeighbours;
+        }
     }
 
    /**
@@ -89,7 +127,25 @@ public class MillBoard implements Cloneable {
     * @exception ArrayIndexOutOfBoundsException  Jos ei ollut <tt>0 <= square <= 23</tt>.
     */
     public void removePiece(byte square) {
-        this.squares[square] = BoardInfo.EMPTY;
+        int squareMask = BoardInfo.getSquareMask(square);
+        int neighbours = BoardInfo.getNeighbourMask(square);
+        int emptyNeighbours = Integer.bitCount(neighbours & ~(this.whiteSquares | this.blackSquares));
+        if ((this.whiteSquares & squareMask) != 0) {
+            this.whiteSquares &= ~squareMask;
+            this.whiteCount--;
+            this.whiteMobility -= emptyNeighbours;
+        }
+        else if ((this.blackSquares & squareMask) != 0) {
+            this.blackSquares &= ~squareMask;
+            this.blackCount--;
+            this.blackMobility -= emptyNeighbours;
+        }
+        else {
+            return; // ruutu oli jo tyhj
+        }
+        // Vapautunut ruutu on tyhj naapuri kaikille viereisille nappuloille.
+        this.whiteMobility += Integer.bitCount(neighbours & this.whiteSquares);
+        this.blackMobility += Integer.bitCount(neighbours & this.blackSquares);
     }
 
    /**
@@ -104,7 +160,7 @@ public class MillBoard implements Cloneable {
     */
     public void movePiece(byte fromSquare, byte toSquare) throws IllegalArgumentException,
                                                                  IllegalStateException {
-        this.setPiece(toSquare, this.squares[fromSquare]);
+        this.setPiece(toSquare, this.get(fromSquare));
         this.removePiece(fromSquare);
     }
 
@@ -119,7 +175,66 @@ public class MillBoard implements Cloneable {
     * @exception ArrayIndexOutOfBoundsException Jos ei ollut <tt>0 <= square <= 23</tt>.
     */
     public byte get(byte square) {
-        return this.squares[square];
+        int squareMask = BoardInfo.getSquareMask(square);
+        if ((this.whiteSquares & squareMask) != 0) {
+            return BoardInfo.WHITE;
+        }
+        if ((this.blackSquares & squareMask) != 0) {
+            return BoardInfo.BLACK;
+        }
+        return BoardInfo.EMPTY;
+    }
+
+   /**
+    * Palauttaa annetun vrin ruudut bittimaskina, jossa bitti <tt>1 << square</tt>
+    * on pll, jos ruudun <tt>square</tt> vri on <tt>color</tt>.
+    * @param color Joko <tt>BoardInfo.WHITE</tt>, <tt>BoardInfo.BLACK</tt> tai
+    *              <tt>BoardInfo.EMPTY</tt>.
+    * @return Vrin ruudut bittimaskina (24 alinta bitti).
+    * @exception IllegalArgumentException  Jos <tt>color</tt> ei ollut
+    *              <tt>BoardInfo.WHITE</tt>, <tt>BoardInfo.BLACK</tt> eik
+    *              <tt>BoardInfo.EMPTY</tt>.
+    */
+    public int getMask(byte color) throws IllegalArgumentException {
+        if (color == BoardInfo.WHITE) {
+            return this.whiteSquares;
+        }
+        if (color == BoardInfo.BLACK) {
+            return this.blackSquares;
+        }
+        if (color == BoardInfo.EMPTY) {
+            return ~(this.whiteSquares | this.blackSquares) & BoardInfo.ALL_SQUARES_MASK;
+        }
+        throw new IllegalArgumentException("getMask(byte): unknown square value:"+color);
+    }
+
+   /**
+    * Laskee laudan kanonisen muodon, joka on sama kaikille symmetrisille
+    * laudoille. Ks. <tt>BoardInfo.getCanonicalForm(int, int)</tt>.
+    * @return Kanoninen avain ja siihen kytetty symmetria
+    */
+    public long getCanonicalForm() {
+        return BoardInfo.getCanonicalForm(this.whiteSquares, this.blackSquares);
+    }
+
+   /**
+    * Montako annetun vrin ruutua laudalla on? Toisin kuin
+    * <tt>getColouredSquares(color).length</tt>, tm ei luo uusia olioita.
+    * @param color Joko <tt>BoardInfo.WHITE</tt>, <tt>BoardInfo.BLACK</tt> tai
+    *              <tt>BoardInfo.EMPTY</tt>.
+    * @return Ruutujen lukumr
+    * @exception IllegalArgumentException  Jos <tt>color</tt> ei ollut
+    *              <tt>BoardInfo.WHITE</tt>, <tt>BoardInfo.BLACK</tt> eik
+    *              <tt>BoardInfo.EMPTY</tt>.
+    */
+    public int countSquares(byte color) throws IllegalArgumentException {
+        if (color == BoardInfo.WHITE) {
+            return this.whiteCount;
+        }
+        if (color == BoardInfo.BLACK) {
+            return this.blackCount;
+        }
+        return Integer.bitCount(this.getMask(color));
     }
 
    /**
@@ -138,20 +253,12 @@ public class MillBoard implements Cloneable {
             throw new IllegalArgumentException("getSquares(byte): unknown square value:"+color);
         }
 
-        // tmp-taulukko vliaikaiseen tallennukseen
-        byte[] tmp = new byte[BoardInfo.SQUARES_ON_BOARD]; // 24 indeksi riitt varmasti
-        int squareCounter = 0;
-        for (int index=0; index < this.squares.length; index++) {
-            if (this.squares[index] == color) {
-                tmp[squareCounter] = (byte) index;
-                squareCounter++;
-            }
-        }
-
-        // Tiivistetn taulukko
-        byte[] array = new byte[squareCounter];
-        for (int index=0; index < squareCounter; index++) {
-            array[index] = tmp[index];
+        // Bittien lukumr kertoo suoraan taulukon koon
+        int mask = this.getMask(color);
+        byte[] array = new byte[Integer.bitCount(mask)];
+        for (int index=0; mask != 0; index++) {
+            array[index] = (byte) Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1; // alin bitti pois
         }
         return array;
     }
@@ -167,13 +274,7 @@ public class MillBoard implements Cloneable {
     * @exception ArrayIndexOutOfBoundsException Jos ei ollut <tt>0 <= square_* <= 23</tt>.
     */
     public boolean areNeighbours(byte square_1, byte square_2) {
-        byte[] neighbours = BoardInfo.getNeighbours(square_1);
-        for (int index=0; index < neighbours.length; index++) {
-            if (neighbours[index] == square_2) {
-                return true;
-            }
-        }
-        return false;
+        return (BoardInfo.getNeighbourMask(square_1) & BoardInfo.getSquareMask(square_2)) != 0;
     }
 
    /**
@@ -194,27 +295,18 @@ public class MillBoard implements Cloneable {
         if ( (color != BoardInfo.BLACK) && (color != BoardInfo.WHITE) ) {
             throw new IllegalArgumentException("createsNewMill(Move,byte): unknown color value:"+color);
         }
-        if ( (move.FROM != Move.NOWHERE) && (this.squares[move.FROM] != color) ) {
+        if ( (move.FROM != Move.NOWHERE) && (this.get(move.FROM) != color) ) {
             throw new IllegalArgumentException("createsNewMill(Move,byte): parameter color:"+
                                                color+" doesn't match the color of piece being"+
-                                               "moved:"+this.squares[move.FROM]);
+                                               "moved:"+this.get(move.FROM));
         }
-        byte[][] millLines = BoardInfo.getMillLines(move.TO);
-        byte[] millLine_1 = millLines[0];
-        byte[] millLine_2 = millLines[1];
-
         // Sen lisksi ett myllylinjalla on oltava yhteninen vri,
         // viereisist ruuduista kumpikaan ei saa olla se josta nappula siirrettiin
-        if ( ((this.squares[millLine_1[0]] == color) && (millLine_1[0] != move.FROM)) &&
-             ((this.squares[millLine_1[1]] == color) && (millLine_1[1] != move.FROM)) ) {
-                return true;
+        int ownSquares = this.getMask(color);
+        if (move.FROM != Move.NOWHERE) {
+            ownSquares &= ~BoardInfo.getSquareMask(move.FROM);
         }
-
-        if ( ((this.squares[millLine_2[0]] == color) && (millLine_2[0] != move.FROM)) &&
-             ((this.squares[millLine_2[1]] == color) && (millLine_2[1] != move.FROM)) ) {
-                return true;
-        }
-        return false;
+        return closesMill(move.TO, ownSquares);
 
     }
 
@@ -226,16 +318,50 @@ public class MillBoard implements Cloneable {
     * @exception ArrayIndexOutOfBoundsException Jos ei ollut <tt>0 <= square <= 23</tt>
     */
     public boolean isPartOfMill(byte square) {
-        if (this.squares[square] == BoardInfo.EMPTY) {
-            return false;
+        int squareMask = BoardInfo.getSquareMask(square);
+        if ((this.whiteSquares & squareMask) != 0) {
+            return closesMill(square, this.whiteSquares);
         }
-        byte[][] millLines = BoardInfo.getMillLines(square);
-        byte[] millLine_1 = millLines[0];
-        byte[] millLine_2 = millLines[1];
-        byte color = this.squares[square];
+        if ((this.blackSquares & squareMask) != 0) {
+            return closesMill(square, this.blackSquares);
+        }
+        return false;
+    }
 
-        return ( ((this.squares[millLine_1[0]] == color) && (this.squares[millLine_1[1]] == color)) ||
-                 ((this.squares[millLine_2[0]] == color) && (this.squares[millLine_2[1]] == color))   );
+   /**
+    * Tydentyyk jompikumpi ruudun <tt>square</tt> myllylinjoista, kun
+    * linjojen muita ruutuja verrataan annettuun bittimaskiin?
+    * @param square Tutkittava ruutu (<tt>0 <= square <= 23</tt>)
+    * @param ownSquares Saman vrin ruudut bittimaskina
+    * @return Ovatko jommankumman myllylinjan kaksi muuta ruutua maskissa?
+    */
+    static boolean closesMill(byte square, int ownSquares) {
+        int millLine_1 = BoardInfo.getMillLineMask(square, 0);
+        int millLine_2 = BoardInfo.getMillLineMask(square, 1);
+        return ( (ownSquares & millLine_1) == millLine_1 ||
+                 (ownSquares & millLine_2) == millLine_2 );
+    }
+
+   /**
+    * Palauttaa bittimaskina ne annetun vrin ruudut, jotka kuuluvat johonkin myllyyn.
+    * @param color <tt>BoardInfo.WHITE</tt> tai <tt>BoardInfo.BLACK</tt>
+    * @return Myllyihin kuuluvat ruudut bittimaskina
+    * @exception IllegalArgumentException Parametri <tt>color</tt> ei ollut
+    *            <tt>BoardInfo.WHITE</tt> eik <tt>BoardInfo.BLACK</tt>.
+    */
+    public int getMillSquares(byte color) throws IllegalArgumentException {
+        if ( (color != BoardInfo.BLACK) && (color != BoardInfo.WHITE) ) {
+            throw new IllegalArgumentException("getMillSquares(byte): unknown color value:"+color);
+        }
+        int ownSquares = this.getMask(color);
+        int millSquares = 0;
+        for (int mill=0; mill < BoardInfo.getMillCount(); mill++) {
+            int millMask = BoardInfo.getMillMask(mill);
+            if ((ownSquares & millMask) == millMask) {
+                millSquares |= millMask;
+            }
+        }
+        return millSquares;
     }
 
    /**
@@ -250,13 +376,7 @@ public class MillBoard implements Cloneable {
         if ( (color != BoardInfo.BLACK) && (color != BoardInfo.WHITE) ) {
             throw new IllegalArgumentException("allPiecesInMills(byte): unknown color value:"+color);
         }
-        byte[] colouredSquares = this.getColouredSquares(color);
-        for (int index=0; index < colouredSquares.length; index++) {
-            if ( !this.isPartOfMill(colouredSquares[index]) ) {
-                return false;
-            }
-        }
-        return true;
+        return (this.getMask(color) & ~this.getMillSquares(color)) == 0;
     }
 
    /**
@@ -271,32 +391,42 @@ public class MillBoard implements Cloneable {
     */
     public boolean allPiecesJammed(byte color) throws IllegalArgumentException {
         if ( (color != BoardInfo.BLACK) && (color != BoardInfo.WHITE) ) {
-            throw new IllegalArgumentException("allPiecesInMills(byte): unknown color value:"+color);
+            throw new IllegalArgumentException("allPiecesJammed(byte): unknown color value:"+color);
         }
-        byte[] colouredSquares = this.getColouredSquares(color);
-        for (int index=0; index < colouredSquares.length; index++) {
-            if ( !this.pieceJammed(colouredSquares[index]) ) {
-                return false;
-            }
-        }
-        return true;
+        // Nappulat ovat jumissa, jos yhdenkn naapuriruuduista ei ole tyhj.
+        return this.getMobility(color) == 0;
     }
 
-
    /**
-    * Onko nappula jumissa, eli onko sill vapaita naapuriruutuja.
-    * @param square Tutkittava ruutu. Tulee olla <tt>0 <= square <= 23</tt>
-    * @return Onko nappula jumissa?
-    * @exception ArrayIndexOutOfBoundsException Jos ei ollut <tt>0 <= square <= 23</tt>.
+    * Laskee annetun vrin liikkuvuuden: kuinka monta tyhj naapuriruutua
+    * vrin nappuloilla on yhteens. Sama tyhj ruutu lasketaan jokaiselle
+    * nappulalle, jonka naapuri se on.
+    * @param color <tt>BoardInfo.WHITE</tt> tai <tt>BoardInfo.BLACK</tt>
+    * @return Tyhjien naapuriruutujen yhteismr
+    * @exception IllegalArgumentException Jos parametrin <tt>color</tt> arvo
+    *            ei ollut <tt>BoardInfo.WHITE</tt> eik <tt>BoardInfo.BLACK</tt>.
     */
-    private boolean pieceJammed(byte square) {
-        byte[] neighbours = BoardInfo.getNeighbours(square);
-        for (int index=0; index < neighbours.length; index++) {
-            if (this.squares[neighbours[index]] == BoardInfo.EMPTY) {
-                return false;
-            }
+    public int getMobility(byte color) throws IllegalArgumentException {
+        if (color == BoardInfo.WHITE) {
+            return this.whiteMobility;
         }
-        return true;
+        if (color == BoardInfo.BLACK) {
+            return this.blackMobility;
+        }
+        throw new IllegalArgumentException("getMobility(byte): unknown color value:"+color);
+    }
+
+    /** Laskee vrin liikkuvuuden nappuloista alusta asti (testiohjelmaa varten)*/
+    private int computeMobility(byte color) {
+        int pieces = this.getMask(color);
+        int emptySquares = this.getMask(BoardInfo.EMPTY);
+        int mobility = 0;
+        while (pieces != 0) {
+            byte square = (byte) Integer.numberOfTrailingZeros(pieces);
+            mobility += Integer.bitCount(BoardInfo.getNeighbourMask(square) & emptySquares);
+            pieces &= pieces - 1;
+        }
+        return mobility;
     }
 
 
@@ -306,15 +436,16 @@ public class MillBoard implements Cloneable {
      * @return <tt>MillBoard</tt>-olion laaja merkkijonoesitys
      */
     public String toString() {
-        char[] squarecharacters = new char[this.squares.length];
-        for (int squareIndex=0; squareIndex < this.squares.length; squareIndex++) {
-            if (this.squares[squareIndex] == BoardInfo.EMPTY) {
+        char[] squarecharacters = new char[BoardInfo.SQUARES_ON_BOARD];
+        for (byte squareIndex=0; squareIndex < BoardInfo.SQUARES_ON_BOARD; squareIndex++) {
+            byte color = this.get(squareIndex);
+            if (color == BoardInfo.EMPTY) {
                 squarecharacters[squareIndex] = ' ';
             }
-            else if (this.squares[squareIndex] == BoardInfo.WHITE) {
+            else if (color == BoardInfo.WHITE) {
                 squarecharacters[squareIndex] = 'w';
             }
-            else if (this.squares[squareIndex] == BoardInfo.BLACK) {
+            else if (color == BoardInfo.BLACK) {
                 squarecharacters[squareIndex] = 'b';
             }
         }
@@ -338,8 +469,33 @@ public class MillBoard implements Cloneable {
     }
 
 
-    /** Testiohjelma*/
+    /** Testiohjelma: satunnaiset muutokset, ja pivitettyj arvoja verrataan laskettuihin*/
 	public static void main(String[] args) {
-
+        java.util.Random random = new java.util.Random(1);
+        MillBoard board = new MillBoard();
+        int errors = 0;
+        for (int counter = 0; counter < 1000000; counter++) {
+            byte square = (byte)random.nextInt(BoardInfo.SQUARES_ON_BOARD);
+            byte target = (byte)random.nextInt(BoardInfo.SQUARES_ON_BOARD);
+            if (board.get(square) == BoardInfo.EMPTY) {
+                board.setPiece(square, random.nextBoolean() ? BoardInfo.WHITE : BoardInfo.BLACK);
+            }
+            else if (board.get(target) == BoardInfo.EMPTY && random.nextBoolean()) {
+                board.movePiece(square, target);
+            }
+            else {
+                board.removePiece(square);
+            }
+            MillBoard copy = (MillBoard)board.clone();
+            byte[] colors = {BoardInfo.WHITE, BoardInfo.BLACK};
+            for (int index = 0; index < colors.length; index++) {
+                byte color = colors[index];
+                if (copy.countSquares(color) != Integer.bitCount(board.getMask(color)) ||
+                    copy.getMobility(color) != board.computeMobility(color)) {
+                        errors++;
+                }
+            }
+        }
+        System.out.println("Virheit: "+errors+" --> 0 OK");
 	}
 }
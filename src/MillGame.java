@@ -51,6 +51,9 @@ public class MillGame implements Cloneable {
     /** Pelin kyttm pelilauta*/
     private MillBoard board;
 
+    /** Pelitilanteen Zobrist-avain, pivitetn jokaisen siirron yhteydess*/
+    private long hashKey;
+
     /** Pelihistoria peruutuksia (undo) varten*/
     private Stack history;
 
@@ -75,6 +78,7 @@ public class MillGame implements Cloneable {
         this.board = new MillBoard();
         this.history = new Stack();
         this.future = new Stack();
+        this.hashKey = this.computeHashKey();
     }
 
 
@@ -101,9 +105,31 @@ public class MillGame implements Cloneable {
         copy.whitePiecesInHand = this.whitePiecesInHand;
         copy.blackPiecesInHand = this.blackPiecesInHand;
         copy.board = (MillBoard)this.board.clone();
+        copy.hashKey = this.hashKey;
         return copy;
     }
 
+   /**
+    * Luo <tt>MillGame</tt>-oliosta itsenisen kopion, jossa on
+    * mukana mys undo- ja redo-historia. Historian pelit kopioidaan,
+    * koska <tt>undo</tt> ottaa palautetun pelin laudan kyttn. Esim.
+    * taustalla tehtv haku kytt kopiota, jotta peli voi jatkaa
+    * haun aikana.
+    * @return Kopio historioineen
+    */
+    // Historiat ovat raakoja Stack-olioita kuten muuallakin luokassa; niihin
+    // listn vain MillGame-olioita.
+    @SuppressWarnings("unchecked")
+    public MillGame copy() {
+        MillGame copy = (MillGame)this.clone();
+        for (int index = 0; index < this.history.size(); index++) {
+            copy.history.push( ((MillGame)this.history.get(index)).clone() );
+        }
+        for (int index = 0; index < this.future.size(); index++) {
+            copy.future.push( ((MillGame)this.future.get(index)).clone() );
+        }
+        return copy;
+    }
 
    /**
     * Palauttaa peliin saman tilanteen kuin
@@ -145,6 +171,7 @@ public class MillGame implements Cloneable {
         this.whitePiecesInHand = restored.whitePiecesInHand;
         this.blackPiecesInHand = restored.blackPiecesInHand;
         this.board = restored.board;
+        this.hashKey = restored.hashKey;
         // HUOM! Historiatiedot ovat olemassa vain tss oliossa.
         // Historian ja Tulevaisuuden pelit eivt itse sisll mitn historiatietoja.
     }
@@ -170,6 +197,35 @@ public class MillGame implements Cloneable {
     }
 
 
+   /**
+    * Palauttaa aiempien tilanteiden Zobrist-avaimet silt osin, kuin
+    * nykyiseen tilanteeseen on psty palautuvilla siirroilla (siirtelyvaiheen
+    * siirrot ilman poistoa). Asettelu ja poisto muuttavat nappuloiden mri,
+    * joten niit edeltneet tilanteet eivt voi en toistua. Historiana
+    * kytetn <tt>undo</tt>-toiminnon historiaa.
+    * @return Avaimet vanhimmasta uusimpaan; nykyinen tilanne ei ole mukana
+    */
+    public long[] getHashHistory() {
+        int count = 0;
+        MillGame next = this;
+        for (int index = this.history.size() - 1; index >= 0; index--) {
+            MillGame previous = (MillGame)this.history.get(index);
+            if ( (previous.gameState != PHASE_MIDGAME && previous.gameState != PHASE_ENDGAME) ||
+                 previous.board.countSquares(BoardInfo.WHITE) != next.board.countSquares(BoardInfo.WHITE) ||
+                 previous.board.countSquares(BoardInfo.BLACK) != next.board.countSquares(BoardInfo.BLACK) ) {
+                    break;
+            }
+            count++;
+            next = previous;
+        }
+        long[] keys = new long[count];
+        for (int index = 0; index < count; index++) {
+            keys[index] = ((MillGame)this.history.get(this.history.size() - count + index)).hashKey;
+        }
+        return keys;
+    }
+
+
    /**
     * Palauttaa kopion pelin kyttmst laudasta
     * @return Kopio <tt>MillBoard</tt>-oliosta.
@@ -178,6 +234,11 @@ public class MillGame implements Cloneable {
         return (MillBoard)this.board.clone();
     }
 
+    /** Pelin lauta kopioimatta; vain lukemiseen (esim. <tt>OpeningBook.probe</tt>)*/
+    MillBoard getBoard() {
+        return this.board;
+    }
+
     /** Montako nappulaa mustalla pelaajalla on viel kdessn*/
     public byte getBlackPiecesInHand() { return this.blackPiecesInHand; }
 
@@ -206,6 +267,25 @@ public class MillGame implements Cloneable {
     */
     public byte getGameState() { return this.gameState; }
 
+   /**
+    * Palauttaa pelitilanteen 64-bittisen Zobrist-avaimen. Avain kattaa
+    * laudan nappulat, vuorossa olevan pelaajan, pelivaiheen ja molempien
+    * pelaajien ksinappulat. Samoilla tilanteilla on aina sama avain.
+    * @return Pelitilanteen avain
+    * @see Zobrist
+    */
+    public long getHashKey() { return this.hashKey; }
+
+   /**
+    * Laskee pelitilanteen avaimen alusta asti. Tulos on aina sama kuin
+    * <tt>getHashKey()</tt>, mutta laskenta on hitaampaa.
+    * @return Pelitilanteen avain
+    */
+    public long computeHashKey() {
+        return Zobrist.computeKey(this.board, this.activePlayer, this.gameState,
+                                  this.whitePiecesInHand, this.blackPiecesInHand);
+    }
+
 
 
 
@@ -281,72 +361,81 @@ public class MillGame implements Cloneable {
 
         if (this.gameState == PHASE_BEGINNING) {
             if (this.activePlayer == WHITE_PLAYER) {
+                this.hashKey ^= Zobrist.getHandKey(WHITE_PLAYER, this.whitePiecesInHand);
                 this.whitePiecesInHand--;
+                this.hashKey ^= Zobrist.getHandKey(WHITE_PLAYER, this.whitePiecesInHand);
                 this.board.setPiece(move.TO, BoardInfo.WHITE);
             }
             else if (this.activePlayer == BLACK_PLAYER) {
+                this.hashKey ^= Zobrist.getHandKey(BLACK_PLAYER, this.blackPiecesInHand);
                 this.blackPiecesInHand--;
+                this.hashKey ^= Zobrist.getHandKey(BLACK_PLAYER, this.blackPiecesInHand);
                 this.board.setPiece(move.TO, BoardInfo.BLACK);
             }
             else {
                 throw new IllegalStateException("makeMove(Move): Internal error --> "+
                                                 "Illegal activePlayer:"+this.activePlayer);
             }
+            this.hashKey ^= Zobrist.getPieceKey(this.activePlayer, move.TO);
 
             if (move.REMOVE != Move.NOWHERE) {
+                this.hashKey ^= Zobrist.getPieceKey(this.board.get(move.REMOVE), move.REMOVE);
                 this.board.removePiece(move.REMOVE);
             }
 
             if (this.whitePiecesInHand == 0 && this.blackPiecesInHand == 0) {
-                this.gameState = PHASE_MIDGAME;
+                this.setGameState(PHASE_MIDGAME);
 
                    // Voi olla, ett asetettuaan kaikki nappulansa alkupeliss
                    // jompikumpi pelaajista j jumiin keskipeliss.
                    // Tuo nappuloiden mrn putoaminen alle kolmen
                    // ei taida olla kuitenkaan edes mahdollinen.
                 if ( this.board.allPiecesJammed(this.activePlayer)  ||
-                    (this.board.getColouredSquares(this.activePlayer)).length < 3) {
-                        this.gameState = PHASE_GAME_OVER;
-                        this.activePlayer = this.getOpponent(); // Vastustaja voitti pelin!
+                    this.board.countSquares(this.activePlayer) < 3) {
+                        this.setGameState(PHASE_GAME_OVER);
+                        this.setActivePlayer(this.getOpponent()); // Vastustaja voitti pelin!
                         return true;
                 }
                 if ( this.board.allPiecesJammed(this.getOpponent())  ||
-                    (this.board.getColouredSquares(this.getOpponent())).length < 3) {
-                        this.gameState = PHASE_GAME_OVER;
+                    this.board.countSquares(this.getOpponent()) < 3) {
+                        this.setGameState(PHASE_GAME_OVER);
                         return true;
                 }
             }
-            this.activePlayer = this.getOpponent();
+            this.setActivePlayer(this.getOpponent());
             return false;
         }
         else if (this.gameState == PHASE_MIDGAME || this.gameState == PHASE_ENDGAME) {
             this.board.movePiece(move.FROM, move.TO);
+            this.hashKey ^= Zobrist.getPieceKey(this.activePlayer, move.FROM) ^
+                            Zobrist.getPieceKey(this.activePlayer, move.TO);
 
             // myllyn poistama nappula:
             if (move.REMOVE != Move.NOWHERE) {
+                this.hashKey ^= Zobrist.getPieceKey(this.board.get(move.REMOVE), move.REMOVE);
                 this.board.removePiece(move.REMOVE);
             }
 
-            if ( (this.board.getColouredSquares(BoardInfo.WHITE)).length == 3  ||
-                 (this.board.getColouredSquares(BoardInfo.BLACK)).length == 3)
-                    this.gameState = PHASE_ENDGAME;
+            if ( this.board.countSquares(BoardInfo.WHITE) == 3  ||
+                 this.board.countSquares(BoardInfo.BLACK) == 3)
+                    this.setGameState(PHASE_ENDGAME);
 
             // Jos siirron jlkeen vastustajan kaikki nappulat ovat jumissa tai hnen
             // nappuloidensa mr laskee alle kolmen, nyt vuorossa oleva pelaaja on voittanut!
             // Moka voi sattua mys pelaajalle itselleen, jolloin vastustaja voittaa.
             if ( (this.gameState == PHASE_MIDGAME && this.board.allPiecesJammed(this.getOpponent()) ) ||
-                  (this.board.getColouredSquares(this.getOpponent())).length < 3) {
-                        this.gameState = PHASE_GAME_OVER;
+                  this.board.countSquares(this.getOpponent()) < 3) {
+                        this.setGameState(PHASE_GAME_OVER);
                         return true;
             }
             if ( (this.gameState == PHASE_MIDGAME && this.board.allPiecesJammed(this.activePlayer) ) ||
-                  (this.board.getColouredSquares(this.activePlayer)).length < 3) {
-                        this.gameState = PHASE_GAME_OVER;
-                        this.activePlayer = this.getOpponent(); // Vastustaja voitti pelin!
+                  this.board.countSquares(this.activePlayer) < 3) {
+                        this.setGameState(PHASE_GAME_OVER);
+                        this.setActivePlayer(this.getOpponent()); // Vastustaja voitti pelin!
                         return true;
             }
 
-            this.activePlayer = this.getOpponent();
+            this.setActivePlayer(this.getOpponent());
             return false;
         }
         else {
@@ -355,6 +444,18 @@ public class MillGame implements Cloneable {
     }
 
 
+    /** Vaihtaa pelivaiheen ja pivitt avaimen*/
+    private void setGameState(byte newGameState) {
+        this.hashKey ^= Zobrist.getPhaseKey(this.gameState) ^ Zobrist.getPhaseKey(newGameState);
+        this.gameState = newGameState;
+    }
+
+    /** Vaihtaa vuorossa olevan pelaajan ja pivitt avaimen*/
+    private void setActivePlayer(byte newActivePlayer) {
+        this.hashKey ^= Zobrist.getPlayerKey(this.activePlayer) ^ Zobrist.getPlayerKey(newActivePlayer);
+        this.activePlayer = newActivePlayer;
+    }
+
    /**
     * Palauttaa nyt vuorossa olevan pelaajan vastustajan.
     * @return Palautuu joko <tt>MillGame.WHITE_PLAYER</tt> tai <tt>MillGame.BLACK_PLAYER</tt>.
@@ -410,6 +511,7 @@ public class MillGame implements Cloneable {
         this.gameState = newGameState;
         this.whitePiecesInHand = newWhitePiecesInHand;
         this.blackPiecesInHand = newBlackPiecesInHand;
+        this.hashKey = this.computeHashKey();
     }
 
 
@@ -16,6 +16,30 @@ public class Move{
 
     public static final byte NOWHERE = -1;
 
+    /**
+     * Tekoly ksittelee siirtoja <tt>int</tt>-koodeina, jotta siirtojen
+     * tuottaminen ei luo olioita. Koodin bitit 0--4 ovat <tt>from + 1</tt>,
+     * bitit 5--9 <tt>to</tt> ja bitit 10--14 <tt>remove + 1</tt>. Kaikki
+     * koodit ovat pienempi kuin <tt>CODES</tt>. <tt>NO_MOVE</tt> ei ole
+     * minkn siirron koodi.
+     */
+    public static final int CODES = 1 << 15,
+                            NO_MOVE = -1;
+
+    /** Jokaista koodia vastaava yhteinen <tt>Move</tt>-olio (<tt>null</tt>, jos koodi ei ole siirto)*/
+    private static final Move[] INTERNED = new Move[CODES];
+
+    static {
+        for (int from = NOWHERE; from < BoardInfo.SQUARES_ON_BOARD; from++) {
+            for (int to = 0; to < BoardInfo.SQUARES_ON_BOARD; to++) {
+                for (int remove = NOWHERE; remove < BoardInfo.SQUARES_ON_BOARD; remove++) {
+                    Move move = new Move(from, to, remove);
+                    INTERNED[move.CODE] = move;
+                }
+            }
+        }
+    }
+
     /** Mit nappulaa siirretn? */
     public final byte FROM;
 
@@ -25,8 +49,11 @@ public class Move{
     /** Poistetaanko jostakin nappula? */
     public final byte REMOVE;
 
+    /** Siirron koodi, ks. <tt>CODES</tt> */
+    public final int CODE;
+
     /** Ei kutsuta koskaan*/
-    private Move() { this.FROM=0; this.TO=0; this.REMOVE=0; }
+    private Move() { this.FROM=0; this.TO=0; this.REMOVE=0; this.CODE=0; }
 
     /**
      * Luo uuden myllypelin siirron. Parametrit ovat kaikki myllylaudan
@@ -55,6 +82,7 @@ public class Move{
         this.FROM = from;
         this.TO = to;
         this.REMOVE = remove;
+        this.CODE = encode(from, to, remove);
     }
 
     /**
@@ -64,6 +92,119 @@ public class Move{
         this((byte)from, (byte)to, (byte)remove);
     }
 
+    /**
+     * Palauttaa koodia vastaavan siirron. Sama koodi antaa aina saman olion,
+     * joten metodi ei luo uusia olioita.
+     *
+     * @param code    Siirron koodi
+     * @return  Koodia vastaava <tt>Move</tt>-olio, tai <tt>null</tt> jos
+     *          koodi on <tt>NO_MOVE</tt>
+     * @exception IllegalArgumentException
+     *                 Jos koodi ei ole minkn siirron koodi.
+     */
+    public static Move valueOf(int code) throws IllegalArgumentException {
+        if (code == NO_MOVE) {
+            return null;
+        }
+        if (code < 0 || code >= CODES || INTERNED[code] == null) {
+            throw new IllegalArgumentException("valueOf(int): bad move code: "+code);
+        }
+        return INTERNED[code];
+    }
+
+    /**
+     * Kuten <tt>Move(from, to, remove)</tt>, mutta palauttaa yhteisen olion.
+     *
+     * @exception IllegalArgumentException
+     *                 Samoin kuin konstruktorissa.
+     */
+    public static Move valueOf(int from, int to, int remove) throws IllegalArgumentException {
+        if (from < NOWHERE || from >= BoardInfo.SQUARES_ON_BOARD ||
+            to < 0 || to >= BoardInfo.SQUARES_ON_BOARD ||
+            remove < NOWHERE || remove >= BoardInfo.SQUARES_ON_BOARD) {
+            return new Move(from, to, remove); // heitt poikkeuksen
+        }
+        return INTERNED[encode(from, to, remove)];
+    }
+
+    /** Siirron koodi ruuduista, joita ei tarkisteta*/
+    public static int encode(int from, int to, int remove) {
+        return (from + 1) | (to << 5) | ((remove + 1) << 10);
+    }
+
+    /** Koodin lhtruutu (<tt>NOWHERE</tt>, jos nappula tulee kdest)*/
+    public static byte getFrom(int code) {
+        return (byte)((code & 0x1F) - 1);
+    }
+
+    /** Koodin kohderuutu*/
+    public static byte getTo(int code) {
+        return (byte)((code >>> 5) & 0x1F);
+    }
+
+    /** Koodin poistettava ruutu (<tt>NOWHERE</tt>, jos mitn ei poisteta)*/
+    public static byte getRemove(int code) {
+        return (byte)((code >>> 10) - 1);
+    }
+
+   /**
+    * Palauttaa siirron kuvan laudan symmetriassa (ks. <tt>BoardInfo.SYMMETRIES</tt>).
+    * @param symmetry  Symmetria, <tt>0 <= symmetry < BoardInfo.SYMMETRIES</tt>
+    * @param code      Siirron koodi tai <tt>NO_MOVE</tt>
+    * @return Kuvan koodi, tai <tt>NO_MOVE</tt> jos koodi oli <tt>NO_MOVE</tt>
+    */
+    public static int getSymmetricMove(int symmetry, int code) {
+        if (code == NO_MOVE || symmetry == 0) {
+            return code;
+        }
+        byte from = getFrom(code);
+        byte remove = getRemove(code);
+        return encode( (from == NOWHERE) ? NOWHERE : BoardInfo.getSymmetricSquare(symmetry, from),
+                       BoardInfo.getSymmetricSquare(symmetry, getTo(code)),
+                       (remove == NOWHERE) ? NOWHERE : BoardInfo.getSymmetricSquare(symmetry, remove) );
+    }
+
+   /**
+    * Onko siirrolla pienempikoodinen vastine jossakin annetuista symmetrioista?
+    * Kun symmetriat kuvaavat tilanteen itselleen, vastineet johtavat
+    * symmetrisiin tilanteisiin, ja riitt tutkia niist pienikoodisin.
+    * @param code        Siirron koodi
+    * @param symmetries  Symmetriat bittimaskina, kuten <tt>BoardInfo.getInvariantSymmetries</tt>
+    * @return <tt>true</tt>, jos siirto voidaan jtt tutkimatta
+    */
+    public static boolean isSymmetricDuplicate(int code, int symmetries) {
+        for (int rest = symmetries & ~1; rest != 0; rest &= rest - 1) {
+            if (getSymmetricMove(Integer.numberOfTrailingZeros(rest), code) < code) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ovatko siirrot samat, eli ovatko niiden <tt>FROM</tt>, <tt>TO</tt>
+     * ja <tt>REMOVE</tt> samat?
+     *
+     * @param other    Verrattava olio (voi olla <tt>null</tt>)
+     * @return  Onko <tt>other</tt> samanlainen <tt>Move</tt>-olio?
+     */
+    public boolean equals(Object other) {
+        if ( !(other instanceof Move) ) {
+            return false;
+        }
+        Move move = (Move)other;
+        return this.CODE == move.CODE;
+    }
+
+    /**
+     * Hajautusarvo, joka on sama kaikille samanlaisille siirroille.
+     *
+     * @return  Siirron hajautusarvo
+     */
+    public int hashCode() {
+        return this.CODE;
+    }
+
     /**
      * Luo <tt>Move</tt>-olion merkkijonoesityksen muodossa
      * <tt>(from,to,remove)</tt>, jossa -1 tarkoittaa <tt>NOWHERE</tt>-ruutua.
@@ -84,6 +225,9 @@ public class Move{
             System.out.println(move_1+" --> (1,2,3) OK");
             move_2 = new Move(Move.NOWHERE, 2, Move.NOWHERE);
             System.out.println(move_2+" --> (-1,2,-1) OK");
+            System.out.println(Move.valueOf(move_1.CODE)+" "+Move.getFrom(move_2.CODE)+","+
+                               Move.getTo(move_2.CODE)+","+Move.getRemove(move_2.CODE)+" --> (1,2,3) -1,2,-1 OK");
+            System.out.println((Move.valueOf(1,2,3) == Move.valueOf(move_1.CODE))+" --> true OK");
             move_3 = new Move(7, Move.NOWHERE, 9);
         }
         catch (IllegalArgumentException e) {
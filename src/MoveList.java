@@ -0,0 +1,67 @@
+/**
+ * Luokan <tt>MoveList</tt> ilmentymt ovat tekolyn uudelleenkytettvi
+ * siirtolistoja. Siirrot ovat <tt>Move</tt>-luokan <tt>int</tt>-koodeja, ja
+ * jokaisella siirrolla on jrjestmist varten pistemr. Hakija varaa
+ * yhden listan kullekin hakusyvyydelle ja tyhjent sen ennen uusia
+ * siirtoja, joten haun aikana ei luoda taulukoita.
+ */
+final class MoveList {
+
+    /**
+     * Siirtojen enimmismr. Eniten siirtoja on lentvll pelaajalla:
+     * 3 nappulaa, 21 tyhj ruutua ja myllyn sulkiessa 9 poistettavaa
+     * nappulaa, eli 567.
+     */
+    public static final int MAX_MOVES = 600;
+
+    private final int[] moves = new int[MAX_MOVES];
+    private final int[] scores = new int[MAX_MOVES];
+    private int size = 0;
+
+    public void clear() { this.size = 0; }
+
+    public int size() { return this.size; }
+
+    public void add(int move) {
+        this.moves[this.size] = move;
+        this.size++;
+    }
+
+    /** Listan siirto kohdassa <tt>index</tt> (<tt>0 <= index < size()</tt>)*/
+    public int get(int index) { return this.moves[index]; }
+
+    public void setScore(int index, int score) { this.scores[index] = score; }
+
+   /**
+    * Jrjest siirrot pistemrn mukaan suurimmat ensin. Lajittelu on
+    * vakaa: yht hyvt siirrot silyttvt keskinisen jrjestyksens.
+    * Listat ovat lyhyit, joten lisyslajittelu riitt.
+    */
+    public void sortByScore() {
+        for (int index = 1; index < this.size; index++) {
+            int move = this.moves[index];
+            int score = this.scores[index];
+            int position = index;
+            while (position > 0 && this.scores[position - 1] < score) {
+                this.moves[position] = this.moves[position - 1];
+                this.scores[position] = this.scores[position - 1];
+                position--;
+            }
+            this.moves[position] = move;
+            this.scores[position] = score;
+        }
+    }
+
+   /**
+    * Palauttaa listan siirrot <tt>Move</tt>-olioina. Oliot ovat
+    * <tt>Move.valueOf</tt>-metodin yhteisi olioita.
+    * @return Uusi taulukko, jonka koko on <tt>size()</tt>
+    */
+    public Move[] toMoveArray() {
+        Move[] array = new Move[this.size];
+        for (int index = 0; index < this.size; index++) {
+            array[index] = Move.valueOf(this.moves[index]);
+        }
+        return array;
+    }
+}
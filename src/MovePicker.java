@@ -0,0 +1,177 @@
+/**
+ * Luokan <tt>MovePicker</tt> ilmentymt antavat tekolyn haulle solmun
+ * siirrot yksi kerrallaan parhaat ensin. Siirtoja ei tuoteta kerralla,
+ * vaan vaiheittain:
+ * <ol>
+ * <li>edellisen kierroksen pjuonen siirto</li>
+ * <li>vaihtotaulukon siirto</li>
+ * <li>myllyn sulkevat siirrot poistoineen</li>
+ * <li>tappajasiirrot</li>
+ * <li>muut (hiljaiset) siirrot ruudun tyypin ja historiataulukon mukaan</li>
+ * </ol>
+ * Seuraavan vaiheen siirrot tuotetaan vasta, kun edellisen vaiheen siirrot
+ * on kyty lpi. Jos jokin siirto aiheuttaa karsinnan, loppuja siirtoja ei
+ * siis tuoteta lainkaan; tm sst eniten loppupeliss, jossa lentv
+ * pelaaja voi siirt nappulansa mihin tahansa tyhjn ruutuun.
+ * <p>
+ * Vaiheiden ulkopuolelta tulevat siirrot (pjuoni, vaihtotaulukko ja
+ * tappajat) tarkistetaan ennen kuin ne annetaan, eik mitn siirtoa anneta
+ * kahdesti. Jrjestys on sama kuin jos kaikki siirrot tuotettaisiin ja
+ * pisteytettisiin kerralla.
+ */
+final class MovePicker {
+
+    private static final int STAGE_PV = 0,
+                             STAGE_HASH = 1,
+                             STAGE_GENERATE_CAPTURES = 2,
+                             STAGE_CAPTURES = 3,
+                             STAGE_KILLER_1 = 4,
+                             STAGE_KILLER_2 = 5,
+                             STAGE_GENERATE_QUIET = 6,
+                             STAGE_QUIET = 7,
+                             STAGE_DONE = 8;
+
+    /** Omistajan historiataulukko siirtojen koodeittain (vain luetaan)*/
+    private final int[] history;
+    private final MoveList moves = new MoveList();
+
+    private SearchPosition position;
+    private int pvMove;
+    private int hashMove;
+    private int killer_1;
+    private int killer_2;
+    private int stage = STAGE_DONE;
+    private int index;
+
+    MovePicker(int[] history) {
+        this.history = history;
+    }
+
+   /**
+    * Aloittaa uuden solmun siirrot. Aiemman solmun siirtoja ei en anneta.
+    * @param position   Solmun hakutilanne; sit ei saa muuttaa siirtojen vlill
+    *                   (tehty siirto on peruttava ennen seuraavaa <tt>next()</tt>-kutsua)
+    * @param pvMove     Pjuonen siirto tai <tt>Move.NO_MOVE</tt>
+    * @param hashMove   Vaihtotaulukon siirto tai <tt>Move.NO_MOVE</tt>
+    * @param killer_1   Ensimminen tappajasiirto tai <tt>Move.NO_MOVE</tt>
+    * @param killer_2   Toinen tappajasiirto tai <tt>Move.NO_MOVE</tt>
+    */
+    public void reset(SearchPosition position, int pvMove, int hashMove, int killer_1, int killer_2) {
+        this.position = position;
+        this.pvMove = pvMove;
+        this.hashMove = hashMove;
+        this.killer_1 = killer_1;
+        this.killer_2 = killer_2;
+        this.stage = STAGE_PV;
+    }
+
+   /**
+    * Tuliko viimeksi annettu siirto hiljaisten siirtojen vaiheesta? Tllainen
+    * siirto ei ole pjuonen, vaihtotaulukon eik tappajasiirto, eik se
+    * sulje mylly, joten haku voi tutkia sen muita kevyemmin.
+    */
+    public boolean isQuietStage() {
+        return this.stage == STAGE_QUIET;
+    }
+
+   /**
+    * Palauttaa solmun seuraavan siirron.
+    * @return Siirron koodi, tai <tt>Move.NO_MOVE</tt> kun siirrot on kyty lpi
+    */
+    public int next() {
+        while (true) {
+            switch (this.stage) {
+                case STAGE_PV:
+                    this.stage = STAGE_HASH;
+                    if (LegalMoves.isLegalMove(this.position, this.pvMove)) {
+                        return this.pvMove;
+                    }
+                    this.pvMove = Move.NO_MOVE;
+                    break;
+
+                case STAGE_HASH:
+                    this.stage = STAGE_GENERATE_CAPTURES;
+                    if (this.hashMove != this.pvMove && LegalMoves.isLegalMove(this.position, this.hashMove)) {
+                        return this.hashMove;
+                    }
+                    this.hashMove = Move.NO_MOVE;
+                    break;
+
+                case STAGE_GENERATE_CAPTURES:
+                    LegalMoves.generateMillClosingMoves(this.position, this.moves);
+                    // Ruudun tyypin mukaan; tasatilanteessa lhtruudun, kohderuudun
+                    // ja poistettavan ruudun mukaan, kuten generateMoves tuottaa ne.
+                    for (int moveIndex = 0; moveIndex < this.moves.size(); moveIndex++) {
+                        int move = this.moves.get(moveIndex);
+                        int order = ((Move.getFrom(move) + 1) << 10) | (Move.getTo(move) << 5) |
+                                    (Move.getRemove(move) + 1);
+                        this.moves.setScore(moveIndex, (MillAI.squareScore(Move.getTo(move)) << 15) - order);
+                    }
+                    this.moves.sortByScore();
+                    this.index = 0;
+                    this.stage = STAGE_CAPTURES;
+                    break;
+
+                case STAGE_CAPTURES:
+                    while (this.index < this.moves.size()) {
+                        int move = this.moves.get(this.index);
+                        this.index++;
+                        if (move != this.pvMove && move != this.hashMove) {
+                            return move;
+                        }
+                    }
+                    this.stage = STAGE_KILLER_1;
+                    break;
+
+                case STAGE_KILLER_1:
+                    this.stage = STAGE_KILLER_2;
+                    if (this.isNewQuietMove(this.killer_1)) {
+                        return this.killer_1;
+                    }
+                    this.killer_1 = Move.NO_MOVE;
+                    break;
+
+                case STAGE_KILLER_2:
+                    this.stage = STAGE_GENERATE_QUIET;
+                    if (this.killer_2 != this.killer_1 && this.isNewQuietMove(this.killer_2)) {
+                        return this.killer_2;
+                    }
+                    this.killer_2 = Move.NO_MOVE;
+                    break;
+
+                case STAGE_GENERATE_QUIET:
+                    LegalMoves.generateQuietMoves(this.position, this.moves);
+                    for (int moveIndex = 0; moveIndex < this.moves.size(); moveIndex++) {
+                        int move = this.moves.get(moveIndex);
+                        this.moves.setScore(moveIndex, MillAI.squareScore(Move.getTo(move)) * 2 * MillAI.HISTORY_LIMIT +
+                                                   this.history[move]);
+                    }
+                    this.moves.sortByScore();
+                    this.index = 0;
+                    this.stage = STAGE_QUIET;
+                    break;
+
+                case STAGE_QUIET:
+                    while (this.index < this.moves.size()) {
+                        int move = this.moves.get(this.index);
+                        this.index++;
+                        if (move != this.pvMove && move != this.hashMove &&
+                            move != this.killer_1 && move != this.killer_2) {
+                            return move;
+                        }
+                    }
+                    this.stage = STAGE_DONE;
+                    break;
+
+                default:
+                    return Move.NO_MOVE;
+            }
+        }
+    }
+
+    // Tappajasiirto kelpaa, jos se on hiljainen, sallittu eik jo annettu.
+    private boolean isNewQuietMove(int move) {
+        return move != Move.NO_MOVE && move != this.pvMove && move != this.hashMove &&
+               Move.getRemove(move) == Move.NOWHERE && LegalMoves.isLegalMove(this.position, move);
+    }
+}
@@ -0,0 +1,363 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Luokan <tt>OpeningBook</tt> ilmentymt ovat asetteluvaiheen
+ * (<tt>PHASE_BEGINNING</tt>) avauskirjastoja: pelin alun tilanteille
+ * etukteen syvll haulla lasketut parhaat siirrot. Kirjastosta lytyv
+ * tilannetta ei tarvitse hakea, joten siirto saadaan mikrosekunneissa.
+ * <p>
+ * Tilanteen avain on laudan kanoninen avain (ks.
+ * <tt>BoardInfo.getCanonicalForm</tt>) ja pelaajien ksinappuloiden mrt.
+ * Asetteluvaiheessa vuorossa oleva pelaaja mrytyy ksinappuloista, joten
+ * avain yksili tilanteen symmetrioita vaille. Symmetriset tilanteet jakavat
+ * saman rivin, ja siirto tallennetaan kanonisen laudan siirtona.
+ * <p>
+ * Tiedoston muoto: otsake (tunniste, versio, hakusyvyys, puolisiirtojen mr
+ * ja rivien mr, kukin 4 tavua) ja sen perss rivit avainten mukaan
+ * kasvavassa jrjestyksess: avain (8 tavua), siirron koodi (2 tavua) ja
+ * haun arvo vuorossa olevan pelaajan kannalta (2 tavua).
+ * <p>
+ * Kirjasto luodaan etukteen metodilla <tt>build</tt> ja avataan metodilla
+ * <tt>open</tt>. Tiedosto kuvataan muistiin ja rivi etsitn puolitushaulla,
+ * joten kysely ei lue tiedostoa eik luo olioita.
+ */
+public final class OpeningBook {
+
+    /** <tt>lookup</tt>-metodin tulos, kun tilanne ei ole kirjastossa*/
+    public static final long NOT_FOUND = -1L;
+
+    private static final int MAGIC = 0x4D4F424B; // "MOBK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 20;
+    private static final int ENTRY_SIZE = 12;
+
+    /** Asetteluvaiheen puolisiirtojen enimmismr*/
+    public static final int MAX_PLIES = 18;
+
+    private final MappedByteBuffer entries;
+    private final int entryCount;
+    private final int depth;
+    private final int plies;
+
+
+    private OpeningBook(MappedByteBuffer entries, int entryCount, int depth, int plies) {
+        this.entries = entries;
+        this.entryCount = entryCount;
+        this.depth = depth;
+        this.plies = plies;
+    }
+
+   /**
+    * Avaa aiemmin luodun kirjaston vain luettavaksi.
+    * @param file    Kirjastotiedosto
+    * @return Avattu kirjasto
+    * @exception IOException Jos tiedostoa ei voitu lukea tai se ei ole kirjasto.
+    */
+    public static OpeningBook open(File file) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        try {
+            if (input.length() < HEADER_SIZE || input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("open(File): "+file+" is not an opening book.");
+            }
+            int depth = input.readInt();
+            int plies = input.readInt();
+            int entryCount = input.readInt();
+            if (entryCount < 0 || input.length() != HEADER_SIZE + (long)entryCount * ENTRY_SIZE) {
+                throw new IOException("open(File): "+file+" is damaged (entries:"+entryCount+
+                                      ", length:"+input.length()+").");
+            }
+            MappedByteBuffer entries = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+            return new OpeningBook(entries, entryCount, depth, plies);
+        }
+        finally {
+            input.close(); // kuvaus silyy kanavan sulkemisen jlkeen
+        }
+    }
+
+    /** Rivien (symmetrioita vaille erilaisten tilanteiden) mr*/
+    public int getEntryCount() { return this.entryCount; }
+
+    /** Syvyys, jolla kirjaston siirrot haettiin*/
+    public int getDepth() { return this.depth; }
+
+   /**
+    * Palauttaa kirjaston siirron ja sen arvon pelin tilanteessa yhdell
+    * haulla. Metodi ei luo olioita.
+    * @param game    Peli
+    * @return Siirto ja arvo pakattuna (ks. <tt>getEntryMove</tt> ja
+    *         <tt>getEntryValue</tt>) tai <tt>NOT_FOUND</tt>, jos tilanne ei
+    *         ole kirjastossa
+    */
+    public long lookup(MillGame game) {
+        long form = getForm(game);
+        int entry = this.find(game, form);
+        if (entry < 0) {
+            return NOT_FOUND;
+        }
+        int symmetry = BoardInfo.getCanonicalSymmetry(form);
+        int move = Move.getSymmetricMove(BoardInfo.getInverseSymmetry(symmetry),
+                                         this.entries.getShort(entry + 8));
+        return ((this.entries.getShort(entry + 10) & 0xFFFFL) << 16) | (move & 0xFFFFL);
+    }
+
+    /** <tt>lookup</tt>-metodin tuloksen siirron koodi (ks. <tt>Move.valueOf(int)</tt>)*/
+    public static int getEntryMove(long entry) { return (short)entry; }
+
+    /** <tt>lookup</tt>-metodin tuloksen arvo vuorossa olevan pelaajan kannalta*/
+    public static short getEntryValue(long entry) { return (short)(entry >>> 16); }
+
+   /**
+    * Palauttaa kirjaston siirron pelin tilanteessa. Metodi ei luo olioita.
+    * @param game    Peli
+    * @return Siirron koodi (ks. <tt>Move.valueOf(int)</tt>) tai
+    *         <tt>Move.NO_MOVE</tt>, jos tilanne ei ole kirjastossa
+    */
+    public int probe(MillGame game) {
+        long entry = this.lookup(game);
+        return (entry == NOT_FOUND) ? Move.NO_MOVE : getEntryMove(entry);
+    }
+
+   /**
+    * Palauttaa kirjaston siirron arvon vuorossa olevan pelaajan kannalta.
+    * @param game    Peli
+    * @return Haun arvo tai <tt>Short.MIN_VALUE</tt>, jos tilanne ei ole kirjastossa
+    */
+    public short getValue(MillGame game) {
+        long entry = this.lookup(game);
+        return (entry == NOT_FOUND) ? Short.MIN_VALUE : getEntryValue(entry);
+    }
+
+    public String toString() {
+        return "opening book: "+this.entryCount+" positions, "+this.plies+" plies, depth "+this.depth;
+    }
+
+
+    // Rivin sijainti tiedostossa tai -1, jos tilannetta ei ole.
+    private int find(MillGame game, long canonicalForm) {
+        if (game.getGameState() != MillGame.PHASE_BEGINNING) {
+            return -1;
+        }
+        long key = getKey(canonicalForm, game.getWhitePiecesInHand(), game.getBlackPiecesInHand());
+        int low = 0;
+        int high = this.entryCount - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int entry = HEADER_SIZE + middle * ENTRY_SIZE;
+            long entryKey = this.entries.getLong(entry);
+            if (entryKey < key) {
+                low = middle + 1;
+            }
+            else if (entryKey > key) {
+                high = middle - 1;
+            }
+            else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private static long getForm(MillGame game) {
+        return game.getBoard().getCanonicalForm();
+    }
+
+    // Kanoninen lauta biteiss 0-47, valkean ksinappulat 48-51 ja mustan 52-55.
+    private static long getKey(long canonicalForm, int whitePiecesInHand, int blackPiecesInHand) {
+        return BoardInfo.getCanonicalKey(canonicalForm) |
+               ((long)whitePiecesInHand << 48) | ((long)blackPiecesInHand << 52);
+    }
+
+    private static long getKey(MillGame game) {
+        return getKey(getForm(game), game.getWhitePiecesInHand(), game.getBlackPiecesInHand());
+    }
+
+
+   /**
+    * Luo kirjaston: ky lpi kaikki pelin alusta <tt>plies - 1</tt>
+    * puolisiirrossa saavutettavat tilanteet (symmetriset tilanteet vain
+    * kerran) ja hakee kullekin parhaan siirron syvyydell <tt>depth</tt>.
+    * Haut jaetaan sikeille.
+    * @param file    Luotava tiedosto; vanha sislt hvitetn
+    * @param plies   Montako asetteluvaiheen puolisiirtoa kirjasto kattaa, 1..18
+    * @param depth   Hakusyvyys
+    * @param threads Sikeiden mr
+    * @return Luotu kirjasto avattuna
+    * @exception IOException Jos tiedostoa ei voitu kirjoittaa.
+    */
+    public static OpeningBook build(File file, int plies, byte depth, int threads) throws IOException {
+        if (plies < 1 || plies > MAX_PLIES) {
+            throw new IllegalArgumentException("build(File,int,byte,int): plies:"+plies+
+                                               " must be between 1 and "+MAX_PLIES+".");
+        }
+        if (depth < 1) {
+            throw new IllegalArgumentException("build(File,int,byte,int): depth:"+depth+" must be positive.");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("build(File,int,byte,int): threads:"+threads+" must be positive.");
+        }
+        final ArrayList<MillGame> positions = getPositions(plies);
+        final int[] moves = new int[positions.size()];
+        final short[] values = new short[positions.size()];
+        final AtomicInteger next = new AtomicInteger();
+        final byte searchDepth = depth;
+        System.out.println("positions: "+positions.size());
+
+        Thread[] workers = new Thread[threads];
+        for (int index = 0; index < workers.length; index++) {
+            workers[index] = new Thread() {
+                public void run() {
+                    for (int position = next.getAndIncrement(); position < moves.length;
+                         position = next.getAndIncrement()) {
+                            // Jokaiselle tilanteelle oma tekoly: historia ei siirry
+                            // tilanteesta toiseen, joten tulos ei riipu sikeiden mrst.
+                            MillAI ai = new MillAI();
+                            MillGame game = positions.get(position);
+                            Move move = ai.depthSearch(game, searchDepth);
+                            // Siirto tallennetaan kanonisen laudan siirtona.
+                            int symmetry = BoardInfo.getCanonicalSymmetry(getForm(game));
+                            moves[position] = Move.getSymmetricMove(symmetry, move.CODE);
+                            values[position] = ai.getBestValue();
+                    }
+                }
+            };
+            workers[index].start();
+        }
+        for (int index = 0; index < workers.length; index++) {
+            while (workers[index].isAlive()) {
+                try {
+                    workers[index].join();
+                }
+                catch (InterruptedException e) {
+                    // odotetaan silti loppuun: tiedostoon tarvitaan kaikki rivit
+                }
+            }
+        }
+
+        long[] keys = new long[positions.size()];
+        HashMap<Long, Integer> indexes = new HashMap<Long, Integer>();
+        for (int position = 0; position < keys.length; position++) {
+            keys[position] = getKey(positions.get(position));
+            indexes.put(keys[position], position);
+        }
+        Arrays.sort(keys);
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(depth);
+            output.writeInt(plies);
+            output.writeInt(keys.length);
+            for (int entry = 0; entry < keys.length; entry++) {
+                int position = indexes.get(keys[entry]);
+                output.writeLong(keys[entry]);
+                output.writeShort(moves[position]);
+                output.writeShort(values[position]);
+            }
+        }
+        finally {
+            output.close();
+        }
+        return open(file);
+    }
+
+    // Pelin alusta alle plies puolisiirrossa saavutettavat asetteluvaiheen
+    // tilanteet leveyssuunnassa, kustakin symmetrisest joukosta vain yksi.
+    private static ArrayList<MillGame> getPositions(int plies) {
+        ArrayList<MillGame> positions = new ArrayList<MillGame>();
+        HashSet<Long> keys = new HashSet<Long>();
+        MillGame start = new MillGame();
+        positions.add(start);
+        keys.add(getKey(start));
+        int levelStart = 0;
+        for (int ply = 1; ply < plies; ply++) {
+            int levelEnd = positions.size();
+            for (int position = levelStart; position < levelEnd; position++) {
+                MillGame game = positions.get(position);
+                Move[] moves = LegalMoves.getAllLegalMoves(game);
+                for (int index = 0; index < moves.length; index++) {
+                    MillGame child = (MillGame)game.clone();
+                    child.makeMove(moves[index], false);
+                    if (child.getGameState() == MillGame.PHASE_BEGINNING && keys.add(getKey(child))) {
+                        positions.add(child);
+                    }
+                }
+            }
+            levelStart = levelEnd;
+        }
+        return positions;
+    }
+
+   /**
+    * Testaa kirjastoa satunnaisilla peleill: jokaisen kirjaston siirron on
+    * oltava laillinen, ja kyselyjen keskimrinen kesto tulostetaan.
+    * @param games   Pelattavien pelien mr
+    * @param seed    Satunnaislukujen siemen
+    * @return Laittomien siirtojen mr
+    */
+    public int verify(int games, long seed) {
+        Random random = new Random(seed);
+        int errors = 0;
+        int hits = 0;
+        long probes = 0;
+        long time = 0;
+        for (int counter = 0; counter < games; counter++) {
+            MillGame game = new MillGame();
+            for (int ply = 0; ply < this.plies && game.getGameState() == MillGame.PHASE_BEGINNING; ply++) {
+                long started = System.nanoTime();
+                int code = this.probe(game);
+                time += System.nanoTime() - started;
+                probes++;
+                Move[] moves = LegalMoves.getAllLegalMoves(game);
+                if (code == Move.NO_MOVE) {
+                    errors++; // kirjaston kattamat tilanteet lytyvt aina
+                }
+                else {
+                    hits++;
+                    if ( !Arrays.asList(moves).contains(Move.valueOf(code))) {
+                        errors++;
+                    }
+                }
+                game.makeMove(moves[random.nextInt(moves.length)], false);
+            }
+        }
+        System.out.println("probes: "+probes+", hits: "+hits+", "+(time / Math.max(probes, 1))+" ns/probe");
+        return errors;
+    }
+
+    /** Testiohjelma ja kirjaston luonti komentorivilt*/
+    public static void main(String[] args) throws IOException {
+        if (args.length >= 2 && args[0].equals("build")) {
+            int plies = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+            byte depth = (args.length > 3) ? Byte.parseByte(args[3]) : 10;
+            int threads = (args.length > 4) ? Integer.parseInt(args[4])
+                                            : Runtime.getRuntime().availableProcessors();
+            long started = System.currentTimeMillis();
+            OpeningBook book = build(new File(args[1]), plies, depth, threads);
+            System.out.println(book+", yhteens: "+(System.currentTimeMillis() - started)+"ms");
+        }
+        else if (args.length >= 2 && args[0].equals("verify")) {
+            int games = (args.length > 2) ? Integer.parseInt(args[2]) : 100000;
+            long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1L;
+            OpeningBook book = open(new File(args[1]));
+            int errors = book.verify(games, seed);
+            System.out.println(book+", pelej: "+games+", virheit: "+errors+" --> 0 OK");
+        }
+        else {
+            System.out.println("java OpeningBook build tiedosto [puolisiirtoja] [syvyys] [sikeit]");
+            System.out.println("java OpeningBook verify tiedosto [pelej] [siemen]");
+        }
+    }
+}
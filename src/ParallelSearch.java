@@ -0,0 +1,474 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Luokka <tt>ParallelSearch</tt> toteuttaa tekolyn kiinten syvyyden haun
+ * rinnakkaisena Young Brothers Wait -hakuna. Solmun ensimminen lapsi
+ * tutkitaan aina ensin yksin. Vasta kun sen arvo on selvill, loput lapset
+ * jaetaan <tt>ForkJoinPool</tt>-siepoolin tehtviksi, jotka saavat
+ * kyttns solmun sen hetkiset alfa- ja beta-rajat. Jos jokin lapsista
+ * aiheuttaa karsinnan, sen sisarten haku keskeytetn.
+ * <p>
+ * Tehtviksi jaetaan vain ylimmt tasot. Kun jljell oleva syvyys on
+ * enintn <tt>SEQUENTIAL_DEPTH</tt>, alipuu tutkitaan sikeen omalla
+ * <tt>MillAI</tt>-tyntekijll tavallisena perkkisen hakuna.
+ * <p>
+ * Juuren arvo on sama kuin perkkisess haussa, jossa myhisten siirtojen
+ * lyhennys (LMR) ja turhuuskarsinta ovat pois plt ja joka hyvksyy
+ * vaihtotaulukosta vain tsmlleen samalla syvyydell saadut arvot:
+ * tyntekijt hakevat niin asetuksista riippumatta, ja alfa-beta antaa
+ * tydell ikkunalla saman arvon siirtojrjestyksest riippumatta. Tavallinen
+ * perkkinen haku kytt mys syvempi vaihtotaulukon arvoja (sama tilanne
+ * lhempn juurta), joten sen arvo voi joskus erota. Paras siirto voi olla
+ * eri, jos usea siirto on yht hyv. Ks. testiohjelma <tt>main</tt>.
+ */
+final class ParallelSearch {
+
+    /** Alipuut, joissa syvyytt on jljell enintn nin paljon, tutkitaan perkkin*/
+    public static final int SEQUENTIAL_DEPTH = 4;
+
+    private final MillAI owner;
+    private final TranspositionTable transpositionTable;
+    private final ForkJoinPool pool;
+
+    // Kynniss olevan haun tiedot
+    private byte player;
+    private byte depthLimit;
+    private byte quiescenceDepth;
+    private volatile boolean stopped = false;
+    private volatile SplitPoint root = null;
+
+    // Jokaisella poolin sikeell on oma tyntekij; ne luodaan uudelleen joka haussa.
+    private ThreadLocal<MillAI> workerOfThread = new ThreadLocal<MillAI>();
+    private final Vector<MillAI> workers = new Vector<MillAI>();
+    private final AtomicLong splitNodes = new AtomicLong();
+
+    /**
+     * Luo rinnakkaisen haun, jonka tyntekijt jakavat omistajan vaihtotaulukon.
+     * @param owner                Tekoly, jonka puolesta haetaan
+     * @param transpositionTable   Omistajan vaihtotaulukko
+     * @param threads              Sikeiden mr
+     */
+    public ParallelSearch(MillAI owner, TranspositionTable transpositionTable, int threads) {
+        this.owner = owner;
+        this.transpositionTable = transpositionTable;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Etsii parhaan siirron iteratiivisesti syventen annettuun syvyyteen asti.
+     * Jokainen kierros jakaa tyn uudelleen, ja edellisten kierrosten parhaat
+     * siirrot tutkitaan vaihtotaulukon avulla ensimmisin.
+     * @param line    Taulukko (koko vhintn <tt>depth + 1</tt>), johon viimeisen
+     *                valmiin kierroksen pjuoni kopioidaan <tt>null</tt>-arvolla
+     *                ptettyn. Jos yksikn kierros ei valmistunut, <tt>line[0]</tt>
+     *                on <tt>null</tt>.
+     * @return Viimeisen valmiin kierroksen arvo
+     */
+    public short search(SearchPosition position, byte depth, byte quiescenceDepth, Move[] line) {
+        this.player = position.getActivePlayer();
+        this.quiescenceDepth = quiescenceDepth;
+        this.resetStatistics();
+
+        short best = MillAI.MIN_VALUE;
+        line[0] = null;
+        for (int iteration = 1; iteration <= depth && !this.stopped; iteration++) {
+            this.depthLimit = (byte)iteration;
+            this.root = new SplitPoint(null, true, MillAI.MIN_VALUE, MillAI.MAX_VALUE);
+            SplitTask task = new SplitTask(new SearchPosition(position), (byte)0, this.root);
+            this.pool.invoke(task);
+            if (this.stopped) {
+                break;
+            }
+            best = task.value;
+            for (int ply = 0; ply <= iteration; ply++) {
+                line[ply] = task.line[ply];
+            }
+        }
+        this.root = null;
+        return best;
+    }
+
+    /**
+     * Nollaa keskeytyksen. Haku ei nollaa sit itse, jotta ennen haun alkua
+     * tullut keskeytys ei katoa.
+     */
+    void clearStop() {
+        this.stopped = false;
+    }
+
+    /** Keskeytt kynniss olevan haun*/
+    public void stop() {
+        this.stopped = true;
+        SplitPoint current = this.root;
+        if (current != null) {
+            current.abort();
+        }
+    }
+
+    /** Kaikkien sikeiden avaamat solmut viimeisimmss haussa*/
+    public long getNodes() {
+        long nodes = this.splitNodes.get();
+        synchronized (this.workers) {
+            for (int index = 0; index < this.workers.size(); index++) {
+                nodes += this.workers.get(index).getNodes();
+            }
+        }
+        return nodes;
+    }
+
+    /** Kaikkien sikeiden avaamat lepohaun solmut viimeisimmss haussa*/
+    public long getQuiescenceNodes() {
+        long nodes = 0;
+        synchronized (this.workers) {
+            for (int index = 0; index < this.workers.size(); index++) {
+                nodes += this.workers.get(index).getQuiescenceNodes();
+            }
+        }
+        return nodes;
+    }
+
+    public void resetStatistics() {
+        this.splitNodes.set(0);
+        this.workers.clear();
+        this.workerOfThread = new ThreadLocal<MillAI>();
+    }
+
+    /** Pysytt poolin sikeet; hakua ei voi en kytt*/
+    public void shutdown() {
+        this.stop();
+        this.pool.shutdown();
+    }
+
+
+    // Jaettava solmu. parent on jakokohta, jonka lapsi tm solmu on; sen
+    // keskeytys (tai mink tahansa esivanhemman) tekee tuloksesta kyttkelvottoman.
+    // Solmun pjuoni kopioidaan taulukkoon line null-arvolla ptettyn.
+    private short search(SearchPosition position, byte ply, short alpha, short beta,
+                         SplitPoint parent, Move[] line) {
+        if (this.depthLimit - ply <= SEQUENTIAL_DEPTH) {
+            return this.getWorker().searchSubtree(position, ply, this.player, this.depthLimit,
+                                                  this.quiescenceDepth, alpha, beta, parent, line);
+        }
+        this.splitNodes.incrementAndGet();
+        line[0] = null;
+        if (ply > 0 && position.isRepetition()) {
+            return 0; // toisto on tasapeli kuten perkkisess haussa
+        }
+        short alphaOriginal = alpha;
+        short betaOriginal = beta;
+        boolean maximizing = (position.getActivePlayer() == this.player);
+        int symmetry = this.owner.usesSymmetries() ? position.getHashSymmetry() : 0;
+        long hashEntry = this.transpositionTable.probe(position.getHashKey(symmetry));
+        Move[] moves = LegalMoves.getAllLegalMoves(position);
+        this.orderMoves(moves, Move.valueOf(TranspositionTable.getMoveCode(hashEntry, symmetry)));
+        // Alkupelin juuressa symmetriset siirrot ohitetaan kuten MillAI:ssa.
+        int rootSymmetries = 1;
+        if (ply == 0 && this.owner.usesSymmetries() &&
+            position.getGameState() == MillGame.PHASE_BEGINNING) {
+                rootSymmetries = position.getInvariantSymmetries();
+        }
+
+        // Pelin pttvt siirrot ksitelln heti, kuten perkkisess haussa:
+        // voitto palautetaan, hvi on vain yksi (huono) vaihtoehto.
+        short bestValue = maximizing ? Short.MIN_VALUE : Short.MAX_VALUE;
+        int children = 0;
+        for (int moveIndex = 0; moveIndex < moves.length; moveIndex++) {
+            Move move = moves[moveIndex];
+            if (Move.isSymmetricDuplicate(move.CODE, rootSymmetries)) {
+                continue;
+            }
+            if (position.doMove(move)) {
+                short value = (position.getActivePlayer() == this.player) ? MillAI.MAX_VALUE
+                                                                          : MillAI.MIN_VALUE;
+                position.undoMove();
+                if (value == (maximizing ? MillAI.MAX_VALUE : MillAI.MIN_VALUE)) {
+                    line[0] = move;
+                    line[1] = null;
+                    this.storeHash(position, symmetry, ply, value, move, alphaOriginal, betaOriginal);
+                    return value;
+                }
+                if (maximizing ? value > bestValue : value < bestValue) {
+                    bestValue = value;
+                    line[0] = move;
+                    line[1] = null;
+                }
+                continue;
+            }
+            position.undoMove();
+            moves[children] = move;     // jljelle jvt siirrot alkuun
+            children++;
+        }
+
+        SplitPoint split = new SplitPoint(parent, maximizing, alpha, beta);
+        if (children > 0) {
+            // Vanhin veli tutkitaan yksin
+            Move[] childLine = new Move[line.length];
+            position.doMove(moves[0]);
+            short value = this.search(position, (byte)(ply +1), alpha, beta, split, childLine);
+            position.undoMove();
+            if (parent.isAborted()) {
+                line[0] = null;
+                return bestValue;
+            }
+            split.offer(value);
+            if (maximizing ? value > bestValue : value < bestValue) {
+                bestValue = value;
+                this.setLine(line, moves[0], childLine);
+            }
+        }
+        if (children > 1 && !split.isAborted()) {
+            // Nuoremmat veljet rinnakkain
+            SplitTask[] tasks = new SplitTask[children - 1];
+            for (int task = 0; task < tasks.length; task++) {
+                SearchPosition child = new SearchPosition(position);
+                child.doMove(moves[task + 1]);
+                tasks[task] = new SplitTask(child, (byte)(ply +1), split);
+                tasks[task].fork();
+            }
+            for (int task = 0; task < tasks.length; task++) {
+                tasks[task].join();
+                short value = tasks[task].value;
+                if (tasks[task].accepted &&
+                    (maximizing ? value > bestValue : value < bestValue)) {
+                    bestValue = value;
+                    this.setLine(line, moves[task + 1], tasks[task].line);
+                }
+            }
+            if (parent.isAborted()) {
+                line[0] = null;
+                return bestValue;
+            }
+        }
+        this.storeHash(position, symmetry, ply, bestValue, line[0], alphaOriginal, betaOriginal);
+        return bestValue;
+    }
+
+    // Solmun pjuoneksi tulee siirto ja sen pern lapsen pjuoni.
+    private void setLine(Move[] line, Move move, Move[] childLine) {
+        line[0] = move;
+        int length = 0;
+        while (childLine[length] != null) {
+            length++;
+        }
+        System.arraycopy(childLine, 0, line, 1, length + 1);
+    }
+
+    private MillAI getWorker() {
+        MillAI worker = this.workerOfThread.get();
+        if (worker == null) {
+            worker = this.owner.createWorker();
+            this.workerOfThread.set(worker);
+            this.workers.add(worker);
+        }
+        return worker;
+    }
+
+    // Jakokohdissa jrjestys on yksinkertainen: vaihtotaulukon siirto,
+    // sitten nappulan poistavat siirrot, muuten generointijrjestys.
+    private void orderMoves(Move[] moves, Move hashMove) {
+        int first = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            for (int index = first; index < moves.length; index++) {
+                Move move = moves[index];
+                boolean early = (pass == 0) ? move.equals(hashMove) : move.REMOVE != Move.NOWHERE;
+                if (early) {
+                    System.arraycopy(moves, first, moves, first + 1, index - first);
+                    moves[first] = move;
+                    first++;
+                }
+            }
+        }
+    }
+
+    // Kuten MillAI:n storeHash: arvo tallennetaan vuorossa olevan pelaajan nkkulmasta
+    // ja siirto sen symmetrisen kuvan siirtona, jonka avaimella solmu haettiin.
+    private void storeHash(SearchPosition position, int symmetry, byte ply, short value, Move bestMove,
+                           short alpha, short beta) {
+        if (value < MillAI.MIN_VALUE || value > MillAI.MAX_VALUE) {
+            return;
+        }
+        int bound = TranspositionTable.BOUND_EXACT;
+        if (value >= beta) {
+            bound = TranspositionTable.BOUND_LOWER;
+        }
+        else if (value <= alpha) {
+            bound = TranspositionTable.BOUND_UPPER;
+        }
+        if (position.getActivePlayer() != this.player) {
+            value = (short)-value;
+            if (bound == TranspositionTable.BOUND_LOWER) {
+                bound = TranspositionTable.BOUND_UPPER;
+            }
+            else if (bound == TranspositionTable.BOUND_UPPER) {
+                bound = TranspositionTable.BOUND_LOWER;
+            }
+        }
+        int move = (bestMove == null) ? Move.NO_MOVE : Move.getSymmetricMove(symmetry, bestMove.CODE);
+        this.transpositionTable.store(position.getHashKey(symmetry), value,
+                                      this.depthLimit - ply, bound, move);
+    }
+
+
+    /**
+     * Jakokohta: solmu, jonka lapsia tutkitaan rinnakkain. Lapset lukevat
+     * siit ajantasaiset rajat ja ilmoittavat sille arvonsa. Kun rajat
+     * kohtaavat, jakokohta keskeytetn, jolloin kaikki sen alla kynniss
+     * olevat haut palaavat mahdollisimman pian.
+     */
+    static final class SplitPoint {
+        private final SplitPoint parent;
+        private final boolean maximizing;
+        private volatile short alpha;
+        private volatile short beta;
+        private volatile boolean aborted = false;
+
+        SplitPoint(SplitPoint parent, boolean maximizing, short alpha, short beta) {
+            this.parent = parent;
+            this.maximizing = maximizing;
+            this.alpha = alpha;
+            this.beta = beta;
+        }
+
+        /** Onko tm jakokohta tai jokin sen esivanhemmista keskeytetty?*/
+        boolean isAborted() {
+            for (SplitPoint point = this; point != null; point = point.parent) {
+                if (point.aborted) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void abort() {
+            this.aborted = true;
+        }
+
+        short getAlpha() { return this.alpha; }
+
+        short getBeta() { return this.beta; }
+
+        /**
+         * Lapsen valmis arvo. Kirist rajoja ja keskeytt jakokohdan
+         * karsinnan sattuessa.
+         * @return Hyvksyttiink arvo (ei, jos haku oli jo keskeytetty)
+         */
+        synchronized boolean offer(short value) {
+            if (this.isAborted()) {
+                return false;
+            }
+            if (this.maximizing && value > this.alpha) {
+                this.alpha = value;
+            }
+            else if ( !this.maximizing && value < this.beta) {
+                this.beta = value;
+            }
+            if (this.alpha >= this.beta) {
+                this.aborted = true;
+            }
+            return true;
+        }
+    }
+
+    // Jakokohdan lapsi omana tehtvnn. Rajat luetaan vasta, kun tehtv
+    // alkaa, joten myhemmin alkavat sisaret hytyvt jo valmistuneista.
+    // Tulokset luetaan kentist, kun tehtv on valmis (join).
+    private class SplitTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final SearchPosition position;
+        private final byte ply;
+        private final SplitPoint split;
+        final Move[] line;
+        short value;
+        boolean accepted = false;
+
+        SplitTask(SearchPosition position, byte ply, SplitPoint split) {
+            this.position = position;
+            this.ply = ply;
+            this.split = split;
+            this.line = new Move[ParallelSearch.this.depthLimit + 2];
+        }
+
+        protected void compute() {
+            if (this.split.isAborted()) {
+                return;
+            }
+            this.value = ParallelSearch.this.search(this.position, this.ply, this.split.getAlpha(),
+                                                    this.split.getBeta(), this.split, this.line);
+            this.accepted = this.split.offer(this.value);
+        }
+    }
+
+
+    /**
+     * Testiohjelma: YBWC-haun arvon on oltava sama kuin perkkisen haun,
+     * jossa LMR ja turhuuskarsinta ovat pois plt ja vaihtotaulukosta
+     * hyvksytn vain saman syvyyden arvot. Tilanteet ovat
+     * <tt>Perft</tt>in vertailutilanteet ja kiintell siemenell arvotut
+     * asettelu- ja siirtelyvaiheen tilanteet.
+     * <pre>
+     *   java ParallelSearch [syvyys] [arvottuja tilanteita] [sikeit] [siemen]
+     * </pre>
+     */
+    public static void main(String[] args) {
+        byte depth = (args.length > 0) ? Byte.parseByte(args[0]) : 6;
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 20;
+        int threads = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+        long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+
+        MillGame[] reference = Perft.getReferenceGames();
+        MillGame[] games = new MillGame[reference.length + count];
+        System.arraycopy(reference, 0, games, 0, reference.length);
+        Random random = new Random(seed);
+        for (int index = reference.length; index < games.length; index++) {
+            do {
+                games[index] = new MillGame();
+                int plies = random.nextInt(40);
+                for (int ply = 0; ply < plies; ply++) {
+                    Move[] moves = LegalMoves.getAllLegalMoves(games[index]);
+                    if (games[index].makeMove(moves[random.nextInt(moves.length)])) {
+                        break;
+                    }
+                }
+            } while (games[index].getGameState() == MillGame.PHASE_GAME_OVER);
+        }
+
+        PrintStream out = System.out;
+        PrintStream silent = new PrintStream(new OutputStream() {
+            public void write(int b) {}
+        });
+        int errors = 0;
+        for (int index = 0; index < games.length; index++) {
+            MillAI sequential = new MillAI();
+            sequential.setLateMoveReductions(false);
+            sequential.setFutilityPruning(false);
+            sequential.setExactHashDepth(true);
+            MillAI parallel = new MillAI(); // oletusasetukset: tyntekijt hakevat silti tyslevesti
+            parallel.setThreads(threads);
+            parallel.setParallelMode(MillAI.PARALLEL_YBWC);
+            System.setOut(silent); // hakujen omat tulosteet
+            try {
+                sequential.depthSearch(games[index].copy(), depth);
+                parallel.depthSearch(games[index].copy(), depth);
+            }
+            finally {
+                System.setOut(out);
+                parallel.setThreads(1); // pysytt siepoolin
+            }
+            boolean same = (sequential.getBestValue() == parallel.getBestValue());
+            if ( !same) {
+                errors++;
+            }
+            System.out.println(index+": phase:"+games[index].getGameState()+
+                               " perkkin:"+sequential.getBestValue()+
+                               " ybwc:"+parallel.getBestValue()+(same ? "" : " <-- VIRHE"));
+        }
+        System.out.println("Tilanteita: "+games.length+", syvyys: "+depth+", sikeit: "+threads);
+        System.out.println("Virheit: "+errors+(errors == 0 ? " --> OK" : " --> VIRHE"));
+    }
+}
@@ -0,0 +1,337 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Siirtogeneraattorien testiohjelma. Perft laskee, montako pelitilannetta
+ * (lehte) on tsmlleen annetun syvyyden pss vertailutilanteista, ja
+ * tulostaa lehtien mrt ja nopeuden. Luvut muuttuvat vain, jos
+ * siirtojen tuottaminen tai tekeminen muuttuu.
+ * <p>
+ * Vertailutila tuottaa satunnaisia pelitilanteita ja vertaa jokaisessa
+ * nopeiden generaattorien siirtoja <tt>LegalMoves.getAllLegalMoves2</tt>-metodin
+ * siirtoihin, joka kokeilee jokaisen mahdollisen siirron snnt erikseen.
+ * <p>
+ * Kytt:
+ * <pre>
+ *   java Perft [syvyys] [sikeit]
+ *   java Perft diff [tilanteita] [siemen]
+ * </pre>
+ */
+public class Perft {
+
+    /** Vertailutilanteiden nimet ja tilanteet*/
+    private static final String[] NAMES = {
+        "alkutilanne", "alkupeli", "keskipeli", "loppupeli, lentv", "loppupeli, 3 vs 3"};
+
+    /** Ei kutsuta koskaan*/
+    private Perft() {}
+
+   /**
+    * Luo vertailutilanteet. Lauta annetaan 24 merkin jonona ruutujen
+    * jrjestyksess: '.' tyhj, 'B' musta ja 'W' valkoinen.
+    * @return Vertailutilanteet samassa jrjestyksess kuin <tt>NAMES</tt>
+    */
+    public static MillGame[] getReferenceGames() {
+        MillGame[] games = new MillGame[NAMES.length];
+        games[0] = new MillGame();
+        games[1] = createGame("BB..W..W..B...W.........", MillGame.BLACK_PLAYER,
+                              MillGame.PHASE_BEGINNING, 6, 6);
+        games[2] = createGame("B.W.BB..WBBBW.WW.BWW..WW", MillGame.WHITE_PLAYER,
+                              MillGame.PHASE_MIDGAME, 0, 0);
+        games[3] = createGame(".W..W....W...B.W..BB.W..", MillGame.BLACK_PLAYER,
+                              MillGame.PHASE_ENDGAME, 0, 0);
+        games[4] = createGame("WW.B..W.......B....B....", MillGame.WHITE_PLAYER,
+                              MillGame.PHASE_ENDGAME, 0, 0);
+        return games;
+    }
+
+    private static MillGame createGame(String squares, byte activePlayer, byte gameState,
+                                       int whitePiecesInHand, int blackPiecesInHand) {
+        if (squares.length() != BoardInfo.SQUARES_ON_BOARD) {
+            throw new IllegalArgumentException("createGame(String,...): bad board: "+squares);
+        }
+        MillBoard board = new MillBoard();
+        for (byte square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+            if (squares.charAt(square) == 'B') {
+                board.setPiece(square, BoardInfo.BLACK);
+            }
+            else if (squares.charAt(square) == 'W') {
+                board.setPiece(square, BoardInfo.WHITE);
+            }
+        }
+        MillGame game = new MillGame();
+        game.generateMillGame(board, activePlayer, gameState,
+                              (byte)whitePiecesInHand, (byte)blackPiecesInHand);
+        return game;
+    }
+
+
+   /**
+    * Laskee lehtien mrn annetussa syvyydess. Juuren siirrot jaetaan
+    * siepoolin tehtviksi, ja jokainen tehtv kytt omaa kopiotaan
+    * tilanteesta. Pttyneen pelin tilanteesta ei jatketa.
+    * @param game     Tilanne, josta lasketaan
+    * @param depth    Syvyys (0 = vain tilanne itse)
+    * @param pool     Siepooli juuren siirroille
+    * @return Lehtien mr
+    * @exception IllegalArgumentException Jos syvyys on negatiivinen.
+    */
+    public static long perft(MillGame game, int depth, ForkJoinPool pool) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("perft(MillGame,int,ForkJoinPool): "+
+                                               "depth:"+depth+" can't be negative.");
+        }
+        SearchPosition position = new SearchPosition(game);
+        if (depth <= 1) {
+            return perft(position, depth, new MoveList[depth + 1]);
+        }
+        MoveList moves = new MoveList();
+        LegalMoves.generateMoves(position, moves);
+        PerftTask[] tasks = new PerftTask[moves.size()];
+        for (int index = 0; index < tasks.length; index++) {
+            tasks[index] = new PerftTask(position, moves.get(index), depth - 1);
+        }
+        for (int index = 0; index < tasks.length; index++) {
+            pool.execute(tasks[index]);
+        }
+        long nodes = 0;
+        for (int index = 0; index < tasks.length; index++) {
+            nodes += tasks[index].join();
+        }
+        return nodes;
+    }
+
+    // Perkkinen perft. moveLists sislt listan jokaiselle syvyydelle.
+    private static long perft(SearchPosition position, int depth, MoveList[] moveLists) {
+        if (depth == 0) {
+            return 1;
+        }
+        if (moveLists[depth] == null) {
+            moveLists[depth] = new MoveList();
+        }
+        MoveList moves = moveLists[depth];
+        LegalMoves.generateMoves(position, moves);
+        if (depth == 1) {
+            return moves.size();
+        }
+        long nodes = 0;
+        for (int index = 0; index < moves.size(); index++) {
+            position.doMove(moves.get(index));
+            nodes += perft(position, depth - 1, moveLists);
+            position.undoMove();
+        }
+        return nodes;
+    }
+
+    // Yhden juurisiirron alipuu omana tehtvnn
+    private static class PerftTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        private final SearchPosition root;
+        private final int move;
+        private final int depth;
+
+        PerftTask(SearchPosition root, int move, int depth) {
+            this.root = root;
+            this.move = move;
+            this.depth = depth;
+        }
+
+        protected Long compute() {
+            SearchPosition position = new SearchPosition(this.root);
+            position.doMove(this.move);
+            return Long.valueOf(perft(position, this.depth, new MoveList[this.depth + 1]));
+        }
+    }
+
+
+   /**
+    * Vertaa nopeita generaattoreita <tt>getAllLegalMoves2</tt>-metodiin
+    * satunnaisissa tilanteissa. Puolet tilanteista syntyy satunnaisista
+    * peleist alkutilanteesta, puolet arpomalla laudan, vaiheen ja
+    * vuorossa olevan pelaajan suoraan.
+    * @param positions  Tutkittavien tilanteiden mr
+    * @param seed       Satunnaislukujen siemen
+    * @return Eroavaisuuksien mr (0, jos kaikki generaattorit tsmvt)
+    */
+    public static long compareGenerators(long positions, long seed) {
+        Random random = new Random(seed);
+        MoveList moves = new MoveList();
+        MoveList quietMoves = new MoveList();
+        boolean[] expected = new boolean[Move.CODES];
+        long errors = 0;
+        MillGame game = null;
+        for (long counter = 0; counter < positions; counter++) {
+            if (counter % 2 == 0) {
+                // Satunnaisen pelin seuraava tilanne; uusi peli, kun edellinen pttyi
+                if (game == null || game.getGameState() == MillGame.PHASE_GAME_OVER) {
+                    game = new MillGame();
+                }
+                else {
+                    Move[] legalMoves = LegalMoves.getAllLegalMoves(game);
+                    if (legalMoves.length == 0) {
+                        game = new MillGame();
+                    }
+                    else {
+                        game.makeMove(legalMoves[random.nextInt(legalMoves.length)], false);
+                    }
+                }
+                errors += compareGenerators(game, expected, moves, quietMoves);
+            }
+            else {
+                errors += compareGenerators(createRandomGame(random), expected, moves, quietMoves);
+            }
+            if (errors > 20) {
+                System.out.println("Liikaa virheit, lopetetaan.");
+                break;
+            }
+        }
+        return errors;
+    }
+
+    // Arpoo laudan (kummallakin enintn 9 nappulaa), vaiheen ja vuoron.
+    private static MillGame createRandomGame(Random random) {
+        byte[] phases = {MillGame.PHASE_BEGINNING, MillGame.PHASE_MIDGAME, MillGame.PHASE_ENDGAME};
+        byte gameState = phases[random.nextInt(phases.length)];
+        MillBoard board = new MillBoard();
+        int black = 0;
+        int white = 0;
+        int limit = 2 + random.nextInt(8);
+        for (byte square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+            int piece = random.nextInt(4);
+            if (piece == 1 && black < limit) {
+                board.setPiece(square, BoardInfo.BLACK);
+                black++;
+            }
+            else if (piece == 2 && white < limit) {
+                board.setPiece(square, BoardInfo.WHITE);
+                white++;
+            }
+        }
+        byte activePlayer = random.nextBoolean() ? MillGame.WHITE_PLAYER : MillGame.BLACK_PLAYER;
+        byte whitePiecesInHand = 0;
+        byte blackPiecesInHand = 0;
+        if (gameState == MillGame.PHASE_BEGINNING) {
+            whitePiecesInHand = (byte)(1 + random.nextInt(9 - Math.min(white, 8)));
+            blackPiecesInHand = (byte)(1 + random.nextInt(9 - Math.min(black, 8)));
+        }
+        MillGame game = new MillGame();
+        game.generateMillGame(board, activePlayer, gameState, whitePiecesInHand, blackPiecesInHand);
+        return game;
+    }
+
+    // Vertaa yhden tilanteen kaikkia generaattoreita. expected, moves ja
+    // quietMoves ovat uudelleenkytettvi apurakenteita.
+    private static long compareGenerators(MillGame game, boolean[] expected,
+                                          MoveList moves, MoveList quietMoves) {
+        long errors = 0;
+        Move[] reference = LegalMoves.getAllLegalMoves2(game);
+        Arrays.fill(expected, false);
+        for (int index = 0; index < reference.length; index++) {
+            expected[reference[index].CODE] = true;
+        }
+        SearchPosition position = new SearchPosition(game);
+
+        LegalMoves.generateMoves(position, moves);
+        errors += compare("generateMoves", game, expected, reference.length, moves);
+
+        MoveList fromArray = new MoveList();
+        Move[] allMoves = LegalMoves.getAllLegalMoves(game);
+        for (int index = 0; index < allMoves.length; index++) {
+            fromArray.add(allMoves[index].CODE);
+        }
+        errors += compare("getAllLegalMoves", game, expected, reference.length, fromArray);
+
+        // Myllyn sulkevat ja hiljaiset siirrot yhdess ovat kaikki siirrot
+        LegalMoves.generateMillClosingMoves(position, moves);
+        LegalMoves.generateQuietMoves(position, quietMoves);
+        for (int index = 0; index < moves.size(); index++) {
+            if (Move.getRemove(moves.get(index)) == Move.NOWHERE) {
+                errors += report("generateMillClosingMoves: no removal", game, moves.get(index));
+            }
+        }
+        for (int index = 0; index < quietMoves.size(); index++) {
+            if (Move.getRemove(quietMoves.get(index)) != Move.NOWHERE) {
+                errors += report("generateQuietMoves: removal", game, quietMoves.get(index));
+            }
+            moves.add(quietMoves.get(index));
+        }
+        errors += compare("generateMillClosingMoves+generateQuietMoves", game, expected,
+                          reference.length, moves);
+
+        // Yksittisen siirron tarkistus jokaiselle mahdolliselle siirrolle
+        for (int from = Move.NOWHERE; from < BoardInfo.SQUARES_ON_BOARD; from++) {
+            for (int to = 0; to < BoardInfo.SQUARES_ON_BOARD; to++) {
+                for (int remove = Move.NOWHERE; remove < BoardInfo.SQUARES_ON_BOARD; remove++) {
+                    int move = Move.encode(from, to, remove);
+                    if (LegalMoves.isLegalMove(position, move) != expected[move]) {
+                        errors += report("isLegalMove: "+!expected[move], game, move);
+                    }
+                }
+            }
+        }
+        return errors;
+    }
+
+    // Vertaa listaa odotettuihin siirtoihin: jokainen siirto kerran, ei muita.
+    private static long compare(String generator, MillGame game, boolean[] expected,
+                                int expectedCount, MoveList moves) {
+        long errors = 0;
+        boolean[] seen = new boolean[Move.CODES];
+        for (int index = 0; index < moves.size(); index++) {
+            int move = moves.get(index);
+            if ( !expected[move]) {
+                errors += report(generator+": illegal move", game, move);
+            }
+            else if (seen[move]) {
+                errors += report(generator+": duplicate move", game, move);
+            }
+            seen[move] = true;
+        }
+        if (moves.size() != expectedCount && errors == 0) {
+            errors += report(generator+": "+moves.size()+" moves instead of "+expectedCount,
+                             game, Move.NO_MOVE);
+        }
+        return errors;
+    }
+
+    private static long report(String message, MillGame game, int move) {
+        System.out.println(message+" "+Move.valueOf(move)+" phase:"+game.getGameState()+
+                           " player:"+game.getActivePlayer()+"\n"+game);
+        return 1;
+    }
+
+
+    /** Testiohjelma*/
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("diff")) {
+            long positions = (args.length > 1) ? Long.parseLong(args[1]) : 1000000;
+            long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+            long started = System.currentTimeMillis();
+            long errors = compareGenerators(positions, seed);
+            System.out.println("Tilanteita: "+positions+", virheit: "+errors+" --> 0 OK"+
+                               " ("+(System.currentTimeMillis() - started)+" ms)");
+            return;
+        }
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 4;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1])
+                                        : Runtime.getRuntime().availableProcessors();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        MillGame[] games = getReferenceGames();
+        long totalNodes = 0;
+        long totalTime = 0;
+        for (int index = 0; index < games.length; index++) {
+            long started = System.nanoTime();
+            long nodes = perft(games[index], depth, pool);
+            long time = Math.max(System.nanoTime() - started, 1);
+            totalNodes += nodes;
+            totalTime += time;
+            System.out.println(NAMES[index]+": depth:"+depth+" nodes:"+nodes+
+                               " time:"+time / 1000000+"ms nps:"+nodes * 1000000000L / time);
+        }
+        System.out.println("yhteens: nodes:"+totalNodes+" time:"+totalTime / 1000000+"ms"+
+                           " nps:"+totalNodes * 1000000000L / totalTime+" threads:"+threads);
+        pool.shutdown();
+    }
+}
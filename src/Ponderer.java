@@ -0,0 +1,186 @@
+/**
+ * Pohdinta vastustajan ajalla. Kun tekoly on siirtnyt, se jatkaa hakua
+ * tilanteesta, johon vastustajan odotettu vastaus (edellisen haun pjuonen
+ * toinen siirto) johtaisi. Jos vastustaja tekee odotetun siirron (osuma), haku
+ * saa tavalliset aikarajansa ja pohdinnan aika lasketaan niihin, joten siirto
+ * syntyy nopeammin. Muuten (huti) haku keskeytetn, ja varsinainen haku
+ * hytyy pohdinnan tyttmst vaihtotaulukosta.
+ * <p>
+ * Kytt: <tt>start</tt> tekolyn siirron jlkeen, <tt>opponentMoved</tt>
+ * heti vastustajan siirron tultua ja <tt>getResult</tt>, kun tekolyn siirtoa
+ * tarvitaan. Jos <tt>getResult</tt> palauttaa <tt>null</tt>, siirto haetaan
+ * tavalliseen tapaan. Pohdinnan aikana tekolyll ei saa hakea muuta, ja
+ * <tt>getResult</tt> lopettaa pohdinnan joka tapauksessa.
+ */
+final class Ponderer {
+
+    private final MillAI ai;
+    private Thread thread = null;
+    private Thread cancelled = null; // keskeytetty sie, jota ei ole viel odotettu
+    private Move expectedReply = null;
+    private long expectedKey = 0;
+    private volatile boolean hit = false;
+    private volatile SearchResult result = null;
+
+    Ponderer(MillAI ai) {
+        if (ai == null) {
+            throw new IllegalArgumentException("Ponderer(MillAI): Parameter 'MillAI' can't be null.");
+        }
+        this.ai = ai;
+    }
+
+   /**
+    * Aloittaa pohdinnan, jos tekolyn viimeisimmn haun pjuonessa on
+    * vastustajan odotettu vastaus. Edellinen pohdinta lopetetaan ensin.
+    * @param game Tilanne tekolyn siirron jlkeen (vastustaja vuorossa)
+    * @return Aloitettiinko pohdinta
+    */
+    synchronized boolean start(MillGame game) {
+        this.stop();
+        Move reply = this.ai.getExpectedReply();
+        if (reply == null || game.getGameState() == MillGame.PHASE_GAME_OVER) {
+            return false;
+        }
+        final MillGame expected = game.copy();
+        try {
+            if (expected.makeMove(reply)) {
+                return false; // vastustaja voittaisi: ei pohdittavaa
+            }
+        }
+        catch (IllegalArgumentException e) {
+            return false; // pjuoni ei sovi tilanteeseen
+        }
+        this.expectedReply = reply;
+        this.expectedKey = expected.getHashKey();
+        this.hit = false;
+        this.result = null;
+        this.ai.preparePondering();
+        this.thread = new Thread("Ponderer") {
+            public void run() {
+                Ponderer.this.result = Ponderer.this.ai.ponderSearch(expected);
+            }
+        };
+        this.thread.setDaemon(true);
+        this.thread.start();
+        return true;
+    }
+
+    synchronized boolean isPondering() {
+        return this.thread != null;
+    }
+
+   /**
+    * Vastustaja teki siirron <tt>move</tt>. Osumalla pohdinta saa aikarajat,
+    * hudilla se keskeytetn. Ei odota haun pttymist. Kutsutaan vain,
+    * kun siirto on hyvksytty ja tehty peliin.
+    * @return Oliko siirto odotettu
+    */
+    synchronized boolean opponentMoved(Move move, long softMillis, long hardMillis) {
+        if (this.thread == null) {
+            return false;
+        }
+        this.hit = (this.expectedReply.CODE == move.CODE);
+        if (this.hit) {
+            this.ai.ponderHit(softMillis, hardMillis);
+        }
+        else {
+            this.ai.stopPondering();
+        }
+        return this.hit;
+    }
+
+    /** Kuten <tt>opponentMoved(Move,long,long)</tt> <tt>timeSearch</tt>-hakua vastaavilla aikarajoilla*/
+    boolean opponentMoved(Move move, int timeLimitSeconds) {
+        long hardMillis = timeLimitSeconds*1000L;
+        return this.opponentMoved(move, (long)(hardMillis*TimeManager.DEFAULT_SOFT_FRACTION), hardMillis);
+    }
+
+   /**
+    * Odottaa pohdinnan pttymist. Lukkoa ei pidet odotuksen aikana, joten
+    * <tt>cancel</tt> voi keskeytt osuman jlkeisenkin haun.
+    * @param game Tilanne, johon tekoly tarvitsee siirron
+    * @return Osuman tuloksena syntynyt siirto tai <tt>null</tt>, jos pohdintaa
+    *         ei ollut, siirto ei ollut odotettu, pohdinta keskeytettiin tai
+    *         pohdittu tilanne ei ole <tt>game</tt> (esim. siirto on peruttu).
+    */
+    Move getResult(MillGame game) {
+        Thread pondering;
+        synchronized (this) {
+            this.joinCancelled();
+            if (this.thread == null) {
+                return null;
+            }
+            if ( !this.hit) {
+                this.ai.stopPondering();
+            }
+            pondering = this.thread;
+        }
+        join(pondering);
+        synchronized (this) {
+            if (this.thread == pondering) {
+                this.thread = null;
+            }
+            else {
+                this.joinCancelled(); // keskeytetty odotuksen aikana (jo pttynyt)
+                return null;
+            }
+            if ( !this.hit || this.result == null || game.getHashKey() != this.expectedKey) {
+                return null;
+            }
+            return this.result.getMove();
+        }
+    }
+
+    /** Lopettaa pohdinnan ja odottaa, ett sen sie on pttynyt.*/
+    synchronized void stop() {
+        this.joinCancelled();
+        if (this.thread == null) {
+            return;
+        }
+        this.hit = false;
+        this.ai.stopPondering();
+        join(this.thread);
+        this.thread = null;
+    }
+
+   /**
+    * Pyyt pohdintaa lopettamaan odottamatta sit (esim. kyttliittymn
+    * sikeest) ja unohtaa pohditun tilanteen, joten myhempi osuma ei voi
+    * kytt keskeytetty hakua. Sie odotetaan seuraavassa <tt>start</tt>-,
+    * <tt>getResult</tt>- tai <tt>stop</tt>-kutsussa ennen kuin tekolyll
+    * haetaan muuta.
+    */
+    synchronized void cancel() {
+        this.hit = false;
+        this.ai.stopPondering();
+        if (this.thread != null) {
+            this.cancelled = this.thread;
+            this.thread = null;
+        }
+        this.expectedReply = null;
+        this.expectedKey = 0;
+    }
+
+    // Keskeytetty sie on jo pyydetty lopettamaan, joten odotus on lyhyt.
+    private void joinCancelled() {
+        if (this.cancelled != null) {
+            join(this.cancelled);
+            this.cancelled = null;
+        }
+    }
+
+    private static void join(Thread thread) {
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
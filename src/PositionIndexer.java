@@ -0,0 +1,508 @@
+import java.util.Random;
+
+/**
+ * Luokan <tt>PositionIndexer</tt> ilmentymt numeroivat pelitilanteet
+ * tihesti: jokainen tilanne kuuluu osa-avaruuteen, jonka mrvt
+ * nappuloiden mrt laudalla, ksinappuloiden mrt, vuorossa oleva
+ * pelaaja ja pelivaihe, ja saa osa-avaruuden sisll indeksin
+ * <tt>0 <= indeksi < getSubspaceSize(osa-avaruus)</tt>. Indeksill voi
+ * kytt taulukoita tilanteiden tietokantoina, kytyjen tilanteiden
+ * bittijoukkoina tms.
+ * <p>
+ * Indeksi lasketaan kombinatorisen lukujrjestelmn jrjestysnumeroilla:
+ * ensin valkeiden ruudut 24 ruudusta, sitten mustien ruudut jljelle
+ * jvist. Jrjestysnumero lasketaan puolikkaittain: ruudut jaetaan
+ * kahteen 12 ruudun puolikkaaseen, joiden jrjestysnumerot haetaan
+ * taulukosta, ja ne yhdistetn lohkoihin sen mukaan, montako ruutua
+ * alemmassa puolikkaassa on. Numerointi on silti tihe, ja sek
+ * jrjestysnumero ett sen knteistoimitus ovat muutama taulukkohaku
+ * ilman olioiden luontia.
+ * <p>
+ * Symmetrioita hydyntv numerointi antaa kaikille 16 symmetriselle
+ * tilanteelle saman indeksin. Valkeiden ruudut korvataan symmetrialuokkansa
+ * edustajalla (luokat numeroidaan taulukoilla), joten osa-avaruus on lhes
+ * 16 kertaa pienempi. Jos edustajalla on omia symmetrioita, mustien ruuduista
+ * valitaan niill pienin kuva; muut kuvat jvt indeksein kyttmtt.
+ */
+public final class PositionIndexer {
+
+    /** Nappuloiden enimmismr laudalla ja kdess kummallakin pelaajalla*/
+    public static final int MAX_PIECES = 9;
+
+    // Binomikertoimet C(n, k), 0 <= k <= n <= 24
+    private static final int[][] BINOMIALS = new int[BoardInfo.SQUARES_ON_BOARD + 1][BoardInfo.SQUARES_ON_BOARD + 1];
+
+    // Puolikkaan ruudut: jrjestysnumerot bittimaskeittain ja bittimaskit
+    // koon ja jrjestysnumeron mukaan (12 ruudun kombinatorinen lukujrjestelm).
+    private static final int HALF = 12;
+    private static final int HALF_MASK = (1 << HALF) - 1;
+    private static final short[] HALF_RANKS = new short[1 << HALF];
+    private static final short[][] HALF_SETS = new short[HALF + 1][];
+
+    // Lohkojen alut: BLOCKS[n][k][j] on ensimminen jrjestysnumero, jossa
+    // n ruudun k nappulasta j on alemmassa puolikkaassa. Mahdottomat j:t ovat
+    // 0 (liian pienet) tai Integer.MAX_VALUE (liian suuret), jolloin lohkon voi
+    // valita laskemalla alut, jotka ovat enintn jrjestysnumero.
+    private static final int[][][] BLOCKS = new int[BoardInfo.SQUARES_ON_BOARD + 1][][];
+
+    static {
+        for (int n = 0; n <= BoardInfo.SQUARES_ON_BOARD; n++) {
+            BINOMIALS[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                BINOMIALS[n][k] = BINOMIALS[n - 1][k - 1] + BINOMIALS[n - 1][k];
+            }
+        }
+        // Saman kokoisten joukkojen jrjestys on bittimaskien suuruusjrjestys.
+        int[] counts = new int[HALF + 1];
+        for (int k = 0; k <= HALF; k++) {
+            HALF_SETS[k] = new short[BINOMIALS[HALF][k]];
+        }
+        for (int mask = 0; mask <= HALF_MASK; mask++) {
+            int k = Integer.bitCount(mask);
+            HALF_RANKS[mask] = (short)counts[k];
+            HALF_SETS[k][counts[k]++] = (short)mask;
+        }
+        for (int n = HALF; n <= BoardInfo.SQUARES_ON_BOARD; n++) {
+            int high = n - HALF;
+            BLOCKS[n] = new int[n + 1][HALF + 1];
+            for (int k = 0; k <= n; k++) {
+                int offset = 0;
+                for (int j = 0; j <= HALF; j++) {
+                    if (k - j > high) {
+                        BLOCKS[n][k][j] = 0;
+                    }
+                    else if (j > k) {
+                        BLOCKS[n][k][j] = Integer.MAX_VALUE;
+                    }
+                    else {
+                        BLOCKS[n][k][j] = offset;
+                        offset += BINOMIALS[high][k - j] * BINOMIALS[HALF][j];
+                    }
+                }
+            }
+        }
+    }
+
+    // Osa-avaruuden tunnuksen kentt: valkeat ja mustat laudalla, valkean ja
+    // mustan ksinappulat (4 bitti kukin), vuoro (1 = musta) ja pelivaihe.
+    private static final int BLACK_SHIFT = 4,
+                             WHITE_HAND_SHIFT = 8,
+                             BLACK_HAND_SHIFT = 12,
+                             PLAYER_SHIFT = 16,
+                             STATE_SHIFT = 17;
+
+    private final boolean symmetric;
+
+    // Symmetrisen numeroinnin taulukot valkeiden mrittin: valkeiden ruutujen
+    // jrjestysnumerosta luokan numero (bitit 4-) ja symmetria, joka kuvaa ruudut
+    // luokan edustajaksi (bitit 0-3); luokan numerosta edustaja ja sen omat
+    // symmetriat bittimaskina.
+    private final int[][] classes;
+    private final int[][] classSquares;
+    private final short[][] classInvariants;
+
+   /**
+    * Luo numeroijan.
+    * @param symmetric Saavatko symmetriset tilanteet saman indeksin?
+    *                  Symmetrian taulukot vievt noin 11 megatavua.
+    */
+    public PositionIndexer(boolean symmetric) {
+        this.symmetric = symmetric;
+        if ( !symmetric) {
+            this.classes = null;
+            this.classSquares = null;
+            this.classInvariants = null;
+            return;
+        }
+        this.classes = new int[MAX_PIECES + 1][];
+        this.classSquares = new int[MAX_PIECES + 1][];
+        this.classInvariants = new short[MAX_PIECES + 1][];
+        for (int pieces = 0; pieces <= MAX_PIECES; pieces++) {
+            int sets = BINOMIALS[BoardInfo.SQUARES_ON_BOARD][pieces];
+            int[] classOf = new int[sets];
+            byte[] symmetryOf = new byte[sets];
+            int[] representatives = new int[sets];
+            short[] invariants = new short[sets];
+            int classCount = 0;
+            // Ensin luokkien edustajat (pienin kuva on joukko itse), sitten
+            // muut joukot edustajansa luokkaan.
+            for (int rank = 0; rank < sets; rank++) {
+                int squares = getSquares(rank, pieces, BoardInfo.SQUARES_ON_BOARD);
+                int smallest = squares;
+                int symmetry = 0;
+                for (int other = 1; other < BoardInfo.SYMMETRIES; other++) {
+                    int image = BoardInfo.getSymmetricMask(other, squares);
+                    if (image < smallest) {
+                        smallest = image;
+                        symmetry = other;
+                    }
+                }
+                if (smallest == squares) {
+                    representatives[classCount] = squares;
+                    invariants[classCount] = (short)BoardInfo.getInvariantSymmetries(squares, 0);
+                    classOf[rank] = classCount++ << 4;
+                }
+                symmetryOf[rank] = (byte)symmetry;
+            }
+            for (int rank = 0; rank < sets; rank++) {
+                if (symmetryOf[rank] != 0) {
+                    int squares = getSquares(rank, pieces, BoardInfo.SQUARES_ON_BOARD);
+                    int smallest = BoardInfo.getSymmetricMask(symmetryOf[rank], squares);
+                    classOf[rank] = classOf[getRank(smallest, BoardInfo.SQUARES_ON_BOARD)] | symmetryOf[rank];
+                }
+            }
+            this.classes[pieces] = classOf;
+            this.classSquares[pieces] = java.util.Arrays.copyOf(representatives, classCount);
+            this.classInvariants[pieces] = java.util.Arrays.copyOf(invariants, classCount);
+        }
+    }
+
+    /** Saavatko symmetriset tilanteet saman indeksin?*/
+    public boolean isSymmetric() { return this.symmetric; }
+
+
+   /**
+    * Palauttaa pelin tilanteen osa-avaruuden tunnuksen.
+    * @param game    Peli
+    * @return Tunnus, jota voi tutkia <tt>get</tt>-metodeilla
+    */
+    public static int getSubspace(MillGame game) {
+        MillBoard board = game.getMillBoard();
+        return getSubspace(board.countSquares(BoardInfo.WHITE), board.countSquares(BoardInfo.BLACK),
+                           game.getWhitePiecesInHand(), game.getBlackPiecesInHand(),
+                           game.getActivePlayer(), game.getGameState());
+    }
+
+   /**
+    * Palauttaa osa-avaruuden tunnuksen sen osista.
+    * @param whitePieces          Valkeita laudalla, 0..9
+    * @param blackPieces          Mustia laudalla, 0..9
+    * @param whitePiecesInHand    Valkean ksinappulat, 0..9
+    * @param blackPiecesInHand    Mustan ksinappulat, 0..9
+    * @param activePlayer         <tt>MillGame.WHITE_PLAYER</tt> tai <tt>MillGame.BLACK_PLAYER</tt>
+    * @param gameState            Pelivaihe, esim. <tt>MillGame.PHASE_MIDGAME</tt>
+    * @return Osa-avaruuden tunnus
+    * @exception IllegalArgumentException Jos jokin osista on sallitun alueen ulkopuolella.
+    */
+    public static int getSubspace(int whitePieces, int blackPieces, int whitePiecesInHand, int blackPiecesInHand,
+                                  byte activePlayer, byte gameState) throws IllegalArgumentException {
+        if (whitePieces < 0 || whitePieces > MAX_PIECES || blackPieces < 0 || blackPieces > MAX_PIECES ||
+            whitePiecesInHand < 0 || whitePiecesInHand > MAX_PIECES ||
+            blackPiecesInHand < 0 || blackPiecesInHand > MAX_PIECES) {
+                throw new IllegalArgumentException("getSubspace(int,int,int,int,byte,byte): "+
+                                                   "bad piece counts: "+whitePieces+", "+blackPieces+", "+
+                                                   whitePiecesInHand+", "+blackPiecesInHand);
+        }
+        if ((activePlayer != MillGame.WHITE_PLAYER && activePlayer != MillGame.BLACK_PLAYER) ||
+            gameState < MillGame.PHASE_BEGINNING || gameState > MillGame.PHASE_GAME_OVER) {
+                throw new IllegalArgumentException("getSubspace(int,int,int,int,byte,byte): "+
+                                                   "bad player:"+activePlayer+" or game state:"+gameState);
+        }
+        return whitePieces | (blackPieces << BLACK_SHIFT) |
+               (whitePiecesInHand << WHITE_HAND_SHIFT) | (blackPiecesInHand << BLACK_HAND_SHIFT) |
+               ((activePlayer == MillGame.BLACK_PLAYER ? 1 : 0) << PLAYER_SHIFT) |
+               (gameState << STATE_SHIFT);
+    }
+
+    /** Valkeiden nappuloiden mr laudalla*/
+    public static int getWhitePieces(int subspace) { return subspace & 0xF; }
+
+    /** Mustien nappuloiden mr laudalla*/
+    public static int getBlackPieces(int subspace) { return (subspace >>> BLACK_SHIFT) & 0xF; }
+
+    /** Valkean ksinappuloiden mr*/
+    public static int getWhitePiecesInHand(int subspace) { return (subspace >>> WHITE_HAND_SHIFT) & 0xF; }
+
+    /** Mustan ksinappuloiden mr*/
+    public static int getBlackPiecesInHand(int subspace) { return (subspace >>> BLACK_HAND_SHIFT) & 0xF; }
+
+    /** Vuorossa oleva pelaaja*/
+    public static byte getActivePlayer(int subspace) {
+        return ((subspace >>> PLAYER_SHIFT) & 1) != 0 ? MillGame.BLACK_PLAYER : MillGame.WHITE_PLAYER;
+    }
+
+    /** Pelivaihe*/
+    public static byte getGameState(int subspace) { return (byte)(subspace >>> STATE_SHIFT); }
+
+   /**
+    * Osa-avaruuden indeksien mr. Laudan ulkopuoliset tiedot eivt vaikuta
+    * kokoon, joten se riippuu vain nappuloiden mrist laudalla.
+    * @param subspace    Osa-avaruuden tunnus
+    * @return Indeksien mr
+    */
+    public long getSubspaceSize(int subspace) {
+        int white = getWhitePieces(subspace);
+        int black = getBlackPieces(subspace);
+        int whiteSets = this.symmetric ? this.classSquares[white].length
+                                       : BINOMIALS[BoardInfo.SQUARES_ON_BOARD][white];
+        return (long)whiteSets * BINOMIALS[BoardInfo.SQUARES_ON_BOARD - white][black];
+    }
+
+   /**
+    * Palauttaa pelin tilanteen indeksin osa-avaruudessaan
+    * (ks. <tt>getSubspace(MillGame)</tt>).
+    * @param game    Peli
+    * @return Indeksi
+    */
+    public long getIndex(MillGame game) {
+        MillBoard board = game.getMillBoard();
+        return this.getIndex(board.getMask(BoardInfo.WHITE), board.getMask(BoardInfo.BLACK));
+    }
+
+   /**
+    * Palauttaa laudan indeksin osa-avaruudessa, jonka nappuloiden mrt
+    * ovat annettujen ruutujen mrt. Metodi ei luo olioita.
+    * @param whiteSquares    Valkeiden ruudut bittimaskina
+    * @param blackSquares    Mustien ruudut bittimaskina, erilln valkeista
+    * @return Indeksi
+    */
+    public long getIndex(int whiteSquares, int blackSquares) {
+        int white = Integer.bitCount(whiteSquares);
+        int black = Integer.bitCount(blackSquares);
+        long stride = BINOMIALS[BoardInfo.SQUARES_ON_BOARD - white][black];
+        int free = BoardInfo.SQUARES_ON_BOARD - white;
+        if ( !this.symmetric) {
+            return getRank(whiteSquares, BoardInfo.SQUARES_ON_BOARD) * stride +
+                   getRank(compress(blackSquares, whiteSquares), free);
+        }
+        int rank = getRank(whiteSquares, BoardInfo.SQUARES_ON_BOARD);
+        int whiteClass = this.classes[white][rank];
+        int first = BoardInfo.getSymmetricMask(whiteClass & 0xF, blackSquares);
+        whiteClass >>>= 4;
+        int representative = this.classSquares[white][whiteClass];
+        int image = first;
+        int invariants = this.classInvariants[white][whiteClass] & 0xFFFE; // ei identiteetti
+        for ( ; invariants != 0; invariants &= invariants - 1) {
+            int other = BoardInfo.getSymmetricMask(Integer.numberOfTrailingZeros(invariants), first);
+            if (other < image) {
+                image = other;
+            }
+        }
+        return whiteClass * stride + getRank(compress(image, representative), free);
+    }
+
+   /**
+    * Palauttaa osa-avaruuden indeksi vastaavan laudan. Symmetrisess
+    * numeroinnissa lauta on luokkansa edustaja. Metodi ei luo olioita.
+    * @param subspace    Osa-avaruuden tunnus
+    * @param index       Indeksi, <tt>0 <= index < getSubspaceSize(subspace)</tt>
+    * @return Lauta muodossa <tt>(valkeat << 24) | mustat</tt> kuten
+    *         <tt>BoardInfo.getCanonicalKey</tt>
+    */
+    public long getBoard(int subspace, long index) {
+        int white = getWhitePieces(subspace);
+        int black = getBlackPieces(subspace);
+        int stride = BINOMIALS[BoardInfo.SQUARES_ON_BOARD - white][black];
+        // Useimmat indeksit mahtuvat int-lukuun, jonka jakolasku on nopeampi.
+        int whiteRank = (index < Integer.MAX_VALUE) ? (int)index / stride : (int)(index / stride);
+        int whiteSquares = this.symmetric ? this.classSquares[white][whiteRank]
+                                          : getSquares(whiteRank, white, BoardInfo.SQUARES_ON_BOARD);
+        int blackSquares = expand(getSquares((int)(index - (long)whiteRank * stride), black,
+                                             BoardInfo.SQUARES_ON_BOARD - white), whiteSquares);
+        return ((long)whiteSquares << 24) | blackSquares;
+    }
+
+   /**
+    * Palauttaa osa-avaruuden indeksi vastaavan pelin.
+    * @param subspace    Osa-avaruuden tunnus
+    * @param index       Indeksi, <tt>0 <= index < getSubspaceSize(subspace)</tt>
+    * @return Uusi peli, jossa ei ole historiaa
+    */
+    public MillGame getGame(int subspace, long index) {
+        long squares = this.getBoard(subspace, index);
+        MillBoard board = new MillBoard();
+        for (int square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+            if ((squares & (1L << (square + 24))) != 0) {
+                board.setPiece((byte)square, BoardInfo.WHITE);
+            }
+            else if ((squares & (1L << square)) != 0) {
+                board.setPiece((byte)square, BoardInfo.BLACK);
+            }
+        }
+        MillGame game = new MillGame();
+        game.generateMillGame(board, getActivePlayer(subspace), getGameState(subspace),
+                              (byte)getWhitePiecesInHand(subspace), (byte)getBlackPiecesInHand(subspace));
+        return game;
+    }
+
+
+   /**
+    * Joukon jrjestysnumero <tt>n</tt> ruudun joukkojen joukossa, joissa on
+    * yht monta ruutua.
+    * @param squares  Ruudut bittimaskina, kaikki pienempi kuin <tt>n</tt>
+    * @param n        Ruutujen mr, <tt>12 <= n <= 24</tt>
+    * @return Jrjestysnumero, <tt>0 <= rank < C(n, |squares|)</tt>
+    */
+    private static int getRank(int squares, int n) {
+        int low = squares & HALF_MASK;
+        int lowCount = Integer.bitCount(low);
+        return BLOCKS[n][Integer.bitCount(squares)][lowCount] +
+               HALF_RANKS[squares >>> HALF] * BINOMIALS[HALF][lowCount] + HALF_RANKS[low];
+    }
+
+   /**
+    * <tt>getRank</tt>-metodin knteistoimitus.
+    * @param rank     Jrjestysnumero
+    * @param count    Joukon koko
+    * @param n        Ruutujen mr, <tt>12 <= n <= 24</tt>
+    * @return Ruudut bittimaskina
+    */
+    private static int getSquares(int rank, int count, int n) {
+        // Lohko valitaan ilman ehdollisia hyppyj: alemman puolikkaan koko on
+        // niiden lohkojen mr, jotka alkavat viimeistn jrjestysnumerossa.
+        int[] blocks = BLOCKS[n][count];
+        int lowCount = 0;
+        for (int j = 1; j <= HALF; j++) {
+            lowCount += (blocks[j] - rank - 1) >>> 31;
+        }
+        int rest = rank - blocks[lowCount];
+        int lowSets = BINOMIALS[HALF][lowCount];
+        int high = rest / lowSets;
+        return HALF_SETS[lowCount][rest - high * lowSets] | (HALF_SETS[count - lowCount][high] << HALF);
+    }
+
+    /** Numeroi ruudut uudelleen jtten pois ruudut <tt>occupied</tt>*/
+    private static int compress(int squares, int occupied) {
+        // Poistetaan varattujen ruutujen bitit pienimmst alkaen; aiemmat
+        // poistot ovat siirtneet seuraavaa varattua ruutua alaspin.
+        for (int removed = 0; occupied != 0; occupied &= occupied - 1, removed++) {
+            int below = ((occupied & -occupied) >>> removed) - 1;
+            squares = (squares & below) | ((squares >>> 1) & ~below);
+        }
+        return squares;
+    }
+
+    /** <tt>compress</tt>-metodin knteistoimitus*/
+    private static int expand(int squares, int occupied) {
+        // Listn nollabitti kunkin varatun ruudun kohdalle pienimmst alkaen.
+        for ( ; occupied != 0; occupied &= occupied - 1) {
+            int below = (occupied & -occupied) - 1;
+            squares = (squares & below) | ((squares & ~below) << 1);
+        }
+        return squares;
+    }
+
+
+    // Satunnainen lauta, jossa on annetut mrt nappuloita.
+    private static long randomBoard(Random random, int white, int black) {
+        int whiteSquares = 0;
+        while (Integer.bitCount(whiteSquares) < white) {
+            whiteSquares |= 1 << random.nextInt(BoardInfo.SQUARES_ON_BOARD);
+        }
+        int blackSquares = 0;
+        while (Integer.bitCount(blackSquares) < black) {
+            blackSquares |= (1 << random.nextInt(BoardInfo.SQUARES_ON_BOARD)) & ~whiteSquares;
+        }
+        return ((long)whiteSquares << 24) | blackSquares;
+    }
+
+    /** Testiohjelma: oikeellisuus ja nopeus*/
+	public static void main(String[] args) {
+        Random random = new Random(5);
+        PositionIndexer plain = new PositionIndexer(false);
+        long started = System.currentTimeMillis();
+        PositionIndexer folded = new PositionIndexer(true);
+        System.out.println("symmetry tables: "+(System.currentTimeMillis() - started)+"ms");
+
+        // Tavallinen numerointi on bijektio; symmetrisess numeroinnissa
+        // symmetriset laudat saavat saman indeksin ja edustajan indeksi silyy.
+        int errors = 0;
+        for (int counter = 0; counter < 1000000; counter++) {
+            int white = random.nextInt(MAX_PIECES + 1);
+            int black = random.nextInt(MAX_PIECES + 1);
+            int subspace = getSubspace(white, black, 0, 0, MillGame.WHITE_PLAYER, MillGame.PHASE_MIDGAME);
+            long board = randomBoard(random, white, black);
+            int whiteSquares = (int)(board >>> 24);
+            int blackSquares = (int)board & BoardInfo.ALL_SQUARES_MASK;
+            long index = plain.getIndex(whiteSquares, blackSquares);
+            if (index < 0 || index >= plain.getSubspaceSize(subspace) || plain.getBoard(subspace, index) != board) {
+                errors++;
+            }
+            long foldedIndex = folded.getIndex(whiteSquares, blackSquares);
+            int symmetry = random.nextInt(BoardInfo.SYMMETRIES);
+            long representative = folded.getBoard(subspace, foldedIndex);
+            int representativeWhite = (int)(representative >>> 24);
+            int representativeBlack = (int)representative & BoardInfo.ALL_SQUARES_MASK;
+            if (foldedIndex < 0 || foldedIndex >= folded.getSubspaceSize(subspace) ||
+                folded.getIndex(BoardInfo.getSymmetricMask(symmetry, whiteSquares),
+                                BoardInfo.getSymmetricMask(symmetry, blackSquares)) != foldedIndex ||
+                folded.getIndex(representativeWhite, representativeBlack) != foldedIndex ||
+                BoardInfo.getCanonicalKey(BoardInfo.getCanonicalForm(representativeWhite, representativeBlack)) !=
+                BoardInfo.getCanonicalKey(BoardInfo.getCanonicalForm(whiteSquares, blackSquares))) {
+                    errors++;
+            }
+        }
+
+        // Pelin kautta: osa-avaruus ja lauta palautuvat.
+        MillGame game = new MillGame();
+        for (int ply = 0; ply < 30 && game.getGameState() != MillGame.PHASE_GAME_OVER; ply++) {
+            int subspace = getSubspace(game);
+            MillGame copy = plain.getGame(subspace, plain.getIndex(game));
+            if (getSubspace(copy) != subspace || copy.getHashKey() != game.getHashKey() ||
+                copy.getMillBoard().getMask(BoardInfo.WHITE) != game.getMillBoard().getMask(BoardInfo.WHITE) ||
+                copy.getMillBoard().getMask(BoardInfo.BLACK) != game.getMillBoard().getMask(BoardInfo.BLACK)) {
+                    errors++;
+            }
+            Move[] moves = LegalMoves.getAllLegalMoves(game);
+            game.makeMove(moves[random.nextInt(moves.length)], false);
+        }
+
+        // Osa-avaruuden 3v3 kaikki laudat: symmetriaskeemassa kytettyj
+        // indeksej on yht monta kuin symmetrialuokkia.
+        int subspace = getSubspace(3, 3, 0, 0, MillGame.WHITE_PLAYER, MillGame.PHASE_ENDGAME);
+        java.util.BitSet used = new java.util.BitSet();
+        java.util.HashSet<Long> forms = new java.util.HashSet<Long>();
+        for (long index = 0; index < plain.getSubspaceSize(subspace); index++) {
+            long board = plain.getBoard(subspace, index);
+            int whiteSquares = (int)(board >>> 24);
+            int blackSquares = (int)board & BoardInfo.ALL_SQUARES_MASK;
+            if (plain.getIndex(whiteSquares, blackSquares) != index ||
+                Integer.bitCount(whiteSquares) != 3 || Integer.bitCount(blackSquares) != 3 ||
+                (whiteSquares & blackSquares) != 0) {
+                    errors++;
+            }
+            used.set((int)folded.getIndex(whiteSquares, blackSquares));
+            forms.add(BoardInfo.getCanonicalKey(BoardInfo.getCanonicalForm(whiteSquares, blackSquares)));
+        }
+        if (used.cardinality() != forms.size()) {
+            errors++;
+        }
+        System.out.println("3v3: "+plain.getSubspaceSize(subspace)+" boards, "+forms.size()+" classes, "+
+                           folded.getSubspaceSize(subspace)+" symmetric indices");
+        System.out.println("errors: "+errors+" --> 0 OK");
+
+        // Nopeus: 9v9-tilanteita satunnaisesti.
+        int count = 1 << 20;
+        int[] whites = new int[count];
+        int[] blacks = new int[count];
+        long[] indexes = new long[count];
+        for (int index = 0; index < count; index++) {
+            int white = 3 + random.nextInt(7);
+            int black = 3 + random.nextInt(7);
+            long board = randomBoard(random, white, black);
+            whites[index] = (int)(board >>> 24);
+            blacks[index] = (int)board & BoardInfo.ALL_SQUARES_MASK;
+        }
+        PositionIndexer[] indexers = { plain, folded };
+        for (int round = 0; round < 3; round++) {
+            for (int which = 0; which < indexers.length; which++) {
+                PositionIndexer indexer = indexers[which];
+                long time = System.nanoTime();
+                for (int index = 0; index < count; index++) {
+                    indexes[index] = indexer.getIndex(whites[index], blacks[index]);
+                }
+                long rankTime = System.nanoTime() - time;
+                long sum = 0;
+                time = System.nanoTime();
+                for (int index = 0; index < count; index++) {
+                    int subspaceOf = Integer.bitCount(whites[index]) | (Integer.bitCount(blacks[index]) << BLACK_SHIFT);
+                    sum += indexer.getBoard(subspaceOf, indexes[index]);
+                }
+                long unrankTime = System.nanoTime() - time;
+                System.out.println((indexer.isSymmetric() ? "symmetric" : "plain    ")+
+                                   " rank: "+(count * 1000L / rankTime)+" M/s, unrank: "+
+                                   (count * 1000L / unrankTime)+" M/s ("+(sum & 1)+")");
+            }
+        }
+	}
+}
@@ -0,0 +1,194 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Haun vertailuohjelma. Hakee kiinten tilannejoukon (<tt>Perft</tt>in
+ * vertailutilanteet ja kiintell siemenell arvotut pelitilanteet) samaan
+ * syvyyteen eri hakuasetuksilla ja tulostaa kunkin asetuksen solmut ja ajan
+ * sek arvot ja siirrot, jotka eroavat pelkn alfa-beta-haun tuloksesta.
+ * Jokainen haku tehdn uudella tekolyll, joten vaihtotaulukko ei siirr
+ * tietoa hausta toiseen. Tulos on sama joka ajolla ja sopii hakumuutosten
+ * solmumrien vertailuun.
+ * <p>
+ * Valikoiva haku (LMR ja turhuuskarsinta) muuttaa arvoja, joten sen hyty
+ * mitataan mys otteluilla: valikoiva ja tysleve haku pelaavat samalla
+ * aikarajalla arvotuista tilanteista kumpikin kummallakin vrill.
+ * <p>
+ * Kytt:
+ * <pre>
+ *   java SearchBenchmark [syvyys] [arvottuja tilanteita] [siemen]
+ *   java SearchBenchmark match [tilanteita] [ms/siirto] [siemen]
+ * </pre>
+ */
+public class SearchBenchmark {
+
+    /** Vertailtavat asetukset: nimi ja kytetnk PVS:, aspiraatioikkunoita, LMR: ja turhuuskarsintaa*/
+    private static final String[] NAMES = {"alfa-beta", "pvs", "pvs+aspiraatio",
+                                           "+lmr", "+turhuus", "+lmr+turhuus"};
+    private static final boolean[] PVS = {false, true, true, true, true, true};
+    private static final boolean[] ASPIRATION = {false, false, true, true, true, true};
+    private static final boolean[] LMR = {false, false, false, true, false, true};
+    private static final boolean[] FUTILITY = {false, false, false, false, true, true};
+
+    /** Otteluissa vastakkain: tysleve ja valikoiva haku*/
+    private static final int FULL_WIDTH = 2;
+    private static final int SELECTIVE = 5;
+
+    /** Ottelun puolisiirtoraja, jonka jlkeen peli on tasapeli*/
+    private static final int MATCH_PLIES = 200;
+    private static final byte DRAW = -1;
+
+    private static final PrintStream SILENT = new PrintStream(new OutputStream() {
+        public void write(int b) {}
+    });
+
+    /** Ei kutsuta koskaan*/
+    private SearchBenchmark() {}
+
+   /**
+    * Luo vertailun tilanteet: vertailutilanteet ja satunnaispelej, joiden
+    * pituus vaihtelee niin, ett mukana on kaikkia pelivaiheita.
+    * @param count Arvottujen tilanteiden mr
+    * @param seed Arvonnan siemen
+    */
+    public static MillGame[] createPositions(int count, long seed) {
+        MillGame[] reference = Perft.getReferenceGames();
+        MillGame[] games = new MillGame[reference.length + count];
+        System.arraycopy(reference, 0, games, 0, reference.length);
+        Random random = new Random(seed);
+        for (int index = reference.length; index < games.length; index++) {
+            int plies = random.nextInt(60);
+            MillGame game;
+            do {
+                game = new MillGame();
+                for (int ply = 0; ply < plies; ply++) {
+                    Move[] moves = LegalMoves.getAllLegalMoves(game);
+                    if (game.makeMove(moves[random.nextInt(moves.length)])) {
+                        break;
+                    }
+                }
+            } while (game.getGameState() == MillGame.PHASE_GAME_OVER);
+            games[index] = game;
+        }
+        return games;
+    }
+
+
+    private static MillAI createAI(int config) {
+        MillAI ai = new MillAI();
+        ai.setPrincipalVariationSearch(PVS[config]);
+        ai.setAspirationWindows(ASPIRATION[config]);
+        ai.setLateMoveReductions(LMR[config]);
+        ai.setFutilityPruning(FUTILITY[config]);
+        return ai;
+    }
+
+   /**
+    * Pelaa pelin loppuun (tai puolisiirtorajaan) asti.
+    * @param players Valkoisen ja mustan tekolyt tss jrjestyksess
+    * @return Voittaja tai <tt>DRAW</tt>, jos peli ji tasapeliin
+    */
+    private static byte playGame(MillGame game, MillAI white, MillAI black, long millis) {
+        PrintStream out = System.out;
+        System.setOut(SILENT); // hakujen omat tulosteet
+        try {
+            for (int ply = 0; ply < MATCH_PLIES; ply++) {
+                MillAI ai = (game.getActivePlayer() == MillGame.WHITE_PLAYER) ? white : black;
+                if (game.makeMove(ai.timeSearchMillis(game, millis / 2, millis))) {
+                    return game.getActivePlayer();
+                }
+            }
+        }
+        finally {
+            System.setOut(out);
+        }
+        return DRAW;
+    }
+
+    // Ottelu: valikoiva haku tysleve vastaan samasta tilanteesta kummallakin vrill.
+    private static void match(int count, long millis, long seed) {
+        MillGame[] games = createPositions(count, seed);
+        int wins = 0;
+        int draws = 0;
+        int losses = 0;
+        for (int index = Perft.getReferenceGames().length; index < games.length; index++) {
+            for (int colour = 0; colour < 2; colour++) {
+                MillAI selective = createAI(SELECTIVE);
+                MillAI fullWidth = createAI(FULL_WIDTH);
+                byte selectivePlayer = (colour == 0) ? MillGame.WHITE_PLAYER : MillGame.BLACK_PLAYER;
+                byte winner = (colour == 0) ? playGame(games[index].copy(), selective, fullWidth, millis)
+                                            : playGame(games[index].copy(), fullWidth, selective, millis);
+                if (winner == DRAW) {
+                    draws++;
+                }
+                else if (winner == selectivePlayer) {
+                    wins++;
+                }
+                else {
+                    losses++;
+                }
+                System.out.println(index+"/"+colour+": +"+wins+" ="+draws+" -"+losses);
+            }
+        }
+        System.out.println(NAMES[SELECTIVE]+" vs "+NAMES[FULL_WIDTH]+", "+millis+" ms/siirto: +"+wins+
+                           " ="+draws+" -"+losses+" ("+(wins*2 + draws)*50 / Math.max(wins + draws + losses, 1)+"%)");
+    }
+
+
+    /** Testiohjelma*/
+    public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("match")) {
+            int count = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+            long millis = (args.length > 2) ? Long.parseLong(args[2]) : 100;
+            long seed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+            match(count, millis, seed);
+            return;
+        }
+        int depth = (args.length > 0) ? Integer.parseInt(args[0]) : 7;
+        int count = (args.length > 1) ? Integer.parseInt(args[1]) : 30;
+        long seed = (args.length > 2) ? Long.parseLong(args[2]) : 1;
+        MillGame[] games = createPositions(count, seed);
+
+        long[] nodes = new long[NAMES.length];
+        long[] time = new long[NAMES.length];
+        int[] valueDifferences = new int[NAMES.length];
+        int[] moveDifferences = new int[NAMES.length];
+        PrintStream out = System.out;
+        for (int index = 0; index < games.length; index++) {
+            SearchResult[] results = new SearchResult[NAMES.length];
+            for (int config = 0; config < NAMES.length; config++) {
+                MillAI ai = createAI(config);
+                System.setOut(SILENT); // hakujen omat tulosteet
+                long started = System.nanoTime();
+                try {
+                    results[config] = ai.iterativeSearch(games[index].copy(), depth,
+                                                         SearchLimits.NO_TIME_LIMIT, SearchLimits.NO_TIME_LIMIT);
+                }
+                finally {
+                    System.setOut(out);
+                }
+                time[config] += System.nanoTime() - started;
+                nodes[config] += results[config].getNodes();
+                if (results[config].getValue() != results[0].getValue()) {
+                    valueDifferences[config]++;
+                }
+                if (results[config].getMove().CODE != results[0].getMove().CODE) {
+                    moveDifferences[config]++;
+                }
+            }
+            String tmp = index+": phase:"+games[index].getGameState();
+            for (int config = 0; config < NAMES.length; config++) {
+                tmp = tmp + " "+NAMES[config]+":"+results[config].getValue()+"/"+results[config].getNodes();
+            }
+            System.out.println(tmp);
+        }
+        System.out.println("tilanteita: "+games.length+", syvyys: "+depth);
+        for (int config = 0; config < NAMES.length; config++) {
+            System.out.println(NAMES[config]+": nodes:"+nodes[config]+
+                               " ("+nodes[config]*100 / Math.max(nodes[0], 1)+"%)"+
+                               " time:"+time[config] / 1000000+"ms"+
+                               " eri arvo:"+valueDifferences[config]+" eri siirto:"+moveDifferences[config]);
+        }
+    }
+}
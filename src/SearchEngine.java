@@ -0,0 +1,253 @@
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Luokan <tt>SearchEngine</tt> ilmentymt ovat sieturvallisia
+ * hakukoneita, joiden haut tehdn taustalla. <tt>submit</tt> palauttaa
+ * heti <tt>CompletableFuture</tt>-olion, joka valmistuu haun tuloksella
+ * (ks. <tt>SearchResult</tt>). Haun edistymisest voi ilmoittaa kuuntelijalle,
+ * jota kutsutaan jokaisen valmistuneen kierroksen jlkeen, ja haun voi
+ * keskeytt metodilla <tt>cancel</tt>, jolloin hakusie pyshtyy
+ * muutamassa solmussa.
+ * <p>
+ * Hakuja voi olla kynniss useita yht aikaa, esim. monessa peliss.
+ * Jokainen haku kytt omaa <tt>MillAI</tt>-oliotaan, joka otetaan vapaiden
+ * olioiden joukosta tai luodaan tarvittaessa. Oliot vaihtotaulukoineen
+ * kytetn uudelleen seuraavissa hauissa. Haku tehdn pelin kopiosta, joten
+ * peli voi muuttaa haun aikana.
+ */
+public final class SearchEngine {
+
+    private final int hashMegabytes;
+    private final ExecutorService executor;
+    private final ConcurrentLinkedQueue<MillAI> idle = new ConcurrentLinkedQueue<MillAI>();
+    private final Set<Job> running = ConcurrentHashMap.newKeySet();
+    private volatile EndgameDatabase endgameDatabase = null;
+    private volatile OpeningBook openingBook = null;
+    private volatile boolean shutdown = false;
+
+
+    /** Luo hakukoneen, jonka jokaisella haulla on oletuskokoinen vaihtotaulukko*/
+    public SearchEngine() {
+        this(MillAI.DEFAULT_HASH_MEGABYTES);
+    }
+
+   /**
+    * Luo hakukoneen.
+    * @param hashMegabytes Kunkin samanaikaisen haun vaihtotaulukon koko
+    * @exception IllegalArgumentException Jos koko on negatiivinen.
+    */
+    public SearchEngine(int hashMegabytes) {
+        if (hashMegabytes < 0) {
+            throw new IllegalArgumentException("SearchEngine(int): "+
+                                               "hashMegabytes:"+hashMegabytes+" can't be negative.");
+        }
+        this.hashMegabytes = hashMegabytes;
+        this.executor = Executors.newCachedThreadPool(task -> {
+            Thread thread = new Thread(task, "SearchEngine");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Loppupelitietokanta seuraaville hauille (null = ei tietokantaa)*/
+    public void setEndgameDatabase(EndgameDatabase database) {
+        this.endgameDatabase = database;
+    }
+
+    /** Avauskirjasto seuraaville aikarajoitetuille hauille (null = ei kirjastoa)*/
+    public void setOpeningBook(OpeningBook book) {
+        this.openingBook = book;
+    }
+
+    /** Hakee tilanteesta parhaan siirron taustalla, ks. <tt>submit(MillGame,SearchLimits,Consumer)</tt>*/
+    public CompletableFuture<SearchResult> submit(MillGame game, SearchLimits limits) {
+        return this.submit(game, limits, null);
+    }
+
+   /**
+    * Aloittaa haun taustalla. Tilanne kopioidaan historioineen heti, joten
+    * toistot huomioidaan, ja peli voi muuttaa haun aikana.
+    * <p>
+    * Keskeytetyn haun (<tt>cancel</tt>) tulosta ei saa. Haun lopettamiseen
+    * tuloksineen riitt lyhyt aikaraja.
+    * @param game Pelitilanne; peli ei saa olla pttynyt
+    * @param limits Haun rajat
+    * @param progress Kuuntelija, jota hakusie kutsuu jokaisen valmistuneen
+    *                 kierroksen jlkeen, tai <tt>null</tt>. Kutsun on oltava
+    *                 nopea, koska haku odottaa sen ajan.
+    * @return Haun tuloksella valmistuva olio
+    * @exception IllegalArgumentException Jos peli tai rajat puuttuvat tai peli on pttynyt.
+    * @exception IllegalStateException Jos hakukone on suljettu.
+    */
+    public CompletableFuture<SearchResult> submit(MillGame game, SearchLimits limits,
+                                                  Consumer<SearchResult> progress) {
+        if (game == null || limits == null) {
+            throw new IllegalArgumentException("submit(MillGame,SearchLimits,Consumer): "+
+                                               "game and limits can't be null.");
+        }
+        if (game.getGameState() == MillGame.PHASE_GAME_OVER) {
+            throw new IllegalArgumentException("submit(MillGame,SearchLimits,Consumer): "+
+                                               "game is over.");
+        }
+        if (this.shutdown) {
+            throw new IllegalStateException("submit(MillGame,SearchLimits,Consumer): "+
+                                            "engine has been shut down.");
+        }
+        Job job = new Job(game.copy(), limits, progress);
+        this.running.add(job);
+        job.future.whenComplete((result, failure) -> {
+            this.running.remove(job);
+            if (job.future.isCancelled()) {
+                job.stop();
+            }
+        });
+        this.executor.execute(job);
+        return job.future;
+    }
+
+    /** Kynniss olevien ja jonossa odottavien hakujen mr*/
+    public int getRunningSearches() {
+        return this.running.size();
+    }
+
+    /** Keskeytt kaikki haut ja lopettaa hakusikeet. Uusia hakuja ei voi aloittaa.*/
+    public void shutdown() {
+        this.shutdown = true;
+        for (Job job : this.running) {
+            job.future.cancel(false);
+        }
+        this.executor.shutdown();
+    }
+
+    private MillAI borrow() {
+        MillAI ai = this.idle.poll();
+        if (ai == null) {
+            ai = new MillAI();
+            ai.setHashSize(this.hashMegabytes);
+        }
+        ai.setEndgameDatabase(this.endgameDatabase);
+        ai.setOpeningBook(this.openingBook);
+        return ai;
+    }
+
+
+    // Yksi haku. Hakija asetetaan ja poistetaan synkronoidusti, jotta keskeytys
+    // osuu aina thn hakuun eik saman hakijan myhempn hakuun.
+    private final class Job implements Runnable {
+        private final MillGame game;
+        private final SearchLimits limits;
+        private final Consumer<SearchResult> progress;
+        private final CompletableFuture<SearchResult> future = new CompletableFuture<SearchResult>();
+        private MillAI ai = null;
+
+        private Job(MillGame game, SearchLimits limits, Consumer<SearchResult> progress) {
+            this.game = game;
+            this.limits = limits;
+            this.progress = progress;
+        }
+
+        private synchronized void stop() {
+            if (this.ai != null) {
+                this.ai.stopSearch();
+            }
+        }
+
+        public void run() {
+            MillAI ai = SearchEngine.this.borrow();
+            synchronized (this) {
+                if (this.future.isDone()) { // keskeytetty jonossa
+                    SearchEngine.this.idle.add(ai);
+                    return;
+                }
+                ai.clearStopRequest();
+                this.ai = ai;
+            }
+            try {
+                ai.setProgressListener(this.progress);
+                this.future.complete(ai.iterativeSearch(this.game, this.limits.getMaxDepth(),
+                                                        this.limits.getSoftMillis(),
+                                                        this.limits.getHardMillis()));
+            }
+            catch (Throwable t) {
+                this.future.completeExceptionally(t);
+            }
+            finally {
+                ai.setProgressListener(null);
+                synchronized (this) {
+                    this.ai = null;
+                }
+                SearchEngine.this.idle.add(ai);
+            }
+        }
+    }
+
+
+    // Testiohjelma: samanaikaiset haut, edistymisilmoitukset ja keskeytys.
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        SearchEngine engine = new SearchEngine();
+        java.util.Random random = new java.util.Random(7);
+        MillGame[] games = new MillGame[4];
+        for (int index = 0; index < games.length; index++) {
+            games[index] = new MillGame();
+            for (int move = 0; move < 20 + 3*index; move++) {
+                Move[] moves = LegalMoves.getAllLegalMoves(games[index]);
+                games[index].makeMove(moves[random.nextInt(moves.length)]);
+            }
+        }
+
+        // Samanaikaisten hakujen arvojen on oltava samat kuin erikseen haettuina.
+        java.util.concurrent.atomic.AtomicInteger reports = new java.util.concurrent.atomic.AtomicInteger();
+        java.util.List<CompletableFuture<SearchResult>> futures = new java.util.ArrayList<CompletableFuture<SearchResult>>();
+        for (int index = 0; index < games.length; index++) {
+            futures.add(engine.submit(games[index], SearchLimits.depth(6), result -> reports.incrementAndGet()));
+        }
+        int errors = 0;
+        for (int index = 0; index < games.length; index++) {
+            SearchResult result = futures.get(index).get();
+            SearchResult alone = new SearchEngine().submit(games[index], SearchLimits.depth(6)).get();
+            System.out.println("rinnakkain: "+result+"\nerikseen:   "+alone);
+            if (result.getValue() != alone.getValue() || result.getDepth() != 6) {
+                errors++;
+            }
+        }
+        System.out.println("Edistymisilmoituksia: "+reports.get()+" (odotettiin "+6*games.length+")");
+        if (reports.get() != 6*games.length) {
+            errors++;
+        }
+
+        // Keskeytys: rajaton haku pyshtyy heti, eik tulosta saa.
+        CompletableFuture<SearchResult> infinite = engine.submit(games[0], SearchLimits.infinite());
+        Thread.sleep(300);
+        long stopStarted = System.nanoTime();
+        infinite.cancel(true);
+        while (engine.idle.size() < games.length) {
+            Thread.sleep(1);
+        }
+        long stopMillis = (System.nanoTime() - stopStarted) / 1000000;
+        try {
+            infinite.get();
+            errors++;
+        }
+        catch (CancellationException e) {
+        }
+        System.out.println("Keskeytetty haku pyshtyi "+stopMillis+" ms:ssa, hakuja kynniss: "+
+                           engine.getRunningSearches());
+        if (engine.getRunningSearches() != 0) {
+            errors++;
+        }
+
+        // Aikarajoitettu haku palauttaa tuloksen ajallaan.
+        SearchResult timed = engine.submit(games[1], SearchLimits.time(500)).get();
+        System.out.println("500 ms: "+timed);
+        engine.shutdown();
+        System.out.println("Virheit: "+errors+(errors == 0 ? " --> OK" : " --> VIRHE"));
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Luokan <tt>SearchLimits</tt> ilmentymt kertovat, kuinka pitkn
+ * asynkroninen haku (ks. <tt>SearchEngine</tt>) saa jatkua: enimmissyvyys
+ * puolisiirtoina sek pehme ja kova aikaraja millisekunteina (ks.
+ * <tt>TimeManager</tt>). Haku syvenee iteratiivisesti, kunnes jokin raja tulee
+ * vastaan tai haku keskeytetn. Ilman syvyys- ja aikarajaa haku jatkuu,
+ * kunnes se keskeytetn (esim. analyysi).
+ * <p>
+ * Oliot ovat muuttumattomia, joten samoja rajoja voi kytt monessa haussa.
+ */
+public final class SearchLimits {
+
+    /** Suurin sallittu hakusyvyys (ja syvyys, kun syvyytt ei rajoiteta)*/
+    public static final int MAX_DEPTH = Byte.MAX_VALUE - 1;
+
+    /** Aikaraja, joka tarkoittaa, ettei aikaa rajoiteta*/
+    public static final long NO_TIME_LIMIT = 0;
+
+    private final int maxDepth;
+    private final long softMillis;
+    private final long hardMillis;
+
+   /**
+    * Luo hakurajat, joissa pehme aikaraja on oletusosuus kovasta.
+    * @param maxDepth Enimmissyvyys vlilt 1--<tt>MAX_DEPTH</tt>
+    * @param timeMillis Kova aikaraja millisekunteina tai <tt>NO_TIME_LIMIT</tt>
+    * @exception IllegalArgumentException Jos syvyys tai aikaraja ei kelpaa.
+    */
+    public SearchLimits(int maxDepth, long timeMillis) {
+        this(maxDepth, (long)(timeMillis*TimeManager.DEFAULT_SOFT_FRACTION), timeMillis);
+    }
+
+   /**
+    * Luo hakurajat.
+    * @param maxDepth Enimmissyvyys vlilt 1--<tt>MAX_DEPTH</tt>
+    * @param softMillis Pehme aikaraja: tmn jlkeen ei aloiteta uutta kierrosta
+    * @param hardMillis Kova aikaraja: haku keskeytetn viimeistn tllin
+    *                   (<tt>NO_TIME_LIMIT</tt> = ei aikarajaa)
+    * @exception IllegalArgumentException Jos syvyys tai aikarajat eivt kelpaa.
+    */
+    public SearchLimits(int maxDepth, long softMillis, long hardMillis) {
+        if (maxDepth < 1 || maxDepth > MAX_DEPTH) {
+            throw new IllegalArgumentException("SearchLimits(int,long,long): "+
+                                               "maxDepth:"+maxDepth+" must be between 1 and "+MAX_DEPTH+".");
+        }
+        if (hardMillis < 0 || softMillis < 0 || softMillis > hardMillis) {
+            throw new IllegalArgumentException("SearchLimits(int,long,long): softMillis:"+softMillis+
+                                               " must be between 0 and hardMillis:"+hardMillis+".");
+        }
+        this.maxDepth = maxDepth;
+        this.softMillis = softMillis;
+        this.hardMillis = hardMillis;
+    }
+
+    /** Haku syvyyteen <tt>depth</tt> ilman aikarajaa*/
+    public static SearchLimits depth(int depth) {
+        return new SearchLimits(depth, NO_TIME_LIMIT);
+    }
+
+    /** Haku kovaan aikarajaan <tt>millis</tt> asti ilman syvyysrajaa*/
+    public static SearchLimits time(long millis) {
+        if (millis < 1) {
+            throw new IllegalArgumentException("time(long): millis:"+millis+" must be positive.");
+        }
+        return new SearchLimits(MAX_DEPTH, millis);
+    }
+
+    /** Haku pehmell ja kovalla aikarajalla ilman syvyysrajaa*/
+    public static SearchLimits time(long softMillis, long hardMillis) {
+        if (hardMillis < 1) {
+            throw new IllegalArgumentException("time(long,long): hardMillis:"+hardMillis+" must be positive.");
+        }
+        return new SearchLimits(MAX_DEPTH, softMillis, hardMillis);
+    }
+
+    /** Haku, joka jatkuu, kunnes se keskeytetn*/
+    public static SearchLimits infinite() {
+        return new SearchLimits(MAX_DEPTH, NO_TIME_LIMIT);
+    }
+
+    public int getMaxDepth() { return this.maxDepth; }
+
+    public long getSoftMillis() { return this.softMillis; }
+
+    public long getHardMillis() { return this.hardMillis; }
+
+    public boolean isTimeLimited() { return this.hardMillis != NO_TIME_LIMIT; }
+
+    public String toString() {
+        return "depth:"+this.maxDepth+
+               (this.isTimeLimited() ? " time:"+this.softMillis+"/"+this.hardMillis+"ms" : "");
+    }
+}
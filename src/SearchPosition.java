@@ -0,0 +1,492 @@
+import java.util.Random;
+
+/**
+ * Luokan <tt>SearchPosition</tt> ilmentymt ovat tekolyn sisisi,
+ * muuttuvia pelitilanteita. Toisin kuin <tt>MillGame</tt>, tilanne ei
+ * kopioidu jokaista siirtoa varten: <tt>doMove</tt> tekee siirron
+ * paikallaan ja <tt>undoMove</tt> peruu sen pienen peruutustietueen avulla.
+ * Peruutustietueet ovat valmiiksi varatuissa taulukoissa, joten pelipuussa
+ * liikkuminen ei luo uusia olioita.
+ * <p>
+ * Siirtoja ei tarkisteta. Vain <tt>LegalMoves</tt>-luokan tlle tilanteelle
+ * tuottamia siirtoja saa tehd. Pelin snnt (vaiheiden vaihtuminen,
+ * jumiutuminen ja voitot) ovat samat kuin <tt>MillGame</tt>-luokassa.
+ */
+final class SearchPosition {
+
+    /** Kuinka monta siirtoa voidaan enintn tehd perkkin ilman peruutusta*/
+    public static final int MAX_PLY = 256;
+
+    /** Tilanteen pelilauta. Lautaa muutetaan siirtojen mukana.*/
+    private final MillBoard board;
+
+    private byte gameState;
+    private byte activePlayer;
+    private byte whitePiecesInHand;
+    private byte blackPiecesInHand;
+    private long hashKey;
+
+    /**
+     * Materiaalitase: valkean nappulat laudalla ja kdess miinus mustan.
+     * Nappulan asettaminen ei muuta tasetta, joten se pivitetn vain
+     * poistoissa.
+     */
+    private int materialBalance;
+
+    /**
+     * Nappuloiden osuus Zobrist-avaimesta laudan jokaisessa symmetrisess
+     * kuvassa (indeksi 0 on tilanne itse). Symmetrisill tilanteilla on
+     * samat osuudet eri jrjestyksess, joten pienin niist tunnistaa
+     * tilanteen kaikki symmetriset kuvat. Osuudet yllpidetn vain
+     * alkupeliss, jossa symmetriset tilanteet ovat yleisi.
+     */
+    private final long[] symmetricPieceKeys = new long[BoardInfo.SYMMETRIES];
+
+    /** Montako siirtoa on tehty (peruutustietueiden mr)*/
+    private int ply;
+
+    /**
+     * Toistojen tunnistus: haun juurta edeltneiden tilanteiden avaimet
+     * (vanhimmasta uusimpaan) ja montako palautuvaa siirtoa (siirtelyvaiheen
+     * siirto ilman poistoa) on tehty perkkin thn tilanteeseen. Vain nin
+     * monta edellist tilannetta voi olla sama kuin nykyinen.
+     */
+    private final long[] historyKeys;
+    private int reversibleMoves;
+
+    /** Peruutustietueet: tehty siirto ja sit edeltnyt pelivaihe, pelaaja ja avain*/
+    private final int[] undoMoves = new int[MAX_PLY];
+    private final byte[] undoGameStates = new byte[MAX_PLY];
+    private final byte[] undoActivePlayers = new byte[MAX_PLY];
+    private final long[] undoHashKeys = new long[MAX_PLY];
+    private final int[] undoReversibleMoves = new int[MAX_PLY];
+
+   /**
+    * Luo uuden hakutilanteen annetun pelin nykyisest tilanteesta.
+    * Pelin historiasta otetaan vain toistojen tunnistukseen tarvittavat
+    * avaimet (ks. <tt>MillGame.getHashHistory</tt>).
+    * @param game    Peli, jonka tilanteesta haku aloitetaan
+    */
+    public SearchPosition(MillGame game) {
+        this.board = game.getMillBoard();
+        this.gameState = game.getGameState();
+        this.activePlayer = game.getActivePlayer();
+        this.whitePiecesInHand = game.getWhitePiecesInHand();
+        this.blackPiecesInHand = game.getBlackPiecesInHand();
+        this.hashKey = game.getHashKey();
+        this.materialBalance = countMaterialBalance(this.board, this.whitePiecesInHand,
+                                                    this.blackPiecesInHand);
+        if (this.gameState == MillGame.PHASE_BEGINNING) {
+            for (byte square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+                if (this.board.get(square) != BoardInfo.EMPTY) {
+                    this.togglePieceKeys(this.board.get(square), square);
+                }
+            }
+        }
+        this.historyKeys = game.getHashHistory();
+        this.reversibleMoves = this.historyKeys.length;
+        this.ply = 0;
+    }
+
+   /**
+    * Luo kopion toisen hakutilanteen nykyisest tilanteesta, esim. toisen
+    * hakusikeen kyttn. Peruutustietueita ei kopioida, joten kopiossa ei
+    * voi perua alkuperisess tehtyj siirtoja. Toistojen tunnistukseen
+    * tarvittavat aiempien tilanteiden avaimet kopioidaan.
+    * @param position    Kopioitava hakutilanne
+    */
+    public SearchPosition(SearchPosition position) {
+        this.board = (MillBoard)position.board.clone();
+        this.gameState = position.gameState;
+        this.activePlayer = position.activePlayer;
+        this.whitePiecesInHand = position.whitePiecesInHand;
+        this.blackPiecesInHand = position.blackPiecesInHand;
+        this.hashKey = position.hashKey;
+        this.materialBalance = position.materialBalance;
+        System.arraycopy(position.symmetricPieceKeys, 0, this.symmetricPieceKeys, 0, BoardInfo.SYMMETRIES);
+        this.reversibleMoves = position.reversibleMoves;
+        this.historyKeys = new long[this.reversibleMoves];
+        for (int back = 1; back <= this.reversibleMoves; back++) {
+            this.historyKeys[this.reversibleMoves - back] = position.getPreviousHashKey(back);
+        }
+        this.ply = 0;
+    }
+
+   /**
+    * Palauttaa tilanteen pelilaudan. Lautaa EI kopioida, joten sit
+    * saa vain lukea.
+    * @return Tilanteen oma <tt>MillBoard</tt>-olio
+    */
+    public MillBoard getBoard() { return this.board; }
+
+    public byte getGameState() { return this.gameState; }
+
+    public byte getActivePlayer() { return this.activePlayer; }
+
+    public byte getOpponent() {
+        if (this.activePlayer == MillGame.WHITE_PLAYER)
+            return MillGame.BLACK_PLAYER;
+        else
+            return MillGame.WHITE_PLAYER;
+    }
+
+    public byte getWhitePiecesInHand() { return this.whitePiecesInHand; }
+
+    public byte getBlackPiecesInHand() { return this.blackPiecesInHand; }
+
+    /** Tilanteen Zobrist-avain, sama kuin vastaavan <tt>MillGame</tt>-olion*/
+    public long getHashKey() { return this.hashKey; }
+
+   /**
+    * Palauttaa materiaalitaseen pelaajan kannalta: pelaajan nappulat laudalla
+    * ja kdess miinus vastustajan. Arvo pivitetn siirtojen mukana.
+    * @param player Pelaaja, jonka kannalta tase lasketaan
+    */
+    public int getMaterialBalance(byte player) {
+        return (player == MillGame.WHITE_PLAYER) ? this.materialBalance : -this.materialBalance;
+    }
+
+   /**
+    * Palauttaa symmetrian, jolla laskettu avain (<tt>getHashKey(int)</tt>)
+    * on sama kaikille tmn tilanteen symmetrisille kuville. Vaihtotaulukko
+    * voi nin jakaa tiedot symmetristen tilanteiden kesken. Alkupelin
+    * jlkeen palautetaan aina 0 (tilanne itse).
+    * @return Symmetria, <tt>0 <= symmetria < BoardInfo.SYMMETRIES</tt>
+    */
+    public int getHashSymmetry() {
+        if (this.gameState != MillGame.PHASE_BEGINNING) {
+            return 0;
+        }
+        int best = 0;
+        for (int symmetry = 1; symmetry < BoardInfo.SYMMETRIES; symmetry++) {
+            if (this.symmetricPieceKeys[symmetry] < this.symmetricPieceKeys[best]) {
+                best = symmetry;
+            }
+        }
+        return best;
+    }
+
+   /**
+    * Tilanteen symmetrisen kuvan Zobrist-avain. Pelaaja, pelivaihe ja
+    * ksinappulat eivt muutu symmetriassa.
+    * @param symmetry Symmetria, <tt>0 <= symmetry < BoardInfo.SYMMETRIES</tt>;
+    *                 alkupelin jlkeen vain 0
+    */
+    public long getHashKey(int symmetry) {
+        if (symmetry == 0) {
+            return this.hashKey;
+        }
+        return this.hashKey ^ this.symmetricPieceKeys[0] ^ this.symmetricPieceKeys[symmetry];
+    }
+
+   /**
+    * Palauttaa symmetriat, jotka kuvaavat tilanteen itselleen.
+    * @return Symmetriat bittimaskina (ks. <tt>BoardInfo.getInvariantSymmetries</tt>)
+    */
+    public int getInvariantSymmetries() {
+        return BoardInfo.getInvariantSymmetries(this.board.getMask(BoardInfo.WHITE),
+                                                this.board.getMask(BoardInfo.BLACK));
+    }
+
+    /** Montako peruuttamatonta siirtoa tilanteeseen on tehty*/
+    public int getPly() { return this.ply; }
+
+   /**
+    * Onko sama tilanne ollut jo aiemmin haun polulla tai peliss ennen
+    * haun juurta? Vain palautuvilla siirroilla saavutetut tilanteet ja
+    * saman pelaajan vuorot verrataan. Metodi ei luo olioita.
+    * @return <tt>true</tt>, jos tilanne toistuu
+    */
+    public boolean isRepetition() {
+        // Kummankin pelaajan on siirrettv vhintn kahdesti, jotta
+        // tilanne voi toistua.
+        for (int back = 4; back <= this.reversibleMoves; back += 2) {
+            if (this.getPreviousHashKey(back) == this.hashKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Avain tilanteesta back siirtoa sitten: haun polulta tai sit edeltneest pelist.
+    private long getPreviousHashKey(int back) {
+        if (back <= this.ply) {
+            return this.undoHashKeys[this.ply - back];
+        }
+        return this.historyKeys[this.historyKeys.length - (back - this.ply)];
+    }
+
+
+   /**
+    * Tekee siirron tilanteessa. Jos peli pttyy siirron vaikutuksesta,
+    * palautetaan <tt>true</tt>, ja voittajan saa selville metodilla
+    * <tt>getActivePlayer()</tt>. Siirto on peruttava <tt>undoMove</tt>-metodilla
+    * mys silloin, kun peli pttyi.
+    * @param move Laillinen siirto tss tilanteessa
+    * @return Pttyik peli?
+    * @exception IllegalStateException Jos peli on jo pttynyt tai siirtoja
+    *            on tehty jo <tt>MAX_PLY</tt> kappaletta.
+    */
+    public boolean doMove(Move move) throws IllegalStateException {
+        return this.doMove(move.CODE);
+    }
+
+   /**
+    * Kuten <tt>doMove(Move)</tt>, mutta siirto annetaan <tt>Move</tt>-luokan
+    * koodina, kuten <tt>LegalMoves.generateMoves</tt> sen tuottaa.
+    * @param move Laillisen siirron koodi tss tilanteessa
+    * @return Pttyik peli?
+    * @exception IllegalStateException Kuten <tt>doMove(Move)</tt>
+    */
+    public boolean doMove(int move) throws IllegalStateException {
+        if (this.ply >= MAX_PLY) {
+            throw new IllegalStateException("doMove(int): too many moves without undo: "+this.ply);
+        }
+        byte from = Move.getFrom(move);
+        byte to = Move.getTo(move);
+        byte remove = Move.getRemove(move);
+        this.undoMoves[this.ply] = move;
+        this.undoGameStates[this.ply] = this.gameState;
+        this.undoActivePlayers[this.ply] = this.activePlayer;
+        this.undoHashKeys[this.ply] = this.hashKey;
+        this.undoReversibleMoves[this.ply] = this.reversibleMoves;
+        this.ply++;
+        if (this.gameState == MillGame.PHASE_BEGINNING || remove != Move.NOWHERE) {
+            this.reversibleMoves = 0;
+        }
+        else {
+            this.reversibleMoves++;
+        }
+
+        byte opponent = this.getOpponent();
+
+        if (this.gameState == MillGame.PHASE_BEGINNING) {
+            if (this.activePlayer == MillGame.WHITE_PLAYER) {
+                this.hashKey ^= Zobrist.getHandKey(MillGame.WHITE_PLAYER, this.whitePiecesInHand);
+                this.whitePiecesInHand--;
+                this.hashKey ^= Zobrist.getHandKey(MillGame.WHITE_PLAYER, this.whitePiecesInHand);
+            }
+            else {
+                this.hashKey ^= Zobrist.getHandKey(MillGame.BLACK_PLAYER, this.blackPiecesInHand);
+                this.blackPiecesInHand--;
+                this.hashKey ^= Zobrist.getHandKey(MillGame.BLACK_PLAYER, this.blackPiecesInHand);
+            }
+            this.board.setPiece(to, this.activePlayer);
+            this.hashKey ^= Zobrist.getPieceKey(this.activePlayer, to);
+            this.togglePieceKeys(this.activePlayer, to);
+
+            if (remove != Move.NOWHERE) {
+                this.board.removePiece(remove);
+                this.hashKey ^= Zobrist.getPieceKey(opponent, remove);
+                this.togglePieceKeys(opponent, remove);
+                this.materialBalance += (opponent == MillGame.WHITE_PLAYER) ? -1 : 1;
+            }
+
+            if (this.whitePiecesInHand == 0 && this.blackPiecesInHand == 0) {
+                this.setGameState(MillGame.PHASE_MIDGAME);
+
+                // Samat tarkistukset kuin MillGame-luokassa
+                if ( this.board.allPiecesJammed(this.activePlayer) ||
+                     this.board.countSquares(this.activePlayer) < 3) {
+                        this.setGameState(MillGame.PHASE_GAME_OVER);
+                        this.setActivePlayer(opponent); // Vastustaja voitti pelin!
+                        return true;
+                }
+                if ( this.board.allPiecesJammed(opponent) ||
+                     this.board.countSquares(opponent) < 3) {
+                        this.setGameState(MillGame.PHASE_GAME_OVER);
+                        return true;
+                }
+            }
+            this.setActivePlayer(opponent);
+            return false;
+        }
+        else if (this.gameState == MillGame.PHASE_MIDGAME || this.gameState == MillGame.PHASE_ENDGAME) {
+            this.board.movePiece(from, to);
+            this.hashKey ^= Zobrist.getPieceKey(this.activePlayer, from) ^
+                            Zobrist.getPieceKey(this.activePlayer, to);
+
+            if (remove != Move.NOWHERE) {
+                this.board.removePiece(remove);
+                this.hashKey ^= Zobrist.getPieceKey(opponent, remove);
+                this.materialBalance += (opponent == MillGame.WHITE_PLAYER) ? -1 : 1;
+            }
+
+            if (this.board.countSquares(BoardInfo.WHITE) == 3 ||
+                this.board.countSquares(BoardInfo.BLACK) == 3) {
+                    this.setGameState(MillGame.PHASE_ENDGAME);
+            }
+
+            if ( (this.gameState == MillGame.PHASE_MIDGAME && this.board.allPiecesJammed(opponent)) ||
+                  this.board.countSquares(opponent) < 3) {
+                        this.setGameState(MillGame.PHASE_GAME_OVER);
+                        return true;
+            }
+            if ( (this.gameState == MillGame.PHASE_MIDGAME && this.board.allPiecesJammed(this.activePlayer)) ||
+                  this.board.countSquares(this.activePlayer) < 3) {
+                        this.setGameState(MillGame.PHASE_GAME_OVER);
+                        this.setActivePlayer(opponent); // Vastustaja voitti pelin!
+                        return true;
+            }
+            this.setActivePlayer(opponent);
+            return false;
+        }
+        else {
+            this.ply--;
+            this.reversibleMoves = this.undoReversibleMoves[this.ply];
+            throw new IllegalStateException("doMove(int): Game is over and no more moves can be played.");
+        }
+    }
+
+   /**
+    * Peruu viimeisimmn <tt>doMove</tt>-metodilla tehdyn siirron.
+    * @exception IllegalStateException Jos peruttavia siirtoja ei ole.
+    */
+    public void undoMove() throws IllegalStateException {
+        if (this.ply == 0) {
+            throw new IllegalStateException("undoMove(): no moves to undo.");
+        }
+        this.ply--;
+        int move = this.undoMoves[this.ply];
+        byte to = Move.getTo(move);
+        byte remove = Move.getRemove(move);
+        byte mover = this.undoActivePlayers[this.ply];
+        byte moverOpponent = (mover == MillGame.WHITE_PLAYER) ? MillGame.BLACK_PLAYER
+                                                              : MillGame.WHITE_PLAYER;
+
+        if (remove != Move.NOWHERE) {
+            this.board.setPiece(remove, moverOpponent);
+            this.materialBalance += (moverOpponent == MillGame.WHITE_PLAYER) ? 1 : -1;
+        }
+        if (this.undoGameStates[this.ply] == MillGame.PHASE_BEGINNING) {
+            if (remove != Move.NOWHERE) {
+                this.togglePieceKeys(moverOpponent, remove);
+            }
+            this.togglePieceKeys(mover, to);
+            this.board.removePiece(to);
+            if (mover == MillGame.WHITE_PLAYER) {
+                this.whitePiecesInHand++;
+            }
+            else {
+                this.blackPiecesInHand++;
+            }
+        }
+        else {
+            this.board.movePiece(to, Move.getFrom(move));
+        }
+        this.gameState = this.undoGameStates[this.ply];
+        this.activePlayer = mover;
+        this.hashKey = this.undoHashKeys[this.ply];
+        this.reversibleMoves = this.undoReversibleMoves[this.ply];
+    }
+
+    /** Lis tai poistaa nappulan symmetristen kuvien avaimista*/
+    private void togglePieceKeys(byte color, byte square) {
+        long[] pieceKeys = Zobrist.getSymmetricPieceKeys(color, square);
+        for (int symmetry = 0; symmetry < BoardInfo.SYMMETRIES; symmetry++) {
+            this.symmetricPieceKeys[symmetry] ^= pieceKeys[symmetry];
+        }
+    }
+
+    /** Vaihtaa pelivaiheen ja pivitt avaimen*/
+    private void setGameState(byte newGameState) {
+        this.hashKey ^= Zobrist.getPhaseKey(this.gameState) ^ Zobrist.getPhaseKey(newGameState);
+        this.gameState = newGameState;
+    }
+
+    /** Vaihtaa vuorossa olevan pelaajan ja pivitt avaimen*/
+    private void setActivePlayer(byte newActivePlayer) {
+        this.hashKey ^= Zobrist.getPlayerKey(this.activePlayer) ^ Zobrist.getPlayerKey(newActivePlayer);
+        this.activePlayer = newActivePlayer;
+    }
+
+    /** Laskee materiaalitaseen alusta asti*/
+    private static int countMaterialBalance(MillBoard board, byte whitePiecesInHand, byte blackPiecesInHand) {
+        return (board.countSquares(BoardInfo.WHITE) + whitePiecesInHand) -
+               (board.countSquares(BoardInfo.BLACK) + blackPiecesInHand);
+    }
+
+    /** Ovatko symmetristen kuvien avaimet (alkupeliss) samat kuin laudasta lasketut?*/
+    private boolean symmetricKeysMatch(MillBoard board) {
+        if (this.gameState != MillGame.PHASE_BEGINNING) {
+            return true;
+        }
+        for (int symmetry = 0; symmetry < BoardInfo.SYMMETRIES; symmetry++) {
+            long key = 0L;
+            for (byte square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+                if (board.get(square) != BoardInfo.EMPTY) {
+                    key ^= Zobrist.getSymmetricPieceKey(symmetry, board.get(square), square);
+                }
+            }
+            if (key != this.symmetricPieceKeys[symmetry]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Vastaako tilanne tsmlleen annettua peli?*/
+    private boolean equalsGame(MillGame game) {
+        MillBoard gameBoard = game.getMillBoard();
+        return this.board.getMask(BoardInfo.WHITE) == gameBoard.getMask(BoardInfo.WHITE) &&
+               this.board.getMask(BoardInfo.BLACK) == gameBoard.getMask(BoardInfo.BLACK) &&
+               this.gameState == game.getGameState() &&
+               this.activePlayer == game.getActivePlayer() &&
+               this.whitePiecesInHand == game.getWhitePiecesInHand() &&
+               this.blackPiecesInHand == game.getBlackPiecesInHand() &&
+               this.hashKey == game.getHashKey() &&
+               this.symmetricKeysMatch(gameBoard) &&
+               this.materialBalance == countMaterialBalance(gameBoard, game.getWhitePiecesInHand(),
+                                                            game.getBlackPiecesInHand());
+    }
+
+
+    /** Testiohjelma: verrataan siirtoja ja peruutuksia MillGame-olioon*/
+    public static void main(String[] args) {
+        Random random = new Random(2);
+        int errors = 0;
+        int moveCounter = 0;
+        int repetitions = 0;
+        for (int gameCounter = 0; gameCounter < 1000; gameCounter++) {
+            MillGame game = new MillGame();
+            SearchPosition position = new SearchPosition(game);
+            java.util.HashSet<Long> earlierKeys = new java.util.HashSet<Long>();
+            boolean over = false;
+            while ( !over) {
+                // Toisto: avain sislt nappuloiden mrt, vaiheen ja vuoron,
+                // joten riitt verrata kaikkiin pelin aiempiin avaimiin.
+                if (position.isRepetition() != earlierKeys.contains(game.getHashKey())) {
+                    errors++;
+                }
+                if (position.isRepetition()) {
+                    repetitions++;
+                }
+                Move[] moves = LegalMoves.getAllLegalMoves(position);
+                if (moves.length == 0) {
+                    break;
+                }
+                // Jokainen siirto tehdn ja perutaan ennen varsinaista siirtoa
+                for (int index = 0; index < moves.length; index++) {
+                    MillGame copy = (MillGame)game.clone();
+                    boolean copyOver = copy.makeMove(moves[index], false);
+                    if (position.doMove(moves[index]) != copyOver || !position.equalsGame(copy)) {
+                        errors++;
+                    }
+                    if ( !copyOver && position.isRepetition() != earlierKeys.contains(copy.getHashKey()) ||
+                         !copyOver && new SearchPosition(position).isRepetition() != position.isRepetition()) {
+                            errors++;
+                    }
+                    position.undoMove();
+                    if ( !position.equalsGame(game)) {
+                        errors++;
+                    }
+                    moveCounter++;
+                }
+                earlierKeys.add(game.getHashKey());
+                over = game.makeMove(moves[random.nextInt(moves.length)]);
+                position = new SearchPosition(game);
+            }
+        }
+        System.out.println("Siirtoja: "+moveCounter+", toistoja: "+repetitions+", virheit: "+errors+" --> 0 OK");
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Luokan <tt>SearchResult</tt> ilmentymt ovat haun tuloksia: pjuoni,
+ * sen arvo vuorossa olevan pelaajan kannalta, saavutettu syvyys, avatut solmut
+ * ja kytetty aika. Asynkroninen haku (ks. <tt>SearchEngine</tt>) ilmoittaa
+ * samanlaisen tuloksen jokaisen valmistuneen kierroksen jlkeen ja lopuksi
+ * haun lopputuloksena.
+ * <p>
+ * Syvyys 0 tarkoittaa, ettei siirtoa haettu: siirto tuli avauskirjastosta, tai
+ * haku keskeytettiin ennen ensimmist kierrosta, jolloin siirto on mik tahansa
+ * laillinen siirto. Jos laillisia siirtoja ei ole, pjuoni on tyhj ja siirto
+ * <tt>null</tt>.
+ */
+public final class SearchResult {
+
+    private final Move[] line;
+    private final short value;
+    private final int depth;
+    private final long nodes;
+    private final long timeMillis;
+
+    // Taulukkoa line ei kopioida: tuloksen luoja antaa oman kopionsa.
+    SearchResult(Move[] line, short value, int depth, long nodes, long timeMillis) {
+        this.line = line;
+        this.value = value;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+    }
+
+    /** Paras lydetty siirto (pjuonen ensimminen siirto) tai <tt>null</tt>, jos siirtoja ei ole*/
+    public Move getMove() { return (this.line.length > 0) ? this.line[0] : null; }
+
+    /** Pjuoni: paras siirtojono molempien pelaajien parhailla siirroilla*/
+    public Move[] getPrincipalVariation() { return this.line.clone(); }
+
+    /** Pjuonen arvo vuorossa olevan pelaajan kannalta*/
+    public short getValue() { return this.value; }
+
+    public int getDepth() { return this.depth; }
+
+    public long getNodes() { return this.nodes; }
+
+    public long getTimeMillis() { return this.timeMillis; }
+
+    /** Avatut solmut sekunnissa*/
+    public long getNodesPerSecond() {
+        return this.nodes * 1000 / Math.max(this.timeMillis, 1);
+    }
+
+    public String toString() {
+        String tmp = "depth:"+this.depth+
+                     " move:"+this.getMove()+
+                     " value:"+this.value+
+                     " nodes:"+this.nodes+
+                     " nps:"+this.getNodesPerSecond()+
+                     " time:"+this.timeMillis+"ms pv:";
+        for (int index = 0; index < this.line.length; index++) {
+            tmp = tmp + this.line[index];
+        }
+        return tmp;
+    }
+}
@@ -1,14 +1,35 @@
 public class TextMillAI{
-	public static void main(String[] args) {
+    private static final int TIME_LIMIT_SECONDS = 4;
+
+    // Parametrina voi antaa loppupelitietokannan (ks. EndgameDatabase).
+    // Tekoly pohtii pelaajan vuorolla odotettua vastausta (ks. Ponderer).
+	public static void main(String[] args) throws java.io.IOException {
         MillGame game = new MillGame();
         MillAI ai = new MillAI();
+        Ponderer ponderer = new Ponderer(ai);
+        if (args.length > 0 && !args[0].equals("-")) {
+            ai.setEndgameDatabase(EndgameDatabase.open(new java.io.File(args[0])));
+        }
+        if (args.length > 1) {
+            ai.setOpeningBook(OpeningBook.open(new java.io.File(args[1])));
+        }
         boolean victory = false;
         while ( !victory) {
             System.out.println(game);
 
             if (game.getActivePlayer() == MillGame.BLACK_PLAYER) {
                 System.out.println("AI thinking...");
-                victory = game.makeMove( ai.timeSearch(game,4) );
+                Move move = ponderer.getResult(game);
+                if (move != null) {
+                    System.out.println("ponder hit");
+                }
+                else {
+                    move = ai.timeSearch(game, TIME_LIMIT_SECONDS);
+                }
+                victory = game.makeMove(move);
+                if ( !victory) {
+                    ponderer.start(game);
+                }
             }
             else {
 
@@ -17,10 +38,12 @@ public class TextMillAI{
                 String removeStr = Lue.rivi();
 
                 if (fromStr.equals("undo")) {
+                    ponderer.stop();
                     game.undo();
                     game.undo();
                 }
                 else if (fromStr.equals("redo")) {
+                    ponderer.stop();
                     game.redo();
                     game.redo();
                 }
@@ -29,7 +52,12 @@ public class TextMillAI{
                         byte from = Byte.parseByte(fromStr);
                         byte to = Byte.parseByte(toStr);
                         byte remove = Byte.parseByte(removeStr);
-                        victory = game.makeMove( new Move(from, to, remove) );
+                        Move move = new Move(from, to, remove);
+                        int turn = game.getTurnNumber();
+                        victory = game.makeMove(move);
+                        if ( !victory && game.getTurnNumber() != turn) { // siirto tehtiin
+                            ponderer.opponentMoved(move, TIME_LIMIT_SECONDS);
+                        }
                     }
                     catch (NumberFormatException e) {
                         System.out.println("######## FROM, TO tai REMOVE ovat lukuja vlilt -1 -- 23!");
@@ -47,5 +75,6 @@ public class TextMillAI{
                                    game.getActivePlayer());
             }
         }
+        ponderer.stop();
     }
 }
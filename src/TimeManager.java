@@ -0,0 +1,293 @@
+/**
+ * Haun ajankytn hallinta. Aikaa on kaksi rajaa: pehmen rajan jlkeen
+ * uutta iteratiivisen syvenemisen kierrosta ei aloiteta, ja kovalla rajalla
+ * kynniss oleva kierros keskeytetn. Kello luetaan (<tt>System.nanoTime</tt>)
+ * vain joka <tt>CHECK_INTERVAL</tt>. solmussa, joten solmukohtainen tarkistus
+ * on vain laskurin vhennys ja lipun luku.
+ * <p>
+ * Kierrosten vliss pehme rajaa sdetn: jos paras siirto vaihtuu,
+ * rajaa jatketaan (kuitenkin enintn kovaan rajaan), ja jos sama siirto on
+ * pysynyt parhaana useita kierroksia ja sen alipuu vie lhes kaikki juuren
+ * solmut, siirto on selvsti muita parempi ja haku lopetetaan jo puolessa
+ * pehmest rajasta. Uutta kierrosta ei myskn aloiteta, jos sen arvioidaan
+ * jatkuvan yli kovan rajan, koska kesken jnyt kierros menisi lhes aina hukkaan.
+ * <p>
+ * Vastustajan ajalla pohdittaessa (ks. <tt>MillAI.ponderSearch</tt>) aikaa ei
+ * rajoiteta. Kun vastustaja tekee odotetun siirron, <tt>ponderHit</tt> antaa
+ * haulle aikarajat: pohdintaan kulunut aika lasketaan pehmen rajaan, mutta
+ * kova raja lasketaan osumahetkest. Jos pehme raja on jo ylittynyt, haku
+ * pttyy heti.
+ * <p>
+ * Testej varten haun voi rajata mys solmumrll (<tt>setNodeLimit</tt>),
+ * jolloin haku keskeytyy kuin kovalla rajalla, mutta joka ajolla samassa kohdassa.
+ * <p>
+ * Olio ei ole sieturvallinen: jokaisella hakijalla on omansa. Ainoastaan
+ * <tt>ponderHit</tt> kutsutaan toisesta sikeest, ja hakusie ottaa sen
+ * rajat kyttn seuraavalla kellon luvulla.
+ */
+final class TimeManager {
+
+    /** Solmujen mr kellon lukujen vlill*/
+    static final int CHECK_INTERVAL = 1024;
+
+    /** Pehme raja kovan rajan osuutena, kun vain kova raja annetaan*/
+    static final double DEFAULT_SOFT_FRACTION = 0.5;
+
+    // Parhaan siirron vaihtuminen jatkaa pehme rajaa tll osuudella alkuperisest.
+    private static final double CHANGE_EXTENSION = 0.5;
+
+    // Selvsti paras siirto: pysynyt parhaana nin monta kierrosta ja vienyt
+    // vhintn tmn osuuden kierroksen solmuista.
+    private static final int DOMINANT_ITERATIONS = 3;
+    private static final double DOMINANT_NODE_SHARE = 0.9;
+    private static final double DOMINANT_SOFT_FRACTION = 0.5;
+
+    // Seuraavan kierroksen keston arvion kasvukertoimen rajat
+    private static final double MIN_ITERATION_GROWTH = 1.5;
+    private static final double MAX_ITERATION_GROWTH = 6.0;
+
+    private boolean limited = false;
+    private long started = 0;
+    private long baseSoftNanos = 0;
+    private long softDeadline = 0;
+    private long hardDeadline = 0;
+    private int countdown = CHECK_INTERVAL;
+    private int interval = CHECK_INTERVAL;
+    private boolean expired = false;
+    private volatile boolean stopped = false;
+    private long countedNodes = 0;
+    private long nodeLimit = 0;
+
+    // Pohdinta: osuman rajat vlittyvt hakusikeelle volatile-kentn kautta.
+    private boolean pondering = false;
+    private volatile boolean ponderHit = false;
+    private long hitSoftMillis = 0;
+    private long hitHardMillis = 0;
+    private long hitTime = 0;
+
+    // Kierrosten tiedot pehmen rajan st varten
+    private long iterationStarted = 0;
+    private long previousNodes = 0;
+    private long olderNodes = 0;
+    private int iterations = 0;
+    private int bestMove = Move.NO_MOVE;
+    private int stableIterations = 0;
+    private int extensions = 0;
+    private boolean dominant = false;
+
+
+    /** Aloittaa haun ilman aikarajaa.*/
+    void startUnlimited() {
+        this.start();
+        this.limited = false;
+    }
+
+    /** Aloittaa pohdinnan: aikaa ei rajoiteta ennen <tt>ponderHit</tt>-kutsua.*/
+    void startPondering() {
+        this.start();
+        this.limited = false;
+        this.pondering = true;
+    }
+
+   /**
+    * Vastustaja teki odotetun siirron: pohdinnasta tulee varsinainen haku
+    * annetuilla rajoilla. Kutsutaan pohtivan haun ulkopuolelta.
+    */
+    void ponderHit(long softMillis, long hardMillis) {
+        if (softMillis < 0 || hardMillis < 1 || softMillis > hardMillis) {
+            throw new IllegalArgumentException("ponderHit(long,long): softMillis:"+softMillis+
+                                               " must be between 0 and hardMillis:"+hardMillis+
+                                               ", which must be positive.");
+        }
+        this.hitSoftMillis = softMillis;
+        this.hitHardMillis = hardMillis;
+        this.hitTime = System.nanoTime();
+        this.ponderHit = true; // volatile: julkaisee edelliset kentt
+    }
+
+    /** Keskeytt haun seuraavalla kellon luvulla. Kutsutaan haun ulkopuolelta.*/
+    void stop() {
+        this.stopped = true;
+    }
+
+    boolean isPondering() { return this.pondering; }
+
+    // Hakusie ottaa osuman rajat kyttn.
+    private void applyPonderHit(long now) {
+        this.pondering = false;
+        this.limited = true;
+        this.baseSoftNanos = this.hitSoftMillis * 1000000;
+        this.softDeadline = this.started + this.baseSoftNanos;
+        this.hardDeadline = this.hitTime + this.hitHardMillis * 1000000;
+        if (now >= this.softDeadline && this.iterations > 0) {
+            this.expired = true; // pohdittu jo tarpeeksi: valmis tulos kelpaa
+        }
+    }
+
+   /**
+    * Aloittaa aikarajoitetun haun.
+    * @param softMillis Pehme raja (uusi kierros), enintn <tt>hardMillis</tt>
+    * @param hardMillis Kova raja (keskeytys)
+    */
+    void start(long softMillis, long hardMillis) {
+        if (softMillis < 0 || hardMillis < 1 || softMillis > hardMillis) {
+            throw new IllegalArgumentException("start(long,long): softMillis:"+softMillis+
+                                               " must be between 0 and hardMillis:"+hardMillis+
+                                               ", which must be positive.");
+        }
+        this.start();
+        this.limited = true;
+        this.baseSoftNanos = softMillis * 1000000;
+        this.softDeadline = this.started + this.baseSoftNanos;
+        this.hardDeadline = this.started + hardMillis * 1000000;
+    }
+
+    private void start() {
+        this.started = System.nanoTime();
+        this.expired = false;
+        this.stopped = false;
+        this.countedNodes = 0;
+        this.interval = this.nextInterval();
+        this.countdown = this.interval;
+        this.pondering = false;
+        this.ponderHit = false;
+        this.iterations = 0;
+        this.iterationStarted = this.started;
+        this.previousNodes = 0;
+        this.olderNodes = 0;
+        this.bestMove = Move.NO_MOVE;
+        this.stableIterations = 0;
+        this.extensions = 0;
+        this.dominant = false;
+    }
+
+    boolean isLimited() { return this.limited; }
+
+   /**
+    * Rajaa seuraavat haut tarkalleen solmumrn (0 = ei rajaa). Rajan
+    * lhell kellon lukujen vli lyhenee, jotta raja osuu solmulleen.
+    */
+    void setNodeLimit(long nodes) {
+        if (nodes < 0) {
+            throw new IllegalArgumentException("setNodeLimit(long): nodes:"+nodes+" can't be negative.");
+        }
+        this.nodeLimit = nodes;
+    }
+
+    /** Haun aikana lasketut solmut*/
+    long getCountedNodes() { return this.countedNodes + this.interval - this.countdown; }
+
+    // Solmut seuraavaan kellon lukuun: tavallisesti CHECK_INTERVAL, mutta
+    // enintn solmurajaan asti.
+    private int nextInterval() {
+        if (this.nodeLimit == 0) {
+            return CHECK_INTERVAL;
+        }
+        return (int)Math.max(1, Math.min(CHECK_INTERVAL, this.nodeLimit - this.countedNodes));
+    }
+
+    /** Onko kova raja ylittynyt (viimeisimmn kellon luvun mukaan)?*/
+    boolean isExpired() { return this.expired; }
+
+    /** Laskee solmun ja lukee kellon joka <tt>CHECK_INTERVAL</tt>. kerta.*/
+    void countNode() {
+        if (--this.countdown == 0) {
+            this.countedNodes += this.interval;
+            this.interval = this.nextInterval();
+            this.countdown = this.interval;
+            if (this.nodeLimit > 0 && this.countedNodes >= this.nodeLimit) {
+                this.expired = true;
+            }
+            if (this.stopped) {
+                this.expired = true;
+                return;
+            }
+            if (this.pondering) {
+                if ( !this.ponderHit) {
+                    return;
+                }
+                this.applyPonderHit(System.nanoTime());
+            }
+            if (this.limited && System.nanoTime() >= this.hardDeadline) {
+                this.expired = true;
+            }
+        }
+    }
+
+    long getElapsedMillis() {
+        return (System.nanoTime() - this.started) / 1000000;
+    }
+
+    /** Merkitsee uuden kierroksen alkaneeksi.*/
+    void startIteration() {
+        this.iterationStarted = System.nanoTime();
+    }
+
+   /**
+    * Ptt valmistuneen kierroksen ja kertoo, kannattaako seuraava aloittaa.
+    * @param nodes Kierroksen solmut
+    * @param move Kierroksen paras siirto
+    * @param moveNodes Parhaan siirron alipuun solmut
+    * @param rootMoves Juuren tutkittavien siirtojen mr
+    */
+    boolean startNextIteration(long nodes, int move, long moveNodes, int rootMoves) {
+        long now = System.nanoTime();
+        this.iterations++;
+        if (this.pondering && this.ponderHit) {
+            this.applyPonderHit(now);
+        }
+        if (move == this.bestMove) {
+            this.stableIterations++;
+        }
+        else {
+            if (this.bestMove != Move.NO_MOVE && this.limited) {
+                this.softDeadline = Math.min(this.hardDeadline,
+                                             this.softDeadline + (long)(this.baseSoftNanos * CHANGE_EXTENSION));
+                this.extensions++;
+            }
+            this.bestMove = move;
+            this.stableIterations = 0;
+        }
+        this.dominant = (this.stableIterations >= DOMINANT_ITERATIONS &&
+                         moveNodes >= DOMINANT_NODE_SHARE * nodes);
+        long iterationNanos = now - this.iterationStarted;
+        long olderNodes = this.olderNodes;
+        this.olderNodes = this.previousNodes;
+        this.previousNodes = nodes;
+        if ( !this.limited) {
+            return true;
+        }
+        if (rootMoves <= 1) {
+            return false; // ainoa siirto: hakemalla ei voi voittaa mitn
+        }
+        long soft = this.softDeadline;
+        if (this.dominant) {
+            soft = this.started + (long)((this.softDeadline - this.started) * DOMINANT_SOFT_FRACTION);
+        }
+        if (now >= soft) {
+            return false;
+        }
+        // Seuraavan kierroksen kesto arvioidaan kahden viime kierroksen
+        // keskimrisest kasvusta (parilliset ja parittomat syvyydet
+        // kasvavat eri tahtia). Ellei kierros ehdi valmiiksi, lopetetaan.
+        if (olderNodes > 0) {
+            double growth = Math.sqrt((double)nodes / olderNodes);
+            growth = Math.min(Math.max(growth, MIN_ITERATION_GROWTH), MAX_ITERATION_GROWTH);
+            if (now + iterationNanos * growth > this.hardDeadline) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String toString() {
+        if (this.pondering) {
+            return "time: pondering";
+        }
+        if ( !this.limited) {
+            return "time: unlimited";
+        }
+        return "time: soft "+(this.softDeadline - this.started)/1000000+"ms (extended "+this.extensions+"x)"+
+               " hard "+(this.hardDeadline - this.started)/1000000+"ms"+(this.dominant ? " dominant move" : "");
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Luokan <tt>TranspositionTable</tt> ilmentymt ovat kiinten kokoisia
+ * hajautustauluja, joihin tekoly tallentaa jo tutkittujen pelitilanteiden
+ * arvoja. Sama tilanne voi synty monta eri siirtojrjestyst pitkin, ja
+ * taulun ansiosta sit ei tarvitse tutkia uudelleen.
+ * <p>
+ * Jokaisesta tilanteesta tallennetaan Zobrist-avain, arvo, arvon tyyppi
+ * (tarkka, ala- tai ylraja), hakusyvyys jolla arvo saatiin sek paras
+ * siirto. Tiedot pakataan yhteen <tt>long</tt>-lukuun, joten taulu ei
+ * luo olioita. Arvot ovat aina vuorossa olevan pelaajan nkkulmasta.
+ * <p>
+ * Taulu koostuu kahden paikan lokeroista. Ensimminen paikka silytt
+ * syvimmn haun tuloksen (tai korvataan, jos tieto on edellisist hauista),
+ * toiseen paikkaan kirjoitetaan aina uusin tulos.
+ * <p>
+ * Usea hakusie voi kytt samaa taulua yht aikaa ilman lukkoja. Avaimen
+ * paikalle tallennetaan avain XOR tiedot, joten jos toinen sie kirjoittaa
+ * paikkaan kesken lukemisen, avain ei tsm ja tieto jtetn huomiotta.
+ * Osumatilastot ovat tllin vain suuntaa-antavia.
+ */
+public class TranspositionTable {
+
+    /** Arvon tyypit*/
+    public static final int BOUND_EXACT = 0,
+                            BOUND_LOWER = 1,
+                            BOUND_UPPER = 2;
+
+    /** Yhden tallennuspaikan koko tavuina (avain + tiedot)*/
+    private static final int ENTRY_BYTES = 16;
+
+    /** Tietojen pakkaus: bittien sijainnit ja leveydet*/
+    private static final int DEPTH_SHIFT = 16,
+                             BOUND_SHIFT = 24,
+                             GENERATION_SHIFT = 26,
+                             MOVE_SHIFT = 34;
+    private static final long MOVE_MASK = 0xFFFFL;
+    private static final long VALID_BIT = 1L << 62;
+
+    private long[] keys;
+    private long[] data;
+    private int indexMask;
+
+    /** Monesko haku on menossa. Vanhojen hakujen tulokset korvataan ensin.*/
+    private int generation;
+
+    private long probes;
+    private long hits;
+    private long stores;
+
+   /**
+    * Luo uuden taulun, jonka koko on enintn annettu mr megatavuja.
+    * Paikkojen mr pyristetn alaspin kahden potenssiin.
+    * @param megabytes Taulun koko megatavuina. Arvolla 0 taulu ei tallenna mitn.
+    * @exception IllegalArgumentException Jos <tt>megabytes</tt> on negatiivinen.
+    */
+    public TranspositionTable(int megabytes) throws IllegalArgumentException {
+        this.resize(megabytes);
+    }
+
+   /**
+    * Muuttaa taulun kokoa. Kaikki tallennetut tiedot hvitetn.
+    * @param megabytes Taulun koko megatavuina. Arvolla 0 taulu ei tallenna mitn.
+    * @exception IllegalArgumentException Jos <tt>megabytes</tt> on negatiivinen.
+    */
+    public void resize(int megabytes) throws IllegalArgumentException {
+        if (megabytes < 0) {
+            throw new IllegalArgumentException("resize(int): size must not be negative: "+megabytes);
+        }
+        long entries = ((long)megabytes << 20) / ENTRY_BYTES;
+        int size = 0;
+        if (entries >= 2) {
+            size = Integer.highestOneBit((int)Math.min(entries, 1 << 30));
+        }
+        this.keys = new long[size];
+        this.data = new long[size];
+        this.indexMask = size - 2; // lokeron ensimminen paikka on aina parillinen
+        this.generation = 0;
+        this.resetStatistics();
+    }
+
+    /** Taulun koko megatavuina*/
+    public int getSizeMegabytes() {
+        return (int)(((long)this.keys.length * ENTRY_BYTES) >> 20);
+    }
+
+    /** Hvitt kaikki tallennetut tiedot*/
+    public void clear() {
+        java.util.Arrays.fill(this.keys, 0L);
+        java.util.Arrays.fill(this.data, 0L);
+        this.generation = 0;
+    }
+
+    /** Ilmoittaa uuden haun alkamisesta. Aiempien hakujen tulokset silyvt,
+     *  mutta ne korvataan ensimmisin.*/
+    public void newSearch() {
+        this.generation = (this.generation + 1) & 0xFF;
+    }
+
+
+   /**
+    * Hakee tilanteen tiedot taulusta.
+    * @param key Tilanteen Zobrist-avain
+    * @return Pakatut tiedot, tai 0 jos tilannetta ei lytynyt. Tiedot
+    *         puretaan staattisilla metodeilla <tt>getValue</tt>, <tt>getDepth</tt>,
+    *         <tt>getBound</tt> ja <tt>getMove</tt>.
+    */
+    public long probe(long key) {
+        if (this.keys.length == 0) {
+            return 0L;
+        }
+        this.probes++;
+        int index = (int)key & this.indexMask;
+        for (int slot = index; slot <= index+1; slot++) {
+            long entry = this.data[slot];           // luetaan vain kerran
+            if (entry != 0L && (this.keys[slot] ^ entry) == key) {
+                this.hits++;
+                return entry;
+            }
+        }
+        return 0L;
+    }
+
+   /**
+    * Tallentaa tilanteen tiedot tauluun.
+    * @param key   Tilanteen Zobrist-avain
+    * @param value Tilanteen arvo vuorossa olevan pelaajan nkkulmasta
+    * @param depth Jljell ollut hakusyvyys (0--127)
+    * @param bound <tt>BOUND_EXACT</tt>, <tt>BOUND_LOWER</tt> tai <tt>BOUND_UPPER</tt>
+    * @param move  Tilanteen paras siirto tai <tt>null</tt>
+    */
+    public void store(long key, short value, int depth, int bound, Move move) {
+        this.store(key, value, depth, bound, (move == null) ? Move.NO_MOVE : move.CODE);
+    }
+
+   /**
+    * Kuten <tt>store(long, short, int, int, Move)</tt>, mutta paras siirto
+    * annetaan <tt>Move</tt>-luokan koodina.
+    * @param move  Tilanteen parhaan siirron koodi tai <tt>Move.NO_MOVE</tt>
+    */
+    public void store(long key, short value, int depth, int bound, int move) {
+        if (this.keys.length == 0) {
+            return;
+        }
+        this.stores++;
+        long entry = VALID_BIT |
+                     (value & 0xFFFFL) |
+                     ((long)(depth & 0xFF) << DEPTH_SHIFT) |
+                     ((long)bound << BOUND_SHIFT) |
+                     ((long)this.generation << GENERATION_SHIFT) |
+                     ((long)(move + 1) << MOVE_SHIFT);
+
+        int index = (int)key & this.indexMask;
+        long old = this.data[index];
+        boolean sameKey = (old != 0L && (this.keys[index] ^ old) == key);
+        if (old == 0L || sameKey ||
+            getDepth(old) <= depth || getGeneration(old) != this.generation) {
+            // Syvyytt suosiva paikka
+            if (sameKey && move == Move.NO_MOVE) {
+                entry |= old & (MOVE_MASK << MOVE_SHIFT); // vanha paras siirto silyy
+            }
+            this.keys[index] = key ^ entry;
+            this.data[index] = entry;
+        }
+        else {
+            // Aina korvattava paikka
+            this.keys[index+1] = key ^ entry;
+            this.data[index+1] = entry;
+        }
+    }
+
+    /** Tallennettu arvo*/
+    public static short getValue(long entry) {
+        return (short)entry;
+    }
+
+    /** Tallennettu hakusyvyys*/
+    public static int getDepth(long entry) {
+        return (int)(entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    /** Tallennetun arvon tyyppi*/
+    public static int getBound(long entry) {
+        return (int)(entry >>> BOUND_SHIFT) & 0x3;
+    }
+
+    /** Tallennettu paras siirto tai <tt>null</tt>*/
+    public static Move getMove(long entry) {
+        return Move.valueOf(getMoveCode(entry));
+    }
+
+    /** Tallennetun parhaan siirron koodi tai <tt>Move.NO_MOVE</tt>*/
+    public static int getMoveCode(long entry) {
+        return (int)((entry >>> MOVE_SHIFT) & MOVE_MASK) - 1;
+    }
+
+   /**
+    * Tallennetun parhaan siirron koodi tilanteessa, jonka avain on laskettu
+    * symmetrisest kuvasta (ks. <tt>SearchPosition.getHashKey(int)</tt>).
+    * Taulukossa siirto on kuvan siirto, joten se kuvataan takaisin.
+    * @param symmetry Symmetria, jolla avain laskettiin
+    */
+    public static int getMoveCode(long entry, int symmetry) {
+        return Move.getSymmetricMove(BoardInfo.getInverseSymmetry(symmetry), getMoveCode(entry));
+    }
+
+    private static int getGeneration(long entry) {
+        return (int)(entry >>> GENERATION_SHIFT) & 0xFF;
+    }
+
+    /** Tyhjent osumatilastot*/
+    public void resetStatistics() {
+        this.probes = 0;
+        this.hits = 0;
+        this.stores = 0;
+    }
+
+    public long getProbes() { return this.probes; }
+
+    public long getHits() { return this.hits; }
+
+    public long getStores() { return this.stores; }
+
+    /** Osumien osuus hauista prosentteina*/
+    public double getHitRate() {
+        if (this.probes == 0) {
+            return 0.0;
+        }
+        return 100.0 * this.hits / this.probes;
+    }
+
+    public String toString() {
+        return "hash: "+this.getSizeMegabytes()+"MB, hits "+((int)(this.getHitRate()*10))/10.0+"% of "+this.probes;
+    }
+}
@@ -0,0 +1,204 @@
+import java.util.Random;
+
+/**
+ * Luokka <tt>Zobrist</tt> tarjoaa satunnaislukutaulukot, joiden avulla
+ * myllypelin tilanteelle lasketaan 64-bittinen tunniste (Zobrist-avain).
+ * Avain on pelilaudan nappuloiden, vuorossa olevan pelaajan, pelivaiheen
+ * ja ksinappuloiden mrien satunnaislukujen XOR. Siirron jlkeen avain
+ * voidaan pivitt muuttamalla vain siirron koskemat osat.
+ * <p>
+ * Satunnaisluvut arvotaan aina samalla siemenell, joten avaimet ovat
+ * samat jokaisella ajokerralla ja ne voidaan tallentaa tiedostoihin.
+ */
+public final class Zobrist{
+
+    /** Satunnaislukugeneraattorin kiinte siemen*/
+    private static final long SEED = 20040205L;
+
+    /** Nappulan satunnaisluvut: indeksein vri (<tt>BoardInfo.BLACK/WHITE</tt>) ja ruutu*/
+    private static final long[][] PIECE_KEYS = new long[3][BoardInfo.SQUARES_ON_BOARD];
+
+    /**
+     * Nappulan satunnaisluvut laudan symmetrisiss kuvissa: indeksein vri,
+     * ruutu ja symmetria (ks. <tt>BoardInfo.SYMMETRIES</tt>)
+     */
+    private static final long[][][] SYMMETRIC_PIECE_KEYS =
+        new long[3][BoardInfo.SQUARES_ON_BOARD][BoardInfo.SYMMETRIES];
+
+    /** Vuorossa olevan pelaajan satunnaisluvut: indeksin pelaaja*/
+    private static final long[] PLAYER_KEYS = new long[3];
+
+    /** Pelivaiheen satunnaisluvut: indeksin <tt>MillGame.PHASE_*</tt>*/
+    private static final long[] PHASE_KEYS = new long[5];
+
+    /** Ksinappuloiden mrn satunnaisluvut: indeksein pelaaja ja mr (0--9)*/
+    private static final long[][] HAND_KEYS = new long[3][10];
+
+    static {
+        Random random = new Random(SEED);
+        for (int color = BoardInfo.BLACK; color <= BoardInfo.WHITE; color++) {
+            for (int square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+                PIECE_KEYS[color][square] = random.nextLong();
+            }
+            PLAYER_KEYS[color] = random.nextLong();
+            for (int count = 0; count < HAND_KEYS[color].length; count++) {
+                HAND_KEYS[color][count] = random.nextLong();
+            }
+        }
+        for (int phase = MillGame.PHASE_BEGINNING; phase <= MillGame.PHASE_GAME_OVER; phase++) {
+            PHASE_KEYS[phase] = random.nextLong();
+        }
+        for (int color = BoardInfo.BLACK; color <= BoardInfo.WHITE; color++) {
+            for (byte square = 0; square < BoardInfo.SQUARES_ON_BOARD; square++) {
+                for (int symmetry = 0; symmetry < BoardInfo.SYMMETRIES; symmetry++) {
+                    SYMMETRIC_PIECE_KEYS[color][square][symmetry] =
+                        PIECE_KEYS[color][BoardInfo.getSymmetricSquare(symmetry, square)];
+                }
+            }
+        }
+    }
+
+    /** Ei kutsuta koskaan*/
+    private Zobrist() {}
+
+   /**
+    * Nappulan satunnaisluku.
+    * @param color    <tt>BoardInfo.WHITE</tt> tai <tt>BoardInfo.BLACK</tt>
+    * @param square   Ruutu, jossa nappula on (<tt>0 <= square <= 23</tt>)
+    * @return Nappulan osuus avaimesta
+    * @exception ArrayIndexOutOfBoundsException Jos parametrit olivat sallittujen arvojen ulkopuolella.
+    */
+    public static long getPieceKey(byte color, byte square) {
+        return PIECE_KEYS[color][square];
+    }
+
+   /**
+    * Nappulan satunnaisluku laudan symmetrisess kuvassa, eli nappulan
+    * <tt>getPieceKey</tt> ruudun kuvassa.
+    * @param symmetry Symmetria, <tt>0 <= symmetry < BoardInfo.SYMMETRIES</tt>
+    * @param color    <tt>BoardInfo.WHITE</tt> tai <tt>BoardInfo.BLACK</tt>
+    * @param square   Ruutu, jossa nappula on
+    * @return Nappulan osuus kuvan avaimesta
+    */
+    public static long getSymmetricPieceKey(int symmetry, byte color, byte square) {
+        return SYMMETRIC_PIECE_KEYS[color][square][symmetry];
+    }
+
+   /**
+    * Nappulan satunnaisluvut kaikissa symmetrisiss kuvissa symmetrian
+    * mukaan jrjestettyn. Taulukkoa ei kopioida, joten sit saa vain lukea.
+    * @param color    <tt>BoardInfo.WHITE</tt> tai <tt>BoardInfo.BLACK</tt>
+    * @param square   Ruutu, jossa nappula on
+    * @return Taulukko, jonka koko on <tt>BoardInfo.SYMMETRIES</tt>
+    */
+    static long[] getSymmetricPieceKeys(byte color, byte square) {
+        return SYMMETRIC_PIECE_KEYS[color][square];
+    }
+
+   /**
+    * Vuorossa olevan pelaajan satunnaisluku.
+    * @param player    <tt>MillGame.WHITE_PLAYER</tt> tai <tt>MillGame.BLACK_PLAYER</tt>
+    * @return Pelaajan osuus avaimesta
+    */
+    public static long getPlayerKey(byte player) {
+        return PLAYER_KEYS[player];
+    }
+
+   /**
+    * Pelivaiheen satunnaisluku.
+    * @param gameState    Jokin <tt>MillGame.PHASE_*</tt>-arvoista
+    * @return Pelivaiheen osuus avaimesta
+    */
+    public static long getPhaseKey(byte gameState) {
+        return PHASE_KEYS[gameState];
+    }
+
+   /**
+    * Ksinappuloiden mrn satunnaisluku.
+    * @param player    Kenen ksinappulat: <tt>MillGame.WHITE_PLAYER</tt> tai <tt>MillGame.BLACK_PLAYER</tt>
+    * @param count     Ksinappuloiden mr (0--9)
+    * @return Ksinappuloiden osuus avaimesta
+    */
+    public static long getHandKey(byte player, byte count) {
+        return HAND_KEYS[player][count];
+    }
+
+   /**
+    * Laskee koko avaimen alusta asti bittimaskeina annetusta tilanteesta.
+    * @param whiteSquares      Valkoisten nappuloiden ruudut bittimaskina
+    * @param blackSquares      Mustien nappuloiden ruudut bittimaskina
+    * @param activePlayer      Vuorossa oleva pelaaja
+    * @param gameState         Pelivaihe
+    * @param whitePiecesInHand Valkoisen ksinappulat
+    * @param blackPiecesInHand Mustan ksinappulat
+    * @return Tilanteen Zobrist-avain
+    */
+    public static long computeKey(int whiteSquares,
+                                  int blackSquares,
+                                  byte activePlayer,
+                                  byte gameState,
+                                  byte whitePiecesInHand,
+                                  byte blackPiecesInHand) {
+        long key = PLAYER_KEYS[activePlayer] ^ PHASE_KEYS[gameState] ^
+                   HAND_KEYS[BoardInfo.WHITE][whitePiecesInHand] ^
+                   HAND_KEYS[BoardInfo.BLACK][blackPiecesInHand];
+        while (whiteSquares != 0) {
+            key ^= PIECE_KEYS[BoardInfo.WHITE][Integer.numberOfTrailingZeros(whiteSquares)];
+            whiteSquares &= whiteSquares - 1;
+        }
+        while (blackSquares != 0) {
+            key ^= PIECE_KEYS[BoardInfo.BLACK][Integer.numberOfTrailingZeros(blackSquares)];
+            blackSquares &= blackSquares - 1;
+        }
+        return key;
+    }
+
+   /**
+    * Laskee koko avaimen alusta asti annetusta pelilaudasta ja pelin tilasta.
+    * @see #computeKey(int,int,byte,byte,byte,byte)
+    */
+    public static long computeKey(MillBoard board,
+                                  byte activePlayer,
+                                  byte gameState,
+                                  byte whitePiecesInHand,
+                                  byte blackPiecesInHand) {
+        return computeKey(board.getMask(BoardInfo.WHITE), board.getMask(BoardInfo.BLACK),
+                          activePlayer, gameState, whitePiecesInHand, blackPiecesInHand);
+    }
+
+
+    /** Testiohjelma: pelataan satunnaispelej ja verrataan pivitetty avainta laskettuun*/
+    public static void main(String[] args) {
+        Random random = new Random(1);
+        int errors = 0;
+        int positions = 0;
+        for (int gameCounter = 0; gameCounter < 1000; gameCounter++) {
+            MillGame game = new MillGame();
+            boolean over = false;
+            while ( !over) {
+                Move[] moves = LegalMoves.getAllLegalMoves(game);
+                if (moves.length == 0) {
+                    break;
+                }
+                over = game.makeMove(moves[random.nextInt(moves.length)]);
+                if (game.getHashKey() != game.computeHashKey() ||
+                    ((MillGame)game.clone()).getHashKey() != game.getHashKey()) {
+                    errors++;
+                }
+                positions++;
+                if (random.nextInt(10) == 0) {
+                    long before = game.getHashKey();
+                    game.undo();
+                    if (game.getHashKey() != game.computeHashKey()) {
+                        errors++;
+                    }
+                    game.redo();
+                    if (game.getHashKey() != before) {
+                        errors++;
+                    }
+                }
+            }
+        }
+        System.out.println("Tilanteita: "+positions+", virheit: "+errors+" --> 0 OK");
+    }
+}